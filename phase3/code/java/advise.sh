@@ -0,0 +1,8 @@
+#! /bin/bash
+DBNAME=$1
+PORT=$2
+USER=$3
+shift 3
+
+# Example: source ./advise.sh flightDB 5432 user --min-rows 1000 --plans
+java -cp lib/*:bin/ IndexAdvisor $DBNAME $PORT $USER "$@"
@@ -0,0 +1,19 @@
+#! /bin/bash
+# Runs ShopBenchmark against a local Postgres started with the scripts in
+# ../postgresql.  Pass --fresh to (re)start the server and create the
+# database first; every other argument goes to ShopBenchmark.
+#
+# Examples:
+#   ./bench.sh --fresh --requests 1000,100000 --result-rows 1,1000,100000
+#   ./bench.sh --only List --iterations 50
+
+DBNAME=$LOGNAME"_DB"
+PORT=5432
+
+if [ "$1" == "--fresh" ]; then
+	shift
+	(cd ../postgresql && source ./startPostgreSQL.sh && source ./createPostgreDB.sh)
+fi
+
+./compile.sh
+java -cp lib/*:bin/ ShopBenchmark $DBNAME $PORT $LOGNAME "$@"
@@ -0,0 +1,5 @@
+#! /bin/bash
+# Examples:
+#   ./generate.sh --requests 1000000 --out /tmp/$LOGNAME/gen
+#   ./generate.sh --requests 1000000 --db $LOGNAME"_DB" 5432 $LOGNAME --truncate
+java -cp lib/*:bin/ DataGenerator "$@"
@@ -0,0 +1,10 @@
+#! /bin/bash
+DBNAME=$1
+PORT=$2
+USER=$3
+TABLE=$4
+FILE=$5
+shift 5
+
+# Example: source ./load.sh flightDB 5432 user Customer ../data/customer.csv --batch 500 --txn 5000 --copy
+java -cp lib/*:bin/ BulkLoader $DBNAME $PORT $USER $TABLE $FILE "$@"
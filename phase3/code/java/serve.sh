@@ -0,0 +1,13 @@
+#! /bin/bash
+DBNAME=$1
+PORT=$2
+USER=$3
+shift 3
+
+# Serves the shop over HTTP/JSON until interrupted.  Load test it from
+# localhost with any HTTP load generator, for example
+#   wrk -t4 -c64 -d30s http://localhost:8080/reports/most-serviced-cars?k=10
+# and read the per endpoint latencies from http://localhost:8080/metrics.
+#
+# Example: source ./serve.sh flightDB 5432 user --http-port 8080 --concurrency 4 --queue 128
+java -cp lib/*:bin/ ShopServer $DBNAME $PORT $USER "$@"
@@ -0,0 +1,473 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+
+/**
+ * This class is a non-interactive loader for CSV files shaped like the
+ * files in phase3/code/data (no header, columns in table order).  Each row
+ * is checked with the same rules the interactive prompts enforce, and the
+ * accepted rows are loaded either with JDBC batches or through the Postgres
+ * COPY protocol.  A throughput report and the rejected rows with their
+ * reasons are printed when the load finishes.
+ *
+ */
+public class BulkLoader{
+
+	/**
+	 * The tables the loader understands, with their column lists and the
+	 * conversion of one CSV record into validated column values.
+	 */
+	enum Table{
+		CUSTOMER("Customer", "id, fname, lname, phone, address", KeyAllocator.Key.CUSTOMER){
+			Object[] parse(String[] f){
+				return new Object[]{ surrogate(f[0]), Validators.firstName(f[1]), Validators.lastName(f[2]),
+					Validators.phone(f[3]), Validators.address(f[4]) };
+			}
+		},
+		MECHANIC("Mechanic", "id, fname, lname, experience", KeyAllocator.Key.MECHANIC){
+			Object[] parse(String[] f){
+				return new Object[]{ surrogate(f[0]), Validators.firstName(f[1]), Validators.lastName(f[2]),
+					Validators.experience(Integer.parseInt(f[3])) };
+			}
+		},
+		CAR("Car", "vin, make, model, year", null){
+			Object[] parse(String[] f){
+				return new Object[]{ Validators.vin(f[0]), Validators.make(f[1]), Validators.model(f[2]),
+					Validators.year(Integer.parseInt(f[3])) };
+			}
+		},
+		OWNS("Owns", "ownership_id, customer_id, car_vin", KeyAllocator.Key.OWNERSHIP){
+			Object[] parse(String[] f){
+				return new Object[]{ surrogate(f[0]), key(f[1]), Validators.vin(f[2]) };
+			}
+		},
+		SERVICE_REQUEST("Service_Request", "rid, customer_id, car_vin, date, odometer, complain", KeyAllocator.Key.SERVICE_REQUEST){
+			Object[] parse(String[] f){
+				return new Object[]{ surrogate(f[0]), key(f[1]), Validators.vin(f[2]), date(f[3]),
+					Validators.odometer(Integer.parseInt(f[4])), f[5] };
+			}
+		},
+		//the files have no request_date; it is looked up before each transaction
+		CLOSED_REQUEST("Closed_Request", "wid, rid, mid, date, comment, bill, request_date", KeyAllocator.Key.CLOSED_REQUEST){
+			Object[] parse(String[] f){
+				return new Object[]{ surrogate(f[0]), key(f[1]), key(f[2]), date(f[3]), f[4],
+					Validators.bill(Integer.parseInt(f[5])), null };
+			}
+
+			int fields(){
+				return width - 1;
+			}
+		};
+
+		final String name;
+		final String columns;
+		final int width;
+		//sequence of the surrogate key in the first column, null for natural keys
+		final KeyAllocator.Key key;
+
+		Table(String name, String columns, KeyAllocator.Key key){
+			this.name = name;
+			this.columns = columns;
+			this.width = columns.split(",").length;
+			this.key = key;
+		}
+
+		abstract Object[] parse(String[] fields);
+
+		//fields per line of the file
+		int fields(){
+			return width;
+		}
+
+		String insertSql(){
+			StringBuilder sql = new StringBuilder("INSERT INTO ").append(name).append(" (").append(columns).append(") VALUES (");
+			for(int i = 0; i < width; ++i) sql.append(i == 0 ? "?" : ", ?");
+			return sql.append(")").toString();
+		}
+
+		String copySql(){
+			return "COPY " + name + " (" + columns + ") FROM STDIN WITH (FORMAT csv)";
+		}
+
+		static Table of(String name){
+			for(Table t : values())
+				if(t.name.equalsIgnoreCase(name) || t.name().equalsIgnoreCase(name)) return t;
+			throw new IllegalArgumentException("Unknown table: " + name);
+		}
+	}//end Table
+
+	/**
+	 * A validated row together with the line it came from.
+	 */
+	static class Row{
+		final int line;
+		final Object[] values;
+
+		Row(int line, Object[] values){
+			this.line = line;
+			this.values = values;
+		}
+	}
+
+	private final Table _table;
+	private final int _batchSize;
+	private final int _txnSize;
+	private final boolean _useCopy;
+	//whether surrounding blanks are stripped from unquoted fields
+	private final boolean _trim;
+	//assigns the surrogate keys left blank in the file, may be null
+	private final KeyAllocator _keys;
+
+	//cleared once the database turns out not to have sql/partition.sql
+	private boolean _partitioned = true;
+
+	private long _read = 0;
+	private long _loaded = 0;
+	private final List<String> _rejects = new ArrayList<String>();
+
+	public BulkLoader(Table table, int batchSize, int txnSize, boolean useCopy, boolean trim, KeyAllocator keys){
+		if(batchSize <= 0 || txnSize <= 0) throw new IllegalArgumentException("Batch and transaction size must be positive");
+		this._table = table;
+		this._batchSize = batchSize;
+		this._txnSize = Math.max(txnSize, batchSize);
+		this._useCopy = useCopy;
+		this._trim = trim;
+		this._keys = keys;
+	}
+
+	/**
+	 * Method to load a CSV file.  Rows are validated as they are read and
+	 * flushed to the database one transaction at a time.  A blank surrogate
+	 * key is filled from the table's sequence a block at a time.  When a transaction
+	 * fails, its rows are retried one by one so that only the offending rows
+	 * are rejected.
+	 *
+	 * @param conn the connection to load through
+	 * @param file the CSV file
+	 * @throws java.sql.SQLException when the database cannot be reached
+	 * @throws java.io.IOException when the file cannot be read
+	 */
+	public void load(Connection conn, String file) throws SQLException, IOException {
+		boolean autoCommit = conn.getAutoCommit();
+		conn.setAutoCommit(false);
+		try(BufferedReader reader = new BufferedReader(new FileReader(file), 1 << 16)){
+			List<Row> txn = new ArrayList<Row>(_txnSize);
+			String line;
+			int lineNo = 0;
+			while((line = reader.readLine()) != null){
+				++lineNo;
+				if(line.trim().isEmpty()) continue;
+				++_read;
+				try{
+					String[] fields = splitCsv(line, _trim);
+					if(fields.length != _table.fields())
+						throw new RuntimeException("Expected " + _table.fields() + " fields but found " + fields.length);
+					Object[] values = _table.parse(fields);
+					if(values[0] == null){
+						if(_keys == null) throw new RuntimeException("Key cannot be blank");
+						values[0] = _keys.next(_table.key);
+					}
+					txn.add(new Row(lineNo, values));
+				}catch(RuntimeException e){
+					reject(lineNo, e.getMessage());
+					continue;
+				}
+				if(txn.size() >= _txnSize){
+					flush(conn, txn);
+					txn.clear();
+				}
+			}
+			if(!txn.isEmpty()) flush(conn, txn);
+		}finally{
+			conn.setAutoCommit(autoCommit);
+		}
+	}
+
+	//writes one transaction worth of rows, falling back to row by row on failure
+	private void flush(Connection conn, List<Row> txn) throws SQLException {
+		if(_table == Table.SERVICE_REQUEST) ensureMonths(conn, txn);
+		else if(_table == Table.CLOSED_REQUEST) fillRequestDates(conn, txn);
+		try{
+			if(_useCopy) copy(conn, txn);
+			else batch(conn, txn);
+			conn.commit();
+			_loaded += txn.size();
+		}catch(SQLException e){
+			conn.rollback();
+			if(e.getSQLState() != null && e.getSQLState().startsWith("08")) throw e;
+			retryRows(conn, txn);
+		}
+	}
+
+	//sql/partition.sql refuses requests of months without a partition, so they are created first
+	private void ensureMonths(Connection conn, List<Row> txn) throws SQLException {
+		if(!_partitioned || txn.isEmpty()) return;
+		java.sql.Date first = null, last = null;
+		for(Row row : txn){
+			java.sql.Date date = (java.sql.Date) row.values[3];
+			if(first == null || date.before(first)) first = date;
+			if(last == null || date.after(last)) last = date;
+		}
+		Savepoint sp = conn.setSavepoint();
+		try(PreparedStatement stmt = conn.prepareStatement(ShopQueries.ENSURE_MONTH_PARTITIONS)){
+			stmt.setString(1, first.toString());
+			stmt.setString(2, last.toString());
+			stmt.executeQuery().close();
+			conn.commit();
+		}catch(SQLException e){
+			conn.rollback(sp);
+			if(!ShopService.UNDEFINED_FUNCTION.equals(e.getSQLState())) throw e;
+			_partitioned = false;
+		}
+	}
+
+	//a closing is stored with the date of its request; closings of unknown requests are rejected
+	private void fillRequestDates(Connection conn, List<Row> txn) throws SQLException {
+		Integer[] rids = new Integer[txn.size()];
+		for(int i = 0; i < rids.length; ++i) rids[i] = (Integer) txn.get(i).values[1];
+		Map<Integer, java.sql.Date> dates = new HashMap<Integer, java.sql.Date>();
+		try(PreparedStatement stmt = conn.prepareStatement("SELECT rid, date FROM Service_Request WHERE rid = ANY(?)")){
+			stmt.setArray(1, conn.createArrayOf("integer", rids));
+			try(ResultSet rs = stmt.executeQuery()){
+				while(rs.next()) dates.put(rs.getInt(1), rs.getDate(2));
+			}
+		}
+		for(Iterator<Row> it = txn.iterator(); it.hasNext(); ){
+			Row row = it.next();
+			java.sql.Date date = dates.get(row.values[1]);
+			if(date == null){
+				reject(row.line, "Service request " + row.values[1] + " does not exist");
+				it.remove();
+			}else{
+				row.values[row.values.length - 1] = date;
+			}
+		}
+	}
+
+	private void batch(Connection conn, List<Row> txn) throws SQLException {
+		try(PreparedStatement stmt = conn.prepareStatement(_table.insertSql())){
+			int pending = 0;
+			for(Row row : txn){
+				for(int i = 0; i < row.values.length; ++i)
+					stmt.setObject(i + 1, row.values[i]);
+				stmt.addBatch();
+				if(++pending == _batchSize){
+					stmt.executeBatch();
+					pending = 0;
+				}
+			}
+			if(pending > 0) stmt.executeBatch();
+		}catch(BatchUpdateException e){
+			throw e.getNextException() != null ? e.getNextException() : e;
+		}
+	}
+
+	private void copy(Connection conn, List<Row> txn) throws SQLException {
+		CopyManager copier = conn.unwrap(PGConnection.class).getCopyAPI();
+		StringBuilder data = new StringBuilder(_batchSize * 64);
+		int pending = 0;
+		try{
+			for(Row row : txn){
+				appendCsv(data, row.values);
+				if(++pending == _batchSize){
+					copier.copyIn(_table.copySql(), new StringReader(data.toString()));
+					data.setLength(0);
+					pending = 0;
+				}
+			}
+			if(pending > 0) copier.copyIn(_table.copySql(), new StringReader(data.toString()));
+		}catch(IOException e){
+			throw new SQLException("COPY failed: " + e.getMessage(), "58030", e);
+		}
+	}
+
+	//loads the rows of a failed transaction one at a time behind savepoints
+	private void retryRows(Connection conn, List<Row> txn) throws SQLException {
+		try(PreparedStatement stmt = conn.prepareStatement(_table.insertSql())){
+			for(Row row : txn){
+				Savepoint sp = conn.setSavepoint();
+				try{
+					for(int i = 0; i < row.values.length; ++i)
+						stmt.setObject(i + 1, row.values[i]);
+					stmt.executeUpdate();
+					conn.releaseSavepoint(sp);
+					++_loaded;
+				}catch(SQLException e){
+					conn.rollback(sp);
+					if(e.getSQLState() != null && e.getSQLState().startsWith("08")) throw e;
+					reject(row.line, e.getMessage());
+				}
+			}
+			conn.commit();
+		}
+	}
+
+	private void reject(int line, String reason){
+		_rejects.add("line " + line + ": " + reason);
+	}
+
+	/**
+	 * Method to split one CSV record, honouring double quoted fields.  As
+	 * with COPY, the text of a field is kept exactly as written unless
+	 * trimming is asked for; quoted fields are never trimmed.
+	 */
+	static String[] splitCsv(String line, boolean trim){
+		List<String> fields = new ArrayList<String>();
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false, wasQuoted = false;
+		for(int i = 0; i < line.length(); ++i){
+			char ch = line.charAt(i);
+			if(quoted){
+				if(ch == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"'){
+					field.append('"');
+					++i;
+				}else if(ch == '"'){
+					quoted = false;
+				}else{
+					field.append(ch);
+				}
+			}else if(ch == '"'){
+				quoted = true;
+				wasQuoted = true;
+			}else if(ch == ','){
+				fields.add(wasQuoted || !trim ? field.toString() : field.toString().trim());
+				field.setLength(0);
+				wasQuoted = false;
+			}else{
+				field.append(ch);
+			}
+		}
+		fields.add(wasQuoted || !trim ? field.toString() : field.toString().trim());
+		return fields.toArray(new String[fields.size()]);
+	}
+
+	//appends one row in the CSV dialect COPY expects
+	static void appendCsv(StringBuilder out, Object[] values){
+		for(int i = 0; i < values.length; ++i){
+			if(i > 0) out.append(',');
+			Object v = values[i];
+			if(v == null) continue;
+			String s = v.toString();
+			out.append('"');
+			for(int j = 0; j < s.length(); ++j){
+				char ch = s.charAt(j);
+				if(ch == '"') out.append('"');
+				out.append(ch);
+			}
+			out.append('"');
+		}
+		out.append('\n');
+	}
+
+	//a key that may be left blank to have it assigned
+	static Integer surrogate(String value){
+		return value.trim().isEmpty() ? null : key(value);
+	}
+
+	static int key(String value){
+		int id = Integer.parseInt(value);
+		if(id < 0) throw new RuntimeException("Key cannot be negative");
+		return id;
+	}
+
+	//the data files use dates such as 10/22/2016 00:00
+	static java.sql.Date date(String value){
+		SimpleDateFormat format = new SimpleDateFormat("MM/dd/yyyy");
+		format.setLenient(false);
+		try{
+			return new java.sql.Date(format.parse(value.trim().split(" ")[0]).getTime());
+		}catch(ParseException e){
+			throw new RuntimeException("Invalid date: " + value);
+		}
+	}
+
+	/**
+	 * Method to print the throughput report and write the rejected rows.
+	 *
+	 * @param elapsedNanos wall time of the load
+	 * @param rejectFile where to write every rejected row, or null
+	 */
+	public void report(long elapsedNanos, String rejectFile) throws IOException {
+		double seconds = elapsedNanos / 1e9;
+		System.out.println("------------------------------------------------");
+		System.out.println("Table:     " + _table.name + (_useCopy ? " (COPY)" : " (batched INSERT)"));
+		System.out.println("Rows read: " + _read);
+		System.out.println("Loaded:    " + _loaded);
+		System.out.println("Rejected:  " + _rejects.size());
+		System.out.printf("Elapsed:   %.3f s (%.0f rows/sec)%n", seconds, seconds > 0 ? _loaded / seconds : 0.0);
+		int shown = Math.min(_rejects.size(), 20);
+		for(int i = 0; i < shown; ++i) System.out.println("  " + _rejects.get(i));
+		if(shown < _rejects.size()) System.out.println("  ... " + (_rejects.size() - shown) + " more");
+		if(rejectFile != null && !_rejects.isEmpty()){
+			try(PrintWriter out = new PrintWriter(rejectFile)){
+				for(String r : _rejects) out.println(r);
+			}
+			System.out.println("Rejected rows written to " + rejectFile);
+		}
+		System.out.println("------------------------------------------------");
+	}
+
+	/**
+	 * The main execution method
+	 *
+	 * @param args <dbname> <port> <user> <table> <csv file> [--batch N] [--txn N] [--copy] [--trim]
+	 */
+	public static void main(String[] args){
+		if(args.length < 5){
+			System.err.println("Usage: java [-classpath <classpath>] " + BulkLoader.class.getName()
+				+ " <dbname> <port> <user> <table> <csv file> [--batch N] [--txn N] [--copy] [--trim]");
+			return;
+		}
+		int batchSize = 500, txnSize = 5000;
+		boolean useCopy = false, trim = false;
+		for(int i = 5; i < args.length; ++i){
+			if(args[i].equals("--batch") && i + 1 < args.length) batchSize = Integer.parseInt(args[++i]);
+			else if(args[i].equals("--txn") && i + 1 < args.length) txnSize = Integer.parseInt(args[++i]);
+			else if(args[i].equals("--copy")) useCopy = true;
+			else if(args[i].equals("--trim")) trim = true;
+			else System.err.println("Ignoring unknown option " + args[i]);
+		}
+
+		MechanicShop esql = null;
+		try{
+			Class.forName("org.postgresql.Driver");
+			esql = new MechanicShop(args[0], args[1], args[2], "");
+			BulkLoader loader = new BulkLoader(Table.of(args[3]), batchSize, txnSize, useCopy, trim,
+				new KeyAllocator(esql, batchSize));
+			String file = args[4];
+			long start = System.nanoTime();
+			esql.withConnection(conn -> {
+				try{
+					loader.load(conn.getConnection(), file);
+					MechanicShop.prepare(conn, ShopQueries.SYNC_KEY_SEQUENCES).execute();
+				}catch(IOException e){
+					throw new SQLException("Cannot read " + file + ": " + e.getMessage(), "58030", e);
+				}
+				return null;
+			});
+			loader.report(System.nanoTime() - start, file + ".rejects");
+		}catch(Exception e){
+			System.err.println(e.getMessage());
+		}finally{
+			if(esql != null) esql.cleanup();
+		}
+	}
+}//end BulkLoader
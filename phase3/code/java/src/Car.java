@@ -0,0 +1,29 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * A row of the Car table.
+ *
+ */
+public class Car{
+	public final String vin;
+	public final String make;
+	public final String model;
+	public final int year;
+
+	public Car(String vin, String make, String model, int year){
+		this.vin = vin;
+		this.make = make;
+		this.model = model;
+		this.year = year;
+	}
+
+	static Car from(ResultSet rs) throws SQLException {
+		return new Car(rs.getString("vin"), rs.getString("make"), rs.getString("model"), rs.getInt("year"));
+	}
+
+	@Override
+	public String toString(){
+		return vin + "\t" + make + "\t" + model + "\t" + year;
+	}
+}//end Car
@@ -0,0 +1,36 @@
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * A row of the Closed_Request table.  The wid may be null for a closing
+ * that has not been stored yet.
+ *
+ */
+public class ClosedRequest{
+	public final Integer wid;
+	public final int rid;
+	public final int mid;
+	public final Date date;
+	public final String comment;
+	public final int bill;
+
+	public ClosedRequest(Integer wid, int rid, int mid, Date date, String comment, int bill){
+		this.wid = wid;
+		this.rid = rid;
+		this.mid = mid;
+		this.date = date;
+		this.comment = comment;
+		this.bill = bill;
+	}
+
+	static ClosedRequest from(ResultSet rs) throws SQLException {
+		return new ClosedRequest(rs.getInt("wid"), rs.getInt("rid"), rs.getInt("mid"), rs.getDate("date"),
+			rs.getString("comment"), rs.getInt("bill"));
+	}
+
+	@Override
+	public String toString(){
+		return wid + "\t" + rid + "\t" + mid + "\t" + date + "\t" + comment + "\t" + bill;
+	}
+}//end ClosedRequest
@@ -0,0 +1,532 @@
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class keeps a copy of the tables the five reports read, Customer,
+ * Car, Owns, Service_Request and Closed_Request, in memory as columns of
+ * ints, and answers the reports from it without a query, so that report
+ * load does not compete with the desk for the database.
+ *
+ * The tables are read in one repeatable read transaction, so the copy is
+ * consistent.  Keys are replaced by row positions as they are read: a
+ * request holds the positions of its customer and its car and a closed
+ * request that of its request, which turns the joins of the reports into
+ * array lookups and their GROUP BYs into sums over arrays indexed by
+ * position.  Makes, models and names are dictionary encoded and dates are
+ * held as epoch days.  A report scans the columns it needs in tight loops,
+ * and its sorted rows are kept until the next refresh so that its pages
+ * are found by binary search.
+ *
+ * The copy is as old as its last refresh(), which runs on demand and, once
+ * start() is called, every ShopConfig.snapshotRefreshMillis().
+ *
+ */
+public class ColumnarSnapshot implements AutoCloseable{
+	private static final String CUSTOMERS = "SELECT id, fname, lname FROM Customer";
+	private static final String CARS = "SELECT vin, make, model, year FROM Car";
+	private static final String OWNS = "SELECT customer_id, car_vin FROM Owns";
+	private static final String REQUESTS = "SELECT rid, customer_id, car_vin, date, odometer FROM Service_Request";
+	private static final String CLOSED = "SELECT wid, rid, bill FROM Closed_Request";
+
+	/**
+	 * Strings stored once each and referred to by code, in the order first seen.
+	 */
+	static final class Dictionary{
+		private final Map<String, Integer> _codes = new HashMap<String, Integer>();
+		private final List<String> _values = new ArrayList<String>();
+
+		int code(String value){
+			Integer code = _codes.get(value);
+			if(code == null){
+				code = _values.size();
+				_codes.put(value, code);
+				_values.add(value);
+			}
+			return code;
+		}
+
+		//-1 when the value was never coded
+		int find(String value){
+			Integer code = _codes.get(value);
+			return code == null ? -1 : code;
+		}
+
+		String value(int code){
+			return _values.get(code);
+		}
+
+		int size(){
+			return _values.size();
+		}
+
+		//about: the characters and headers of the strings, a map entry and a list slot each
+		long bytes(){
+			long bytes = 0;
+			for(String s : _values) bytes += 40 + (s == null ? 0 : s.length()) + 48 + 8;
+			return bytes;
+		}
+	}
+
+	/**
+	 * An int column being read, grown by doubling.
+	 */
+	static final class IntColumn{
+		private int[] _values = new int[1024];
+		private int _size = 0;
+
+		void add(int value){
+			if(_size == _values.length) _values = Arrays.copyOf(_values, _size * 2);
+			_values[_size++] = value;
+		}
+
+		int[] toArray(){
+			return Arrays.copyOf(_values, _size);
+		}
+	}
+
+	/**
+	 * An open addressing hash of int keys to row positions; the first row
+	 * of a key wins.
+	 */
+	static final class IntIndex{
+		private final int[] _keys;
+		private final int[] _rows;
+		private final int _mask;
+
+		IntIndex(int[] keys){
+			int capacity = Integer.highestOneBit(Math.max(2, keys.length * 2) - 1) << 1;
+			this._keys = new int[capacity];
+			this._rows = new int[capacity];
+			this._mask = capacity - 1;
+			Arrays.fill(_rows, -1);
+			for(int row = 0; row < keys.length; ++row){
+				int slot = slot(keys[row]);
+				while(_rows[slot] >= 0 && _keys[slot] != keys[row]) slot = (slot + 1) & _mask;
+				if(_rows[slot] >= 0) continue;
+				_keys[slot] = keys[row];
+				_rows[slot] = row;
+			}
+		}
+
+		private int slot(int key){
+			int h = key * 0x9E3779B1;
+			return (h ^ (h >>> 16)) & _mask;
+		}
+
+		//-1 when there is no row with the key
+		int get(int key){
+			for(int slot = slot(key); _rows[slot] >= 0; slot = (slot + 1) & _mask)
+				if(_keys[slot] == key) return _rows[slot];
+			return -1;
+		}
+
+		long bytes(){
+			return 8L * _keys.length;
+		}
+	}
+
+	/**
+	 * One load of the tables.  Positions that do not resolve, such as the
+	 * car of a request whose car is not in the copy, are -1.
+	 */
+	static final class Data{
+		final long loadedAt;
+		long loadMillis = 0;
+		final Dictionary names = new Dictionary();
+		final Dictionary makes = new Dictionary();
+		final Dictionary models = new Dictionary();
+		//codes of the vins are the positions of the cars
+		final Dictionary vins = new Dictionary();
+
+		int[] customerId, customerFname, customerLname;
+		int[] carMake, carModel, carYear;
+		int[] ownsCustomer, ownsCar;
+		int[] requestRid, requestCustomer, requestCar, requestDate, requestOdometer;
+		int[] closedWid, closedRequest, closedBill;
+
+		Data(long loadedAt){
+			this.loadedAt = loadedAt;
+		}
+
+		long rows(){
+			return customerId.length + carMake.length + ownsCustomer.length + requestRid.length + closedWid.length;
+		}
+
+		long bytes(){
+			long ints = customerId.length * 3L + carMake.length * 3L + ownsCustomer.length * 2L
+				+ requestRid.length * 5L + closedWid.length * 3L;
+			return 4 * ints + names.bytes() + makes.bytes() + models.bytes() + vins.bytes();
+		}
+	}
+
+	private final MechanicShop _db;
+	private volatile Data _data = null;
+	//sorted rows of the reports asked for since the last refresh, by report and window
+	private final LinkedHashMap<String, List<List<String>>> _results = new LinkedHashMap<String, List<List<String>>>(16, 0.75f, true);
+
+	private Thread _worker = null;
+	private long _refreshes = 0;
+	private long _evaluations = 0;
+	private long _pages = 0;
+	private long _lastEvaluationMicros = 0;
+	private String _lastError = null;
+
+	public ColumnarSnapshot(MechanicShop db){
+		this._db = db;
+	}
+
+	/**
+	 * Method to read the five tables again and replace the copy.  Reports
+	 * keep being answered from the old copy while the new one is read.
+	 */
+	public void refresh() throws SQLException {
+		long start = System.currentTimeMillis();
+		Data data = _db.withConnection(conn -> {
+			Connection c = conn.getConnection();
+			int isolation = c.getTransactionIsolation();
+			c.setAutoCommit(false);
+			c.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+			try(Statement stmt = c.createStatement()){
+				stmt.setFetchSize(ShopConfig.streamFetchSize());
+				return load(stmt, start);
+			}finally{
+				c.rollback();
+				c.setTransactionIsolation(isolation);
+				c.setAutoCommit(true);
+			}
+		});
+		synchronized(this){
+			_data = data;
+			_results.clear();
+			_refreshes++;
+		}
+	}
+
+	private static Data load(Statement stmt, long start) throws SQLException {
+		Data d = new Data(start);
+		IntColumn id = new IntColumn(), fname = new IntColumn(), lname = new IntColumn();
+		try(ResultSet rs = stmt.executeQuery(CUSTOMERS)){
+			while(rs.next()){
+				id.add(rs.getInt(1));
+				fname.add(d.names.code(rs.getString(2)));
+				lname.add(d.names.code(rs.getString(3)));
+			}
+		}
+		d.customerId = id.toArray();
+		d.customerFname = fname.toArray();
+		d.customerLname = lname.toArray();
+		IntIndex customers = new IntIndex(d.customerId);
+
+		IntColumn make = new IntColumn(), model = new IntColumn(), year = new IntColumn();
+		try(ResultSet rs = stmt.executeQuery(CARS)){
+			while(rs.next()){
+				//a vin seen twice would shift the positions of the cars after it
+				if(d.vins.find(rs.getString(1)) >= 0) continue;
+				d.vins.code(rs.getString(1));
+				make.add(d.makes.code(rs.getString(2)));
+				model.add(d.models.code(rs.getString(3)));
+				year.add(rs.getInt(4));
+			}
+		}
+		d.carMake = make.toArray();
+		d.carModel = model.toArray();
+		d.carYear = year.toArray();
+
+		IntColumn owner = new IntColumn(), owned = new IntColumn();
+		try(ResultSet rs = stmt.executeQuery(OWNS)){
+			while(rs.next()){
+				owner.add(customers.get(rs.getInt(1)));
+				owned.add(d.vins.find(rs.getString(2)));
+			}
+		}
+		d.ownsCustomer = owner.toArray();
+		d.ownsCar = owned.toArray();
+
+		IntColumn rid = new IntColumn(), customer = new IntColumn(), car = new IntColumn(), date = new IntColumn(), odometer = new IntColumn();
+		try(ResultSet rs = stmt.executeQuery(REQUESTS)){
+			while(rs.next()){
+				rid.add(rs.getInt(1));
+				customer.add(customers.get(rs.getInt(2)));
+				car.add(d.vins.find(rs.getString(3)));
+				date.add((int) rs.getDate(4).toLocalDate().toEpochDay());
+				odometer.add(rs.getInt(5));
+			}
+		}
+		d.requestRid = rid.toArray();
+		d.requestCustomer = customer.toArray();
+		d.requestCar = car.toArray();
+		d.requestDate = date.toArray();
+		d.requestOdometer = odometer.toArray();
+		IntIndex requests = new IntIndex(d.requestRid);
+
+		IntColumn wid = new IntColumn(), request = new IntColumn(), bill = new IntColumn();
+		try(ResultSet rs = stmt.executeQuery(CLOSED)){
+			while(rs.next()){
+				wid.add(rs.getInt(1));
+				request.add(requests.get(rs.getInt(2)));
+				bill.add(rs.getInt(3));
+			}
+		}
+		d.closedWid = wid.toArray();
+		d.closedRequest = request.toArray();
+		d.closedBill = bill.toArray();
+		d.loadMillis = System.currentTimeMillis() - start;
+		return d;
+	}
+
+	/**
+	 * Method to read rows of a report in the shape of the paged query: the
+	 * displayed columns followed by the key.
+	 *
+	 * @param window the days of the requests counted
+	 * @param after the key of the last row shown, null for the first page
+	 * @param rows the most rows to return
+	 * @return the rows, or null before the first refresh
+	 */
+	public List<List<String>> page(ReportQueries.Report report, DateWindow window, List<String> after, int rows){
+		Data data = _data;
+		if(data == null) return null;
+		List<List<String>> sorted = result(data, report, window);
+		Comparator<List<String>> order = order(report);
+		int from = 0;
+		if(after != null){
+			//the first row whose key comes after the one shown
+			int lo = 0, hi = sorted.size();
+			while(lo < hi){
+				int mid = (lo + hi) >>> 1;
+				List<String> row = sorted.get(mid);
+				if(order.compare(row.subList(row.size() - report.keys, row.size()), after) <= 0) lo = mid + 1;
+				else hi = mid;
+			}
+			from = lo;
+		}
+		synchronized(this){
+			_pages++;
+		}
+		return sorted.subList(from, Math.min(sorted.size(), from + rows));
+	}
+
+	private List<List<String>> result(Data data, ReportQueries.Report report, DateWindow window){
+		String key = report.path + " " + window;
+		synchronized(this){
+			List<List<String>> known = data == _data ? _results.get(key) : null;
+			if(known != null) return known;
+		}
+		long start = System.nanoTime();
+		List<List<String>> rows = evaluate(data, report, window);
+		synchronized(this){
+			if(data == _data){
+				_results.put(key, rows);
+				Iterator<List<List<String>>> eldest = _results.values().iterator();
+				while(_results.size() > Math.max(1, ShopConfig.snapshotMaxResults())){
+					eldest.next();
+					eldest.remove();
+				}
+			}
+			_evaluations++;
+			_lastEvaluationMicros = (System.nanoTime() - start) / 1000;
+		}
+		return rows;
+	}
+
+	//the order of the keys of each report, as in its ORDER BY
+	private static Comparator<List<String>> order(ReportQueries.Report report){
+		switch(report){
+			case BILL_LESS_THAN_100:
+				return Comparator.<List<String>>comparingInt(k -> Integer.parseInt(k.get(0))).thenComparingInt(k -> Integer.parseInt(k.get(1)));
+			case MORE_THAN_20_CARS:
+				return Comparator.comparingInt(k -> Integer.parseInt(k.get(0)));
+			case CARS_BEFORE_1995:
+				return Comparator.<List<String>, String>comparing(k -> k.get(0), ReportQueries.C_ORDER).thenComparing(k -> k.get(1), ReportQueries.C_ORDER)
+					.thenComparingInt(k -> Integer.parseInt(k.get(2)));
+			default:
+				//most serviced cars and total bill: amount, then the group, both descending
+				Comparator<List<String>> amount = Comparator.comparingLong(k -> Long.parseLong(k.get(0)));
+				Comparator<List<String>> group = report == ReportQueries.Report.TOTAL_BILL
+					? Comparator.comparingInt(k -> Integer.parseInt(k.get(1))) : Comparator.comparing(k -> k.get(1), ReportQueries.C_ORDER);
+				return amount.thenComparing(group).reversed();
+		}
+	}
+
+	/**
+	 * Method to evaluate a report over the copy: the filters select row
+	 * positions column by column, and the groups are summed into arrays
+	 * indexed by the position of the customer or car.
+	 */
+	static List<List<String>> evaluate(Data d, ReportQueries.Report report, DateWindow window){
+		int from = window.from == null ? Integer.MIN_VALUE : (int) window.from.toEpochDay();
+		int until = window.until == null ? Integer.MAX_VALUE : (int) window.until.toEpochDay();
+		List<List<String>> rows = new ArrayList<List<String>>();
+		switch(report){
+			case BILL_LESS_THAN_100: {
+				int[] sel = new int[d.closedWid.length];
+				int n = 0;
+				for(int i = 0; i < d.closedBill.length; ++i)
+					if(d.closedBill[i] < 100) sel[n++] = i;
+				int m = 0;
+				for(int j = 0; j < n; ++j){
+					int r = d.closedRequest[sel[j]];
+					if(r >= 0 && d.requestCustomer[r] >= 0 && d.requestDate[r] >= from && d.requestDate[r] < until) sel[m++] = sel[j];
+				}
+				Integer[] order = boxed(sel, m);
+				Arrays.sort(order, (a, b) -> d.closedBill[a] != d.closedBill[b] ? Integer.compare(d.closedBill[a], d.closedBill[b]) : Integer.compare(d.closedWid[a], d.closedWid[b]));
+				for(int i : order){
+					int c = d.requestCustomer[d.closedRequest[i]];
+					rows.add(List.of(d.names.value(d.customerFname[c]), d.names.value(d.customerLname[c]),
+						Integer.toString(d.closedBill[i]), Integer.toString(d.closedWid[i])));
+				}
+				break;
+			}
+			case MORE_THAN_20_CARS: {
+				int[] cars = new int[d.customerId.length];
+				for(int c : d.ownsCustomer)
+					if(c >= 0) cars[c]++;
+				int[] sel = new int[cars.length];
+				int n = 0;
+				for(int c = 0; c < cars.length; ++c)
+					if(cars[c] > 20) sel[n++] = c;
+				Integer[] order = boxed(sel, n);
+				Arrays.sort(order, (a, b) -> Integer.compare(d.customerId[a], d.customerId[b]));
+				for(int c : order)
+					rows.add(List.of(d.names.value(d.customerFname[c]), d.names.value(d.customerLname[c]), Integer.toString(d.customerId[c])));
+				break;
+			}
+			case CARS_BEFORE_1995: {
+				boolean[] serviced = new boolean[d.carMake.length];
+				for(int r = 0; r < d.requestRid.length; ++r)
+					if(d.requestOdometer[r] < 50000 && d.requestCar[r] >= 0 && d.requestDate[r] >= from && d.requestDate[r] < until) serviced[d.requestCar[r]] = true;
+				//DISTINCT make, model, year as one packed long each
+				Set<Long> distinct = new HashSet<Long>();
+				for(int car = 0; car < serviced.length; ++car)
+					if(serviced[car] && d.carYear[car] < 1995)
+						distinct.add(((long) d.carMake[car] << 42) | ((long) d.carModel[car] << 21) | (d.carYear[car] & 0x1FFFFF));
+				for(long packed : distinct)
+					rows.add(List.of(d.makes.value((int) (packed >>> 42)), d.models.value((int) ((packed >>> 21) & 0x1FFFFF)),
+						Integer.toString((int) (packed & 0x1FFFFF))));
+				rows.sort(order(report));
+				break;
+			}
+			case MOST_SERVICED_CARS: {
+				long[] requests = new long[d.carMake.length];
+				for(int r = 0; r < d.requestRid.length; ++r)
+					if(d.requestCar[r] >= 0 && d.requestDate[r] >= from && d.requestDate[r] < until) requests[d.requestCar[r]]++;
+				int[] sel = new int[requests.length];
+				int n = 0;
+				for(int car = 0; car < requests.length; ++car)
+					if(requests[car] > 0) sel[n++] = car;
+				Integer[] order = boxed(sel, n);
+				Arrays.sort(order, (a, b) -> requests[a] != requests[b] ? Long.compare(requests[b], requests[a]) : ReportQueries.C_ORDER.compare(d.vins.value(b), d.vins.value(a)));
+				for(int car : order)
+					rows.add(List.of(d.makes.value(d.carMake[car]), d.models.value(d.carModel[car]), Long.toString(requests[car]), d.vins.value(car)));
+				break;
+			}
+			case TOTAL_BILL: {
+				long[] totals = new long[d.customerId.length];
+				boolean[] billed = new boolean[totals.length];
+				for(int i = 0; i < d.closedWid.length; ++i){
+					int r = d.closedRequest[i];
+					if(r < 0 || d.requestCustomer[r] < 0 || d.requestDate[r] < from || d.requestDate[r] >= until) continue;
+					totals[d.requestCustomer[r]] += d.closedBill[i];
+					billed[d.requestCustomer[r]] = true;
+				}
+				int[] sel = new int[totals.length];
+				int n = 0;
+				for(int c = 0; c < totals.length; ++c)
+					if(billed[c]) sel[n++] = c;
+				Integer[] order = boxed(sel, n);
+				Arrays.sort(order, (a, b) -> totals[a] != totals[b] ? Long.compare(totals[b], totals[a]) : Integer.compare(d.customerId[b], d.customerId[a]));
+				for(int c : order)
+					rows.add(List.of(d.names.value(d.customerFname[c]), d.names.value(d.customerLname[c]),
+						Long.toString(totals[c]), Integer.toString(d.customerId[c])));
+				break;
+			}
+		}
+		return rows;
+	}
+
+	private static Integer[] boxed(int[] values, int n){
+		Integer[] boxed = new Integer[n];
+		for(int i = 0; i < n; ++i) boxed[i] = values[i];
+		return boxed;
+	}
+
+	/**
+	 * Method to start the daemon thread that refreshes the copy now and then
+	 * every interval.  A failed refresh is remembered and tried again at the
+	 * next one.
+	 *
+	 * @param intervalMillis time between refreshes, 0 or less to refresh
+	 *                       once and then only on demand
+	 */
+	public synchronized void start(long intervalMillis){
+		if(_worker != null) return;
+		_worker = new Thread(() -> {
+			try{
+				do{
+					try{
+						refresh();
+						synchronized(this){
+							_lastError = null;
+						}
+					}catch(SQLException e){
+						synchronized(this){
+							_lastError = e.getMessage();
+						}
+					}
+					if(intervalMillis > 0) Thread.sleep(intervalMillis);
+				}while(intervalMillis > 0);
+			}catch(InterruptedException e){
+				//stopped
+			}
+		}, "columnar-snapshot");
+		_worker.setDaemon(true);
+		_worker.start();
+	}
+
+	public boolean isLoaded(){
+		return _data != null;
+	}
+
+	/**
+	 * @return the approximate bytes held by the columns and dictionaries of
+	 *         the copy, 0 before the first refresh
+	 */
+	public long getFootprintBytes(){
+		Data data = _data;
+		return data == null ? 0 : data.bytes();
+	}
+
+	public synchronized String getStatistics(){
+		Data d = _data;
+		if(d == null) return "snapshot: not loaded" + (_lastError == null ? "" : ", last error: " + _lastError);
+		return String.format("snapshot: %d row(s) (%d customers, %d cars, %d owns, %d requests, %d closed), %d make(s), %d model(s), "
+			+ "about %.1f MB, loaded in %d ms %d s ago, %d refresh(es), %d evaluation(s) (last %.1f ms), %d page(s)%s",
+			d.rows(), d.customerId.length, d.carMake.length, d.ownsCustomer.length, d.requestRid.length, d.closedWid.length,
+			d.makes.size(), d.models.size(), d.bytes() / 1048576.0, d.loadMillis, (System.currentTimeMillis() - d.loadedAt) / 1000,
+			_refreshes, _evaluations, _lastEvaluationMicros / 1e3, _pages, _lastError == null ? "" : ", last error: " + _lastError);
+	}
+
+	/**
+	 * Method to stop the daemon thread.
+	 */
+	public void close(){
+		Thread worker;
+		synchronized(this){
+			worker = _worker;
+			_worker = null;
+		}
+		if(worker != null) worker.interrupt();
+	}
+}//end ColumnarSnapshot
@@ -0,0 +1,384 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * This class defines a small bounded pool of physical PostgreSQL
+ * connections.  Connections are validated when borrowed, retired after a
+ * maximum lifetime, and closed by a background housekeeper once they have
+ * been idle for too long.  Each pooled connection carries its own prepared
+ * statement cache.
+ *
+ */
+public class ConnectionPool{
+
+	/**
+	 * A physical connection together with its statement cache and the
+	 * timestamps the pool needs to retire it.
+	 */
+	public static class PooledConnection{
+		final Connection connection;
+		final StatementCache statements;
+		final long createdAt;
+		long lastUsedAt;
+		boolean broken = false;
+
+		PooledConnection(Connection connection, int cacheSize){
+			this.connection = connection;
+			this.statements = new StatementCache(connection, cacheSize);
+			this.createdAt = System.currentTimeMillis();
+			this.lastUsedAt = this.createdAt;
+		}
+
+		public Connection getConnection(){
+			return connection;
+		}
+
+		public StatementCache getStatements(){
+			return statements;
+		}
+
+		/**
+		 * Method to flag the connection as unusable so the pool closes it
+		 * instead of handing it out again.
+		 */
+		public void markBroken(){
+			broken = true;
+		}
+	}//end PooledConnection
+
+	private final String _url;
+	private final String _user;
+	private final String _passwd;
+	private final int _maxSize;
+	private final long _maxWaitMillis;
+	private final long _idleTimeoutMillis;
+	private final long _maxLifetimeMillis;
+	private final long _validationWindowMillis;
+	private final int _cacheSize;
+
+	//idle connections, most recently used first
+	private final ArrayDeque<PooledConnection> _idle = new ArrayDeque<PooledConnection>();
+	private final ReentrantLock _lock = new ReentrantLock();
+	private final Condition _available = _lock.newCondition();
+	private final ScheduledExecutorService _housekeeper;
+	//open connections, idle or borrowed, plus those currently being opened
+	private int _total = 0;
+	private boolean _closed = false;
+
+	//metrics
+	private long _borrows = 0;
+	private long _waits = 0;
+	private long _timeouts = 0;
+	private long _totalWaitNanos = 0;
+	private long _maxWaitNanos = 0;
+	private long _opened = 0;
+	private long _retired = 0;
+	private long _retiredCacheHits = 0;
+	private long _retiredCacheMisses = 0;
+
+	public ConnectionPool(String url, String user, String passwd){
+		this(url, user, passwd, ShopConfig.poolMaxSize(), ShopConfig.poolMaxWaitMillis(),
+			ShopConfig.poolIdleTimeoutMillis(), ShopConfig.poolMaxLifetimeMillis(),
+			ShopConfig.poolValidationWindowMillis(), ShopConfig.statementCacheSize());
+	}
+
+	public ConnectionPool(String url, String user, String passwd, int maxSize, long maxWaitMillis,
+			long idleTimeoutMillis, long maxLifetimeMillis, long validationWindowMillis, int cacheSize){
+		if(maxSize <= 0) throw new IllegalArgumentException("Pool size must be positive");
+		this._url = url;
+		this._user = user;
+		this._passwd = passwd;
+		this._maxSize = maxSize;
+		this._maxWaitMillis = maxWaitMillis;
+		this._idleTimeoutMillis = idleTimeoutMillis;
+		this._maxLifetimeMillis = maxLifetimeMillis;
+		this._validationWindowMillis = validationWindowMillis;
+		this._cacheSize = cacheSize;
+		this._housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "connection-pool-housekeeper");
+			t.setDaemon(true);
+			return t;
+		});
+		long period = Math.max(1000L, Math.min(idleTimeoutMillis, maxLifetimeMillis) / 2);
+		this._housekeeper.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Method to borrow a connection from the pool.  An idle connection is
+	 * reused when one is available and still valid, otherwise a new one is
+	 * opened while the pool is below its maximum size.  When the pool is
+	 * exhausted the caller waits up to the configured maximum wait time.
+	 *
+	 * @return a connection that must be handed back through release
+	 * @throws java.sql.SQLException when no connection could be obtained
+	 */
+	public PooledConnection borrow() throws SQLException {
+		long start = System.nanoTime();
+		long deadline = start + TimeUnit.MILLISECONDS.toNanos(_maxWaitMillis);
+		boolean waited = false;
+		while(true){
+			PooledConnection candidate = null;
+			boolean open = false;
+			_lock.lock();
+			try{
+				while(true){
+					if(_closed) throw new SQLException("Connection pool is closed", "08003");
+					candidate = _idle.pollFirst();
+					if(candidate != null) break;
+					if(_total < _maxSize){
+						_total++;
+						open = true;
+						break;
+					}
+					long remaining = deadline - System.nanoTime();
+					if(remaining <= 0){
+						_timeouts++;
+						throw new SQLException("Timed out after " + _maxWaitMillis + "ms waiting for a database connection", "08001");
+					}
+					waited = true;
+					try{
+						_available.awaitNanos(remaining);
+					}catch(InterruptedException e){
+						Thread.currentThread().interrupt();
+						throw new SQLException("Interrupted while waiting for a database connection", "08001", e);
+					}
+				}
+			}finally{
+				_lock.unlock();
+			}
+
+			if(open){
+				candidate = open();
+			}else if(!isUsable(candidate)){
+				discard(candidate);
+				continue;
+			}
+			recordBorrow(System.nanoTime() - start, waited);
+			return candidate;
+		}
+	}
+
+	/**
+	 * Method to hand a borrowed connection back.  Broken connections and
+	 * connections past their maximum lifetime are closed instead of being
+	 * returned to the idle list.
+	 *
+	 * @param conn the connection obtained from borrow
+	 */
+	public void release(PooledConnection conn){
+		if(conn == null) return;
+		long now = System.currentTimeMillis();
+		if(conn.broken || now - conn.createdAt >= _maxLifetimeMillis){
+			discard(conn);
+			return;
+		}
+		try{
+			if(!conn.connection.getAutoCommit()){
+				conn.connection.rollback();
+				conn.connection.setAutoCommit(true);
+			}
+		}catch(SQLException e){
+			discard(conn);
+			return;
+		}
+		conn.lastUsedAt = now;
+		boolean closeIt = false;
+		_lock.lock();
+		try{
+			if(_closed){
+				closeIt = true;
+			}else{
+				_idle.addFirst(conn);
+				_available.signal();
+			}
+		}finally{
+			_lock.unlock();
+		}
+		if(closeIt) discard(conn);
+	}
+
+	/**
+	 * Method to flag a connection as broken when an error indicates the
+	 * link to the server was lost (SQLState class 08).
+	 *
+	 * @param conn the connection the error was raised on
+	 * @param e the error
+	 */
+	public static void checkBroken(PooledConnection conn, SQLException e){
+		String state = e.getSQLState();
+		if(state != null && state.startsWith("08")) conn.markBroken();
+	}
+
+	/**
+	 * Method to close every idle connection and refuse further borrows.
+	 * Connections still on loan are closed when they are released.
+	 */
+	public void close(){
+		_housekeeper.shutdownNow();
+		ArrayDeque<PooledConnection> toClose;
+		_lock.lock();
+		try{
+			_closed = true;
+			toClose = new ArrayDeque<PooledConnection>(_idle);
+			_idle.clear();
+			_available.signalAll();
+		}finally{
+			_lock.unlock();
+		}
+		for(PooledConnection conn : toClose) discard(conn);
+	}
+
+	/**
+	 * Method to open a physical connection that is not part of the pool, for
+	 * work that needs session state of its own (such as LISTEN).  The caller
+	 * closes it.
+	 *
+	 * @return a new connection to the pool's database
+	 * @throws java.sql.SQLException when the connection cannot be made
+	 */
+	public Connection openDedicated() throws SQLException {
+		return DriverManager.getConnection(_url, _user, _passwd);
+	}
+
+	private PooledConnection open() throws SQLException {
+		try{
+			PooledConnection conn = new PooledConnection(DriverManager.getConnection(_url, _user, _passwd), _cacheSize);
+			_lock.lock();
+			try{
+				_opened++;
+			}finally{
+				_lock.unlock();
+			}
+			return conn;
+		}catch(SQLException e){
+			_lock.lock();
+			try{
+				_total--;
+				_available.signal();
+			}finally{
+				_lock.unlock();
+			}
+			throw e;
+		}
+	}
+
+	private boolean isUsable(PooledConnection conn){
+		long now = System.currentTimeMillis();
+		if(now - conn.createdAt >= _maxLifetimeMillis) return false;
+		if(now - conn.lastUsedAt < _validationWindowMillis) return true;
+		try{
+			return conn.connection.isValid(5);
+		}catch(SQLException e){
+			return false;
+		}
+	}
+
+	private void discard(PooledConnection conn){
+		conn.statements.close();
+		try{
+			conn.connection.close();
+		}catch(SQLException e){
+			// ignored.
+		}
+		_lock.lock();
+		try{
+			_total--;
+			_retired++;
+			_retiredCacheHits += conn.statements.getHits();
+			_retiredCacheMisses += conn.statements.getMisses();
+			_available.signal();
+		}finally{
+			_lock.unlock();
+		}
+	}
+
+	private void recordBorrow(long waitNanos, boolean waited){
+		_lock.lock();
+		try{
+			_borrows++;
+			if(waited) _waits++;
+			_totalWaitNanos += waitNanos;
+			if(waitNanos > _maxWaitNanos) _maxWaitNanos = waitNanos;
+		}finally{
+			_lock.unlock();
+		}
+	}
+
+	//closes idle connections that exceeded the idle timeout or maximum lifetime
+	private void evictIdle(){
+		ArrayDeque<PooledConnection> expired = new ArrayDeque<PooledConnection>();
+		long now = System.currentTimeMillis();
+		_lock.lock();
+		try{
+			Iterator<PooledConnection> it = _idle.iterator();
+			while(it.hasNext()){
+				PooledConnection conn = it.next();
+				if(now - conn.lastUsedAt >= _idleTimeoutMillis || now - conn.createdAt >= _maxLifetimeMillis){
+					it.remove();
+					expired.add(conn);
+				}
+			}
+		}finally{
+			_lock.unlock();
+		}
+		for(PooledConnection conn : expired) discard(conn);
+	}
+
+	public int getMaxSize(){
+		return _maxSize;
+	}
+
+	/**
+	 * @return number of statements served from the statement caches of all
+	 * connections this pool has opened
+	 */
+	public long getStatementCacheHits(){
+		_lock.lock();
+		try{
+			long hits = _retiredCacheHits;
+			for(PooledConnection conn : _idle) hits += conn.statements.getHits();
+			return hits;
+		}finally{
+			_lock.unlock();
+		}
+	}
+
+	/**
+	 * @return number of statements prepared by all connections this pool
+	 * has opened
+	 */
+	public long getStatementCacheMisses(){
+		_lock.lock();
+		try{
+			long misses = _retiredCacheMisses;
+			for(PooledConnection conn : _idle) misses += conn.statements.getMisses();
+			return misses;
+		}finally{
+			_lock.unlock();
+		}
+	}
+
+	/**
+	 * @return a one line summary of the pool size and borrow wait times
+	 */
+	public String getStatistics(){
+		_lock.lock();
+		try{
+			double avgWaitMs = _borrows == 0 ? 0 : _totalWaitNanos / 1e6 / _borrows;
+			return String.format("pool: %d open (%d idle, max %d), %d opened, %d retired; "
+				+ "%d borrow(s), %d waited, %d timed out, avg wait %.3f ms, max wait %.3f ms",
+				_total, _idle.size(), _maxSize, _opened, _retired,
+				_borrows, _waits, _timeouts, avgWaitMs, _maxWaitNanos / 1e6);
+		}finally{
+			_lock.unlock();
+		}
+	}
+}//end ConnectionPool
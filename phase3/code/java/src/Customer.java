@@ -0,0 +1,38 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * A row of the Customer table.  The id may be null for a customer that has
+ * not been stored yet.
+ *
+ */
+public class Customer{
+	public final Integer id;
+	public final String fname;
+	public final String lname;
+	public final String phone;
+	public final String address;
+
+	public Customer(Integer id, String fname, String lname, String phone, String address){
+		this.id = id;
+		this.fname = fname;
+		this.lname = lname;
+		this.phone = phone;
+		this.address = address;
+	}
+
+	//CHAR columns come back blank padded
+	static Customer from(ResultSet rs) throws SQLException {
+		return new Customer(rs.getInt("id"), trim(rs.getString("fname")), trim(rs.getString("lname")),
+			trim(rs.getString("phone")), trim(rs.getString("address")));
+	}
+
+	static String trim(String value){
+		return value == null ? null : value.trim();
+	}
+
+	@Override
+	public String toString(){
+		return id + "\t" + fname + "\t" + lname + "\t" + phone + "\t" + address;
+	}
+}//end Customer
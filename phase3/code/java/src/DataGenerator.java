@@ -0,0 +1,461 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.SplittableRandom;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+
+/**
+ * This class generates a synthetic MechanicShop dataset of a given size,
+ * measured in service requests.  Every row is derived from the seed and
+ * its own position only, so the output is identical across runs, needs no
+ * memory proportional to the scale, and any table can be regenerated on
+ * its own.  The data has the skew the small sample files lack: a Zipfian
+ * number of cars per customer and requests per car, request dates with a
+ * seasonal and weekly cycle, and log-normal bills.
+ *
+ * Rows are written either as CSV files shaped like phase3/code/data or
+ * straight into the database through the COPY protocol.
+ *
+ */
+public class DataGenerator{
+
+	//ratios between the tables, taken from the sample data in phase3/code/data
+	static final int REQUESTS_PER_CUSTOMER = 60;
+	static final int REQUESTS_PER_MECHANIC = 120;
+	static final int REQUESTS_PER_CAR = 6;
+	static final double CLOSED_FRACTION = 0.9;
+	//Zipf exponents for the owner of a car and the car of a request
+	static final double CUSTOMER_SKEW = 1.1;
+	static final double CAR_SKEW = 0.8;
+	//requests are spread over these years
+	static final int FIRST_YEAR = 2010;
+	static final int YEARS = 10;
+
+	//table tags mixed into the per-row seeds
+	static final long CUSTOMER = 1, MECHANIC = 2, CAR = 3, REQUEST = 4, CLOSED = 5, YEAR = 6, DAY = 7, MODEL = 8;
+
+	static final String[] FIRST_NAMES = { "Armand", "Alberto", "Wyatt", "Rory", "Blythe", "Alexandria", "Maria", "James",
+		"Linda", "Robert", "Patricia", "Michael", "Jennifer", "David", "Elizabeth", "William", "Susan", "Richard",
+		"Jessica", "Joseph", "Sarah", "Thomas", "Karen", "Charles", "Nancy", "Daniel", "Lisa", "Matthew", "Betty", "Anthony" };
+	static final String[] LAST_NAMES = { "Enderle", "Scarlett", "Ruoff", "Berner", "Santacruz", "Cuyler", "Smith", "Johnson",
+		"Williams", "Brown", "Jones", "Garcia", "Miller", "Davis", "Rodriguez", "Martinez", "Hernandez", "Lopez", "Gonzalez",
+		"Wilson", "Anderson", "Thomas", "Taylor", "Moore", "Jackson", "Martin", "Lee", "Perez", "Thompson", "White",
+		"Harris", "Sanchez", "Clark", "Ramirez", "Lewis", "Robinson", "Walker", "Young", "Allen", "King" };
+	static final String[] STREETS = { "Chapel Drive", "Bald Hill Street", "Campfire Ave.", "Oak Lane", "Main Street",
+		"Cedar Court", "Elm Road", "Sunset Blvd.", "River Road", "Park Avenue" };
+	static final String[] CITIES = { "Melbourne", "Baton Rouge", "Cockeysville", "Riverside", "Fresno", "Tucson",
+		"Omaha", "Raleigh", "Boise", "Spokane" };
+	static final String[][] MAKES = { { "Toyota", "Prius", "Camry", "Corolla" }, { "Ford", "Focus", "F-150", "Mustang" },
+		{ "Honda", "Civic", "Accord", "CR-V" }, { "Chevrolet", "Malibu", "Impala", "Silverado" },
+		{ "Nissan", "Sunny", "Altima", "Sentra" }, { "BMW", "M3", "X5", "330i" }, { "Lamborghini", "M1", "Huracan", "Aventador" } };
+	static final String[] COMPLAINTS = { "No brakes", "The wheel does not turn right", "Burns too much gas",
+		"Check engine light", "Strange noise", "Flat tire", "Oil change", "Battery dead", "Overheats", "AC not cooling" };
+	static final String[] COMMENTS = { "We lost your car", "We changed the color", "This is a bicycle", "Replaced brake pads",
+		"Rotated tires", "Replaced battery", "Flushed coolant", "Changed oil", "Recharged AC", "No problem found" };
+
+	/**
+	 * Destination of the generated rows, one table at a time.
+	 */
+	interface Sink{
+		void begin(String table, String columns) throws IOException, SQLException;
+		void row(CharSequence csv) throws IOException, SQLException;
+		long end() throws IOException, SQLException;
+	}
+
+	/**
+	 * Writes each table to <dir>/<table>.csv in the format of the sample data.
+	 */
+	static class CsvSink implements Sink{
+		private final File _dir;
+		private BufferedWriter _out;
+		private long _rows;
+
+		CsvSink(File dir){
+			this._dir = dir;
+		}
+
+		public void begin(String table, String columns) throws IOException {
+			_out = new BufferedWriter(new FileWriter(new File(_dir, table.toLowerCase() + ".csv")), 1 << 16);
+			_rows = 0;
+		}
+
+		public void row(CharSequence csv) throws IOException {
+			_out.append(csv).append('\n');
+			++_rows;
+		}
+
+		public long end() throws IOException {
+			_out.close();
+			return _rows;
+		}
+	}
+
+	/**
+	 * Streams each table into the database with COPY ... FROM STDIN.
+	 */
+	static class CopySink implements Sink{
+		private final Connection _conn;
+		private final StringBuilder _buffer = new StringBuilder(1 << 17);
+		private CopyIn _copy;
+
+		CopySink(Connection conn){
+			this._conn = conn;
+		}
+
+		public void begin(String table, String columns) throws SQLException {
+			_copy = _conn.unwrap(PGConnection.class).getCopyAPI().copyIn(
+				"COPY " + table + " (" + columns + ") FROM STDIN WITH (FORMAT csv)");
+		}
+
+		public void row(CharSequence csv) throws SQLException {
+			_buffer.append(csv).append('\n');
+			if(_buffer.length() >= (1 << 16)) flush();
+		}
+
+		public long end() throws SQLException {
+			flush();
+			return _copy.endCopy();
+		}
+
+		private void flush() throws SQLException {
+			byte[] bytes = _buffer.toString().getBytes(StandardCharsets.UTF_8);
+			_copy.writeToCopy(bytes, 0, bytes.length);
+			_buffer.setLength(0);
+		}
+	}
+
+	/**
+	 * Zipf distributed ranks in [1, n] by rejection-inversion (Hormann and
+	 * Derflinger), which needs constant memory for any n.
+	 */
+	static class Zipf{
+		private final long _n;
+		private final double _s;
+		private final double _hX1, _hN, _threshold;
+
+		Zipf(long n, double s){
+			this._n = n;
+			this._s = s;
+			this._hX1 = h(1.5) - 1.0;
+			this._hN = h(n + 0.5);
+			this._threshold = 2.0 - hInverse(h(2.5) - Math.pow(2.0, -s));
+		}
+
+		long sample(SplittableRandom rnd){
+			while(true){
+				double u = _hN + rnd.nextDouble() * (_hX1 - _hN);
+				double x = hInverse(u);
+				long k = (long) (x + 0.5);
+				if(k < 1) k = 1;
+				else if(k > _n) k = _n;
+				if(k - x <= _threshold || u >= h(k + 0.5) - Math.pow(k, -_s)) return k;
+			}
+		}
+
+		private double h(double x){
+			double logX = Math.log(x);
+			return helper2((1.0 - _s) * logX) * logX;
+		}
+
+		private double hInverse(double x){
+			double t = x * (1.0 - _s);
+			if(t < -1.0) t = -1.0;
+			return Math.exp(helper1(t) * x);
+		}
+
+		//log(1 + x) / x, stable near 0
+		private static double helper1(double x){
+			return Math.abs(x) > 1e-8 ? Math.log1p(x) / x : 1.0 - x * (0.5 - x * (1.0 / 3.0 - 0.25 * x));
+		}
+
+		//(exp(x) - 1) / x, stable near 0
+		private static double helper2(double x){
+			return Math.abs(x) > 1e-8 ? Math.expm1(x) / x : 1.0 + x * 0.5 * (1.0 + x / 3.0 * (1.0 + 0.25 * x));
+		}
+	}//end Zipf
+
+	private final long _seed;
+	private final long _requests;
+	private final int _customers;
+	private final int _mechanics;
+	private final int _cars;
+	private final boolean _isoDates;
+	private final Zipf _ownerZipf;
+	private final Zipf _carZipf;
+	private final long _customerStride;
+	private final long _carStride;
+	private final StringBuilder _row = new StringBuilder(512);
+
+	/**
+	 * @param requests number of service requests; the other tables are sized from it
+	 * @param seed the seed every row is derived from
+	 * @param isoDates write yyyy-MM-dd dates instead of the MM/dd/yyyy of the sample files
+	 */
+	public DataGenerator(long requests, long seed, boolean isoDates){
+		if(requests <= 0 || requests > Integer.MAX_VALUE) throw new IllegalArgumentException("Number of requests must be between 1 and " + Integer.MAX_VALUE);
+		this._seed = seed;
+		this._requests = requests;
+		this._customers = (int) Math.max(1, requests / REQUESTS_PER_CUSTOMER);
+		this._mechanics = (int) Math.max(1, requests / REQUESTS_PER_MECHANIC);
+		this._cars = (int) Math.max(1, requests / REQUESTS_PER_CAR);
+		this._isoDates = isoDates;
+		this._ownerZipf = new Zipf(_customers, CUSTOMER_SKEW);
+		this._carZipf = new Zipf(_cars, CAR_SKEW);
+		this._customerStride = stride(_customers);
+		this._carStride = stride(_cars);
+	}
+
+	//a generator seeded from the table and row only
+	private SplittableRandom rnd(long table, long row){
+		return new SplittableRandom(_seed * 0x9E3779B97F4A7C15L + table * 0xC2B2AE3D27D4EB4FL + row);
+	}
+
+	//spreads Zipf ranks over the key range so the heavy keys are not all adjacent
+	private static int permute(long rank, int n, long stride){
+		return (int) (((rank - 1) * stride) % n);
+	}
+
+	//a multiplier coprime to n, so permute is a bijection on [0, n)
+	private static long stride(int n){
+		long p = 2654435761L;
+		while(gcd(p, n) != 1) p += 2;
+		return p;
+	}
+
+	private static long gcd(long a, long b){
+		return b == 0 ? a : gcd(b, a % b);
+	}
+
+	//the owner of a car, also used when generating its requests
+	private int ownerOf(int car){
+		return permute(_ownerZipf.sample(rnd(CAR, car)), _customers, _customerStride);
+	}
+
+	//model years lean towards recent cars
+	private int yearOf(int car){
+		SplittableRandom r = rnd(YEAR, car);
+		return 2020 - (int) Math.min(50, Math.floor(-Math.log(1 - r.nextDouble()) * 9));
+	}
+
+	private static String vinOf(int car){
+		SplittableRandom r = new SplittableRandom(car * 31L + 7);
+		StringBuilder vin = new StringBuilder(16);
+		for(int i = 0; i < 6; ++i) vin.append((char) ('A' + r.nextInt(26)));
+		String digits = Integer.toString(car);
+		for(int i = digits.length(); i < 10; ++i) vin.append('0');
+		return vin.append(digits).toString();
+	}
+
+	//request day: seasonal (more in winter and late summer) and fewer on Sundays
+	private long requestDay(long rid){
+		SplittableRandom r = rnd(DAY, rid);
+		long start = LocalDate.of(FIRST_YEAR, 1, 1).toEpochDay();
+		int span = YEARS * 365;
+		while(true){
+			long day = start + r.nextInt(span);
+			double season = 1.0 + 0.35 * Math.cos(2 * Math.PI * ((day - start) % 365) / 365.0) + 0.15 * Math.sin(4 * Math.PI * ((day - start) % 365) / 365.0);
+			double week = LocalDate.ofEpochDay(day).getDayOfWeek().getValue() == 7 ? 0.3 : 1.0;
+			if(r.nextDouble() * 1.5 < season * week) return day;
+		}
+	}
+
+	private void date(long epochDay){
+		LocalDate d = LocalDate.ofEpochDay(epochDay);
+		if(_isoDates){
+			_row.append(d.toString());
+		}else{
+			_row.append(d.getMonthValue()).append('/').append(d.getDayOfMonth()).append('/').append(d.getYear()).append(" 00:00");
+		}
+	}
+
+	private static String pick(SplittableRandom r, String[] values){
+		return values[r.nextInt(values.length)];
+	}
+
+	void customers(Sink sink) throws IOException, SQLException {
+		sink.begin("Customer", "id, fname, lname, phone, address");
+		for(int id = 0; id < _customers; ++id){
+			SplittableRandom r = rnd(CUSTOMER, id);
+			_row.setLength(0);
+			_row.append(id).append(',').append(pick(r, FIRST_NAMES)).append(',').append(pick(r, LAST_NAMES)).append(',')
+				.append('(').append(200 + r.nextInt(800)).append(')').append(100 + r.nextInt(900)).append('-').append(1000 + r.nextInt(9000)).append(',')
+				.append(1 + r.nextInt(9999)).append(' ').append(pick(r, STREETS)).append(' ').append(pick(r, CITIES));
+			sink.row(_row);
+		}
+		report("Customer", sink.end());
+	}
+
+	void mechanics(Sink sink) throws IOException, SQLException {
+		sink.begin("Mechanic", "id, fname, lname, experience");
+		for(int id = 0; id < _mechanics; ++id){
+			SplittableRandom r = rnd(MECHANIC, id);
+			_row.setLength(0);
+			_row.append(id).append(',').append(pick(r, FIRST_NAMES)).append(',').append(pick(r, LAST_NAMES)).append(',').append(r.nextInt(40));
+			sink.row(_row);
+		}
+		report("Mechanic", sink.end());
+	}
+
+	void cars(Sink sink) throws IOException, SQLException {
+		sink.begin("Car", "vin, make, model, year");
+		for(int car = 0; car < _cars; ++car){
+			SplittableRandom r = rnd(MODEL, car);
+			String[] make = MAKES[r.nextInt(MAKES.length)];
+			_row.setLength(0);
+			_row.append(vinOf(car)).append(',').append(make[0]).append(',').append(make[1 + r.nextInt(make.length - 1)]).append(',').append(yearOf(car));
+			sink.row(_row);
+		}
+		report("Car", sink.end());
+	}
+
+	//every car has exactly one owner, so ownership_id is the car number
+	void owns(Sink sink) throws IOException, SQLException {
+		sink.begin("Owns", "ownership_id, customer_id, car_vin");
+		for(int car = 0; car < _cars; ++car){
+			_row.setLength(0);
+			_row.append(car).append(',').append(ownerOf(car)).append(',').append(vinOf(car));
+			sink.row(_row);
+		}
+		report("Owns", sink.end());
+	}
+
+	void requests(Sink sink) throws IOException, SQLException {
+		sink.begin("Service_Request", "rid, customer_id, car_vin, date, odometer, complain");
+		long firstDay = LocalDate.of(FIRST_YEAR, 1, 1).toEpochDay();
+		for(long rid = 0; rid < _requests; ++rid){
+			SplittableRandom r = rnd(REQUEST, rid);
+			int car = permute(_carZipf.sample(r), _cars, _carStride);
+			long day = requestDay(rid);
+			int age = Math.max(1, LocalDate.ofEpochDay(day).getYear() - yearOf(car));
+			int odometer = Math.max(1, (int) (age * 12000 * (0.5 + r.nextDouble())));
+			_row.setLength(0);
+			_row.append(rid).append(',').append(ownerOf(car)).append(',').append(vinOf(car)).append(',');
+			date(Math.max(firstDay, day));
+			_row.append(',').append(odometer).append(',').append(pick(r, COMPLAINTS));
+			sink.row(_row);
+		}
+		report("Service_Request", sink.end());
+	}
+
+	void closed(Sink sink) throws IOException, SQLException {
+		//the files keep the format of the sample data; the database is given the request date to partition by
+		boolean requestDates = sink instanceof CopySink;
+		sink.begin("Closed_Request", "wid, rid, mid, date, comment, bill" + (requestDates ? ", request_date" : ""));
+		long wid = 0;
+		for(long rid = 0; rid < _requests; ++rid){
+			SplittableRandom r = rnd(CLOSED, rid);
+			if(r.nextDouble() >= CLOSED_FRACTION) continue;
+			long requested = requestDay(rid);
+			long day = requested + (long) Math.floor(-Math.log(1 - r.nextDouble()) * 3);
+			//log-normal bill around $150 with a long tail
+			int bill = Math.max(1, (int) Math.exp(Math.log(150) + 0.9 * r.nextGaussian()));
+			_row.setLength(0);
+			_row.append(wid++).append(',').append(rid).append(',').append(r.nextInt(_mechanics)).append(',');
+			date(day);
+			_row.append(',').append(pick(r, COMMENTS)).append(',').append(bill);
+			if(requestDates){
+				_row.append(',');
+				date(requested);
+			}
+			sink.row(_row);
+		}
+		report("Closed_Request", sink.end());
+	}
+
+	/**
+	 * Method to generate every table in foreign key order.
+	 */
+	public void generate(Sink sink) throws IOException, SQLException {
+		customers(sink);
+		mechanics(sink);
+		cars(sink);
+		owns(sink);
+		requests(sink);
+		closed(sink);
+	}
+
+	private static long _started = System.nanoTime();
+
+	private static void report(String table, long rows){
+		System.out.printf("%-16s %,12d row(s)  %8.1f s%n", table, rows, (System.nanoTime() - _started) / 1e9);
+	}
+
+	/**
+	 * The main execution method
+	 *
+	 * @param args --requests N [--seed S] (--out <dir> | --db <dbname> <port> <user> [--truncate])
+	 */
+	public static void main(String[] args){
+		long requests = 30000, seed = 166;
+		String outDir = null, dbname = null, port = null, user = null;
+		boolean truncate = false;
+		for(int i = 0; i < args.length; ++i){
+			if(args[i].equals("--requests") && i + 1 < args.length) requests = Long.parseLong(args[++i].replace("_", ""));
+			else if(args[i].equals("--seed") && i + 1 < args.length) seed = Long.parseLong(args[++i]);
+			else if(args[i].equals("--out") && i + 1 < args.length) outDir = args[++i];
+			else if(args[i].equals("--db") && i + 3 < args.length){
+				dbname = args[++i];
+				port = args[++i];
+				user = args[++i];
+			}
+			else if(args[i].equals("--truncate")) truncate = true;
+			else System.err.println("Ignoring unknown option " + args[i]);
+		}
+		if((outDir == null) == (dbname == null)){
+			System.err.println("Usage: java [-classpath <classpath>] " + DataGenerator.class.getName()
+				+ " --requests N [--seed S] (--out <dir> | --db <dbname> <port> <user> [--truncate])");
+			return;
+		}
+
+		DataGenerator generator = new DataGenerator(requests, seed, dbname != null);
+		if(outDir != null){
+			try{
+				File dir = new File(outDir);
+				dir.mkdirs();
+				generator.generate(new CsvSink(dir));
+			}catch(Exception e){
+				System.err.println(e.getMessage());
+			}
+			return;
+		}
+
+		MechanicShop esql = null;
+		try{
+			Class.forName("org.postgresql.Driver");
+			esql = new MechanicShop(dbname, port, user, "");
+			boolean clear = truncate;
+			esql.withConnection(conn -> {
+				Connection c = conn.getConnection();
+				try(Statement stmt = c.createStatement()){
+					if(clear) stmt.execute("TRUNCATE Closed_Request, Service_Request, Owns, Car, Mechanic, Customer RESTART IDENTITY CASCADE");
+					//the month partitions are only present once sql/partition.sql was loaded
+					stmt.execute("DO $$ BEGIN PERFORM ensure_month_partitions('" + LocalDate.of(FIRST_YEAR, 1, 1) + "', '"
+						+ LocalDate.of(FIRST_YEAR + YEARS, 12, 31) + "'); EXCEPTION WHEN undefined_function THEN NULL; END $$");
+					c.setAutoCommit(false);
+					generator.generate(new CopySink(c));
+					c.commit();
+					c.setAutoCommit(true);
+					//the reporting aggregates are only present once sql/reporting.sql was loaded
+					stmt.execute("DO $$ BEGIN PERFORM refresh_report_aggregates(); EXCEPTION WHEN undefined_function THEN NULL; END $$");
+					stmt.execute(ShopQueries.SYNC_KEY_SEQUENCES);
+					stmt.execute("ANALYZE");
+				}catch(IOException e){
+					throw new SQLException(e.getMessage(), "58030", e);
+				}
+				return null;
+			});
+		}catch(Exception e){
+			System.err.println(e.getMessage());
+		}finally{
+			if(esql != null) esql.cleanup();
+		}
+	}
+}//end DataGenerator
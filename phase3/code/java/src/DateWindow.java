@@ -0,0 +1,79 @@
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.format.ResolverStyle;
+
+/**
+ * The days [from, until) a report is restricted to, by the date the
+ * service requests were made.  Either end may be open.  The bounds are
+ * bound to the queries as text so that an open end becomes infinity,
+ * which keeps the query text the same and still lets the planner skip
+ * the months of sql/partition.sql outside the window.
+ *
+ */
+public class DateWindow{
+	//the whole history
+	public static final DateWindow ALL = new DateWindow(null, null);
+
+	//the dates typed at the console, like the data files
+	private static final DateTimeFormatter CONSOLE = DateTimeFormatter.ofPattern("MM/dd/uuuu").withResolverStyle(ResolverStyle.STRICT);
+
+	//first day in the window, null for no lower bound
+	public final LocalDate from;
+	//first day after the window, null for no upper bound
+	public final LocalDate until;
+
+	public DateWindow(LocalDate from, LocalDate until){
+		if(from != null && until != null && !from.isBefore(until))
+			throw new IllegalArgumentException("The date window must end after it starts");
+		this.from = from;
+		this.until = until;
+	}
+
+	/**
+	 * @param from the first day, yyyy-mm-dd or mm/dd/yyyy, null or blank for none
+	 * @param until the first day after the window, in the same forms
+	 */
+	public static DateWindow of(String from, String until){
+		return new DateWindow(parse(from), parse(until));
+	}
+
+	static LocalDate parse(String text){
+		if(text == null || text.trim().isEmpty()) return null;
+		String s = text.trim();
+		try{
+			return s.indexOf('/') >= 0 ? LocalDate.parse(s, CONSOLE) : LocalDate.parse(s);
+		}catch(DateTimeParseException e){
+			throw new IllegalArgumentException("Invalid date: " + s);
+		}
+	}
+
+	public boolean isAll(){
+		return from == null && until == null;
+	}
+
+	String fromText(){
+		return from == null ? "-infinity" : from.toString();
+	}
+
+	String untilText(){
+		return until == null ? "infinity" : until.toString();
+	}
+
+	@Override
+	public boolean equals(Object o){
+		if(!(o instanceof DateWindow)) return false;
+		DateWindow w = (DateWindow) o;
+		return fromText().equals(w.fromText()) && untilText().equals(w.untilText());
+	}
+
+	@Override
+	public int hashCode(){
+		return fromText().hashCode() * 31 + untilText().hashCode();
+	}
+
+	@Override
+	public String toString(){
+		return isAll() ? "all dates" : "[" + (from == null ? "" : from) + ", " + (until == null ? "" : until) + ")";
+	}
+}//end DateWindow
@@ -0,0 +1,153 @@
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * This class keeps a bounded, least-recently-used cache of rows read from
+ * the database, each entry expiring a fixed time after it was loaded.
+ * Lookups go through get(key, loader), which reads the row on a miss and
+ * remembers it; writers call put or invalidate so that readers in this
+ * process never see a row older than their own write.  Absent rows are not
+ * cached, so a row added by anyone shows up on the next lookup.
+ *
+ */
+public class EntityCache<K, V>{
+
+	/**
+	 * Reads the value of a key from the database, null if there is none.
+	 */
+	interface Loader<K, V>{
+		V load(K key) throws SQLException;
+	}
+
+	private static class Entry<V>{
+		final V value;
+		final long expiresAt;
+
+		Entry(V value, long expiresAt){
+			this.value = value;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	private final String _name;
+	private final int _capacity;
+	private final long _ttlMillis;
+	//access ordered map, the eldest entry is the least recently used
+	private final LinkedHashMap<K, Entry<V>> _entries;
+	//bumped by every invalidation so that a load racing with it is not stored
+	private long _generation = 0;
+
+	private long _hits = 0;
+	private long _misses = 0;
+	private long _evictions = 0;
+	private long _expirations = 0;
+	private long _invalidations = 0;
+
+	/**
+	 * @param name used in the statistics
+	 * @param capacity maximum number of entries kept
+	 * @param ttlMillis how long an entry is served after it was loaded
+	 */
+	public EntityCache(String name, int capacity, long ttlMillis){
+		this._name = name;
+		this._capacity = capacity;
+		this._ttlMillis = ttlMillis;
+		this._entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true);
+	}
+
+	/**
+	 * Method to look up a key, loading and caching it on a miss.  The load
+	 * runs without holding the cache lock.
+	 *
+	 * @param key the key
+	 * @param loader reads the value from the database
+	 * @return the value, or null when the database has none
+	 * @throws java.sql.SQLException when the load fails
+	 */
+	public V get(K key, Loader<K, V> loader) throws SQLException {
+		long generation;
+		synchronized(this){
+			Entry<V> entry = _entries.get(key);
+			if(entry != null){
+				if(entry.expiresAt > System.currentTimeMillis()){
+					_hits++;
+					return entry.value;
+				}
+				_entries.remove(key);
+				_expirations++;
+			}
+			_misses++;
+			generation = _generation;
+		}
+		V value = loader.load(key);
+		if(value != null){
+			synchronized(this){
+				if(generation == _generation) store(key, value);
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * Method to remember a value just written to the database.
+	 */
+	public synchronized void put(K key, V value){
+		_generation++;
+		store(key, value);
+	}
+
+	private void store(K key, V value){
+		if(_capacity <= 0) return;
+		_entries.put(key, new Entry<V>(value, System.currentTimeMillis() + _ttlMillis));
+		if(_entries.size() > _capacity){
+			Iterator<K> eldest = _entries.keySet().iterator();
+			eldest.next();
+			eldest.remove();
+			_evictions++;
+		}
+	}
+
+	/**
+	 * Method to forget one key after it changed in the database.
+	 */
+	public synchronized void invalidate(K key){
+		_generation++;
+		if(_entries.remove(key) != null) _invalidations++;
+	}
+
+	/**
+	 * Method to forget every key.
+	 */
+	public synchronized void invalidateAll(){
+		_generation++;
+		_invalidations += _entries.size();
+		_entries.clear();
+	}
+
+	public String getName(){
+		return _name;
+	}
+
+	public synchronized int size(){
+		return _entries.size();
+	}
+
+	public synchronized long getHits(){
+		return _hits;
+	}
+
+	public synchronized long getMisses(){
+		return _misses;
+	}
+
+	public synchronized double getHitRate(){
+		long lookups = _hits + _misses;
+		return lookups == 0 ? 0 : (double) _hits / lookups;
+	}
+
+	public synchronized String getStatistics(){
+		return String.format("%s: %d/%d entries, %d hit(s), %d miss(es), hit rate %.1f%%, %d evicted, %d expired, %d invalidated",
+			_name, _entries.size(), _capacity, _hits, _misses, getHitRate() * 100, _evictions, _expirations, _invalidations);
+	}
+}//end EntityCache
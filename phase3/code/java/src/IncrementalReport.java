@@ -0,0 +1,213 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class answers the total-bill or the most-serviced-cars report for
+ * one date window from an aggregate kept in memory: the bill total of
+ * every customer, or the request count of every car.  The first refresh
+ * reads the whole window; each later one only reads the rows committed
+ * since the previous read, so it costs the size of the delta rather than
+ * of history.
+ *
+ * The delta follows commit order rather than key order.  Keys are drawn
+ * from sequences in blocks and reserved ahead by the intake queue, so a
+ * low key can commit long after higher ones.  The triggers of
+ * sql/report_changes.sql log the key of every inserted row in Report_Change
+ * with the inserting transaction; each read also takes the snapshot it
+ * ran under, and the next delta reads the keys logged by the transactions
+ * that snapshot did not see.
+ * Updates and deletes are not seen by the deltas; the aggregate is read
+ * again in full every ShopConfig.reportsIncrementalRebuildMillis().
+ *
+ */
+public class IncrementalReport{
+	//the rows folded in: key, grouping value and amount, restricted to the window
+	private static final String BILLS =
+		"SELECT CR.wid AS seq, CAST(SR.customer_id AS TEXT) AS grp, CR.bill AS amount FROM Closed_Request AS CR, Service_Request AS SR "
+		+ "WHERE CR.rid = SR.rid AND CR.request_date = SR.date "
+		+ "AND SR.date >= CAST(? AS DATE) AND SR.date < CAST(? AS DATE) AND CR.request_date >= CAST(? AS DATE) AND CR.request_date < CAST(? AS DATE)";
+	private static final String REQUESTS =
+		"SELECT S.rid AS seq, CAST(S.car_vin AS TEXT) AS grp, 1 AS amount FROM Service_Request AS S "
+		+ "WHERE S.date >= CAST(? AS DATE) AND S.date < CAST(? AS DATE)";
+	//names shown with the groups of one page
+	private static final String CUSTOMER_NAMES = "SELECT CAST(id AS TEXT), fname, lname FROM Customer WHERE id = ANY(CAST(? AS INTEGER[]));";
+	private static final String CAR_NAMES = "SELECT vin, make, model FROM Car WHERE vin = ANY(CAST(? AS VARCHAR[]));";
+	//the keys logged by the transactions a snapshot did not see; source, then the snapshot twice
+	private static final String CHANGED =
+		"SELECT seq FROM Report_Change WHERE source = CAST(? AS VARCHAR) "
+		+ "AND txid >= txid_snapshot_xmin(CAST(? AS txid_snapshot)) AND NOT txid_visible_in_snapshot(txid, CAST(? AS txid_snapshot))";
+	//the log is only read back as far as the oldest reader that has not been rebuilt since
+	private static final String PRUNE_CHANGES =
+		"DELETE FROM Report_Change WHERE logged_at < clock_timestamp() - CAST(? AS BIGINT) * INTERVAL '1 millisecond';";
+
+	/**
+	 * The amount of one group, as shown.
+	 */
+	private static class Total{
+		//the customer id or the vin, as text
+		final String group;
+		final long amount;
+
+		Total(String group, long amount){
+			this.group = group;
+			this.amount = amount;
+		}
+	}
+
+	private final MechanicShop _db;
+	private final ReportQueries.Report _report;
+	private final DateWindow _window;
+	private final String _full;
+	private final String _delta;
+	//Report_Change.source of the rows folded in
+	private final String _source;
+	//report order: amount, then group, both descending; ids as numbers, vins in the C collation of the query
+	private final Comparator<Total> _order;
+
+	private final Map<String, Long> _totals = new HashMap<String, Long>();
+	private boolean _built = false;
+	//the snapshot of the last read; the next delta is what it did not see
+	private String _snapshot;
+	private long _rebuiltAt = 0;
+	private long _refreshedAt = 0;
+	//the totals in report order, rebuilt after a change
+	private volatile Total[] _sorted = new Total[0];
+
+	private long _refreshes = 0;
+	private long _rebuilds = 0;
+	private long _lastRows = 0;
+	private long _lastMicros = 0;
+
+	/**
+	 * @param report TOTAL_BILL or MOST_SERVICED_CARS
+	 * @param window the days of the requests counted
+	 */
+	public IncrementalReport(MechanicShop db, ReportQueries.Report report, DateWindow window){
+		if(!supports(report)) throw new IllegalArgumentException("The " + report.path + " report has no incremental mode");
+		this._db = db;
+		this._report = report;
+		this._window = window;
+		String source = report == ReportQueries.Report.TOTAL_BILL ? BILLS : REQUESTS;
+		this._source = report == ReportQueries.Report.TOTAL_BILL ? "closed_request" : "service_request";
+		Comparator<Total> group = report == ReportQueries.Report.TOTAL_BILL
+			? Comparator.comparingInt(t -> Integer.parseInt(t.group)) : Comparator.comparing(t -> t.group, ReportQueries.C_ORDER);
+		this._order = Comparator.<Total>comparingLong(t -> t.amount).thenComparing(group).reversed();
+		//each ends with one row holding the snapshot the statement read under
+		this._full = "SELECT grp, SUM(amount) FROM (" + source + ") AS d GROUP BY grp "
+			+ "UNION ALL SELECT CAST(txid_current_snapshot() AS TEXT), NULL;";
+		this._delta = "SELECT seq, grp, amount FROM (" + source + ") AS d WHERE seq IN (" + CHANGED + ") "
+			+ "UNION ALL SELECT NULL, CAST(txid_current_snapshot() AS TEXT), NULL;";
+	}
+
+	public static boolean supports(ReportQueries.Report report){
+		return report == ReportQueries.Report.TOTAL_BILL || report == ReportQueries.Report.MOST_SERVICED_CARS;
+	}
+
+	/**
+	 * Method to bring the aggregate up to date: in full when it was never
+	 * read or is due for a rebuild, otherwise by folding in the delta.
+	 * Refreshes closer together than ShopConfig.reportsIncrementalMinRefreshMillis()
+	 * are skipped, so that many dashboards share one.
+	 */
+	public synchronized void refresh() throws SQLException {
+		long now = System.currentTimeMillis();
+		if(_built && now - _refreshedAt < ShopConfig.reportsIncrementalMinRefreshMillis()) return;
+		long start = System.nanoTime();
+		if(!_built || now - _rebuiltAt >= ShopConfig.reportsIncrementalRebuildMillis()) rebuild(now);
+		else fold();
+		_refreshedAt = now;
+		_refreshes++;
+		_lastMicros = (System.nanoTime() - start) / 1000;
+	}
+
+	private void rebuild(long now) throws SQLException {
+		//no reader folds from a snapshot older than a rebuild; the second interval covers slow commits
+		_db.executeUpdate(PRUNE_CHANGES, 2 * ShopConfig.reportsIncrementalRebuildMillis());
+		List<List<String>> rows = _db.executeQueryAndReturnResult(_full, _report.windowParams(_window).toArray());
+		_totals.clear();
+		for(List<String> row : rows){
+			if(row.get(1) == null) _snapshot = row.get(0);
+			else _totals.put(row.get(0), Long.parseLong(row.get(1)));
+		}
+		_built = true;
+		_rebuiltAt = now;
+		_rebuilds++;
+		_lastRows = rows.size();
+		_sorted = sort();
+	}
+
+	private void fold() throws SQLException {
+		List<Object> params = _report.windowParams(_window);
+		params.add(_source);
+		params.add(_snapshot);
+		params.add(_snapshot);
+		List<List<String>> rows = _db.executeQueryAndReturnResult(_delta, params.toArray());
+		int folded = 0;
+		for(List<String> row : rows){
+			if(row.get(0) == null){
+				_snapshot = row.get(1);
+				continue;
+			}
+			_totals.merge(row.get(1), Long.parseLong(row.get(2)), Long::sum);
+			folded++;
+		}
+		_lastRows = rows.size();
+		if(folded > 0) _sorted = sort();
+	}
+
+	private Total[] sort(){
+		Total[] sorted = new Total[_totals.size()];
+		int i = 0;
+		for(Map.Entry<String, Long> e : _totals.entrySet()) sorted[i++] = new Total(e.getKey(), e.getValue());
+		Arrays.sort(sorted, _order);
+		return sorted;
+	}
+
+	/**
+	 * Method to read rows of the report in the shape of the paged query:
+	 * the displayed columns followed by the amount and the group as key.
+	 * The first page refreshes the aggregate; the following ones read the
+	 * same state.  Groups whose customer or car is gone are left out, as
+	 * the join of the query leaves them out.
+	 *
+	 * @param after the key of the last row shown, null for the first page
+	 * @param rows the most rows to return
+	 */
+	public List<List<String>> page(List<String> after, int rows) throws SQLException {
+		if(after == null) refresh();
+		Total[] sorted = _sorted;
+		int from = 0;
+		if(after != null){
+			Total last = new Total(after.get(1), Long.parseLong(after.get(0)));
+			int i = Arrays.binarySearch(sorted, last, _order);
+			from = i >= 0 ? i + 1 : -i - 1;
+		}
+		String query = _report == ReportQueries.Report.TOTAL_BILL ? CUSTOMER_NAMES : CAR_NAMES;
+		List<List<String>> result = new ArrayList<List<String>>(Math.min(rows, sorted.length - from));
+		//a page short of rows would end the report, so the groups left out are made up from the ones after
+		while(result.size() < rows && from < sorted.length){
+			List<Total> slice = Arrays.asList(sorted).subList(from, Math.min(sorted.length, from + rows - result.size()));
+			from += slice.size();
+			List<Object> groups = new ArrayList<Object>();
+			for(Total t : slice) groups.add(t.group);
+			Map<String, List<String>> names = new HashMap<String, List<String>>();
+			for(List<String> row : _db.executeQueryAndReturnResult(query, MechanicShop.arrayLiteral(groups)))
+				names.put(row.get(0), row.subList(1, 3));
+			for(Total t : slice){
+				List<String> name = names.get(t.group);
+				if(name != null) result.add(List.of(name.get(0), name.get(1), Long.toString(t.amount), t.group));
+			}
+		}
+		return result;
+	}
+
+	public synchronized String getStatistics(){
+		return String.format("%s %s: %d group(s), snapshot %s, %d refresh(es) (%d full), last %d row(s) in %.1f ms",
+			_report.path, _window, _totals.size(), _snapshot, _refreshes, _rebuilds, _lastRows, _lastMicros / 1e3);
+	}
+}//end IncrementalReport
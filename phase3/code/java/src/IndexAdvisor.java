@@ -0,0 +1,219 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class runs EXPLAIN (ANALYZE, BUFFERS) on every statement the menu
+ * operations issue and flags the sequential scans that read more rows than
+ * a threshold.  Statements that modify data are explained inside a
+ * transaction that is rolled back, so the database is left untouched.
+ * Sample parameter values are taken from the loaded data.
+ *
+ */
+public class IndexAdvisor{
+
+	/**
+	 * One statement to explain, with the menu operation it belongs to.
+	 */
+	static class Probe{
+		final String operation;
+		final String sql;
+		final Object[] params;
+
+		Probe(String operation, String sql, Object... params){
+			this.operation = operation;
+			this.sql = sql;
+			this.params = params;
+		}
+	}
+
+	//"Seq Scan on customer c  (cost=... ) (actual time=... rows=500 loops=1)"
+	static final Pattern SEQ_SCAN = Pattern.compile("Seq Scan on (\\w+).*actual time=\\S+ rows=(\\d+) loops=(\\d+)");
+	static final Pattern REMOVED = Pattern.compile("Rows Removed by Filter: (\\d+)");
+	static final Pattern EXECUTION = Pattern.compile("Execution time: ([\\d.]+) ms");
+	static final Pattern BUFFERS = Pattern.compile("Buffers: (.*)");
+
+	private final int _minRows;
+	private final boolean _showPlans;
+	private int _flagged = 0;
+
+	public IndexAdvisor(int minRows, boolean showPlans){
+		this._minRows = minRows;
+		this._showPlans = showPlans;
+	}
+
+	/**
+	 * Method to build the list of statements issued by the menu, bound to
+	 * sample values read from the database.
+	 */
+	static List<Probe> probes(Connection conn) throws SQLException {
+		String lname = sample(conn, "SELECT lname FROM Customer LIMIT 1");
+		Integer cid = sampleInt(conn, "SELECT customer_id FROM Owns LIMIT 1");
+		String vin = sample(conn, "SELECT car_vin FROM Owns LIMIT 1");
+		Integer rid = sampleInt(conn, "SELECT rid FROM Service_Request LIMIT 1");
+		Integer mid = sampleInt(conn, "SELECT id FROM Mechanic LIMIT 1");
+		int nextCustomer = sampleInt(conn, "SELECT COALESCE(MAX(id), 0) + 1 FROM Customer");
+		int nextMechanic = sampleInt(conn, "SELECT COALESCE(MAX(id), 0) + 1 FROM Mechanic");
+		int nextWid = sampleInt(conn, "SELECT COALESCE(MAX(wid), 0) + 1 FROM Closed_Request");
+		java.sql.Date today = new java.sql.Date(System.currentTimeMillis());
+
+		List<Probe> probes = new ArrayList<Probe>();
+		probes.add(new Probe("AddCustomer", ShopQueries.INSERT_CUSTOMER, nextCustomer, "Advisor", "Probe", "(000)000-0000", "nowhere"));
+		probes.add(new Probe("AddMechanic", ShopQueries.INSERT_MECHANIC, nextMechanic, "Advisor", "Probe", 1));
+		probes.add(new Probe("AddCar", ShopQueries.INSERT_CAR, "ADVISORPROBE0000", "Advisor", "Probe", 2000));
+		probes.add(new Probe("InsertServiceRequest", ShopQueries.CUSTOMER_BY_LNAME, lname));
+		if(lname != null){
+			String prefix = lname.trim().toLowerCase(java.util.Locale.ROOT);
+			prefix = prefix.substring(0, Math.min(3, prefix.length()));
+			probes.add(new Probe("InsertServiceRequest (search)", ShopQueries.SEARCH_CUSTOMERS, prefix, prefix, ShopService.prefixEnd(prefix),
+				ShopConfig.searchLimit(), prefix, prefix, prefix, ShopConfig.searchLimit()));
+		}
+		probes.add(new Probe("InsertServiceRequest", ShopQueries.CARS_OWNED_BY, cid));
+		probes.add(new Probe("InsertServiceRequest", ShopQueries.INSERT_SERVICE_REQUEST, today, 1000, "probe", cid, vin));
+		probes.add(new Probe("CloseServiceRequest", ShopQueries.CLOSE_SERVICE_REQUEST, rid, mid, nextWid, today, "probe", 1, today));
+		//a page-size first page and the page after it, so both the ordered scan and the seek on its key are explained
+		int pageSize = ShopConfig.reportPageSize();
+		for(boolean agg : new boolean[]{ false, true }){
+			String suffix = agg ? " (aggregates)" : "";
+			for(ReportQueries.Report report : ReportQueries.Report.values()){
+				probes.add(new Probe("first page of " + report.path + suffix, report.page(agg, false, false), pageSize + 1));
+				List<String> key = lastKey(conn, report, agg, pageSize);
+				if(key == null) continue;
+				List<Object> params = new ArrayList<Object>(key);
+				params.add(pageSize + 1);
+				probes.add(new Probe("next page of " + report.path + suffix, report.page(agg, false, true), params.toArray()));
+			}
+		}
+		return probes;
+	}
+
+	/**
+	 * Method to explain one statement and print its findings.  The
+	 * statement runs in its own transaction, which is always rolled back.
+	 */
+	void explain(Connection conn, Probe probe) throws SQLException {
+		String sql = probe.sql.trim();
+		if(sql.endsWith(";")) sql = sql.substring(0, sql.length() - 1);
+		List<String> plan = new ArrayList<String>();
+		conn.setAutoCommit(false);
+		try(PreparedStatement stmt = conn.prepareStatement("EXPLAIN (ANALYZE, BUFFERS) " + sql)){
+			for(int i = 0; i < probe.params.length; ++i)
+				stmt.setObject(i + 1, probe.params[i]);
+			try(ResultSet rs = stmt.executeQuery()){
+				while(rs.next()) plan.add(rs.getString(1));
+			}
+		}catch(SQLException e){
+			System.out.println(probe.operation + ": cannot explain (" + e.getMessage().trim() + ")");
+			return;
+		}finally{
+			conn.rollback();
+			conn.setAutoCommit(true);
+		}
+
+		String time = "?", buffers = "";
+		List<String> findings = new ArrayList<String>();
+		for(int i = 0; i < plan.size(); ++i){
+			String line = plan.get(i);
+			Matcher m = EXECUTION.matcher(line);
+			if(m.find()) time = m.group(1);
+			m = BUFFERS.matcher(line);
+			if(buffers.isEmpty() && m.find()) buffers = m.group(1);
+			m = SEQ_SCAN.matcher(line);
+			if(m.find()){
+				long rows = Long.parseLong(m.group(2));
+				long loops = Long.parseLong(m.group(3));
+				long removed = 0;
+				for(int j = i + 1; j < plan.size() && j <= i + 3; ++j){
+					Matcher r = REMOVED.matcher(plan.get(j));
+					if(r.find()){
+						removed = Long.parseLong(r.group(1));
+						break;
+					}
+				}
+				long scanned = (rows + removed) * Math.max(1, loops);
+				if(scanned >= _minRows)
+					findings.add("sequential scan on " + m.group(1) + " read " + scanned + " row(s), kept " + rows * Math.max(1, loops));
+			}
+		}
+		System.out.println(probe.operation + ": " + time + " ms" + (buffers.isEmpty() ? "" : ", buffers " + buffers));
+		System.out.println("\t" + sql);
+		for(String f : findings) System.out.println("\t!! " + f);
+		_flagged += findings.size();
+		if(_showPlans){
+			for(String line : plan) System.out.println("\t| " + line);
+		}
+	}
+
+	static String sample(Connection conn, String sql) throws SQLException {
+		try(PreparedStatement stmt = conn.prepareStatement(sql); ResultSet rs = stmt.executeQuery()){
+			return rs.next() ? rs.getString(1) : null;
+		}
+	}
+
+	/**
+	 * @return the key of the last row of the first page of a report, or
+	 *         null when the report has no rows
+	 */
+	static List<String> lastKey(Connection conn, ReportQueries.Report report, boolean agg, int pageSize) throws SQLException {
+		List<String> last = null;
+		try(PreparedStatement stmt = conn.prepareStatement(report.page(agg, false, false))){
+			stmt.setObject(1, pageSize);
+			try(ResultSet rs = stmt.executeQuery()){
+				int columns = rs.getMetaData().getColumnCount();
+				while(rs.next()){
+					last = new ArrayList<String>();
+					for(int i = 1; i <= columns; ++i) last.add(rs.getString(i));
+				}
+			}
+		}
+		return last == null ? null : report.keyOf(last);
+	}
+
+	static Integer sampleInt(Connection conn, String sql) throws SQLException {
+		String value = sample(conn, sql);
+		return value == null ? null : Integer.valueOf(value);
+	}
+
+	/**
+	 * The main execution method
+	 *
+	 * @param args <dbname> <port> <user> [--min-rows N] [--plans]
+	 */
+	public static void main(String[] args){
+		if(args.length < 3){
+			System.err.println("Usage: java [-classpath <classpath>] " + IndexAdvisor.class.getName()
+				+ " <dbname> <port> <user> [--min-rows N] [--plans]");
+			return;
+		}
+		int minRows = 1000;
+		boolean showPlans = false;
+		for(int i = 3; i < args.length; ++i){
+			if(args[i].equals("--min-rows") && i + 1 < args.length) minRows = Integer.parseInt(args[++i]);
+			else if(args[i].equals("--plans")) showPlans = true;
+			else System.err.println("Ignoring unknown option " + args[i]);
+		}
+
+		MechanicShop esql = null;
+		try{
+			Class.forName("org.postgresql.Driver");
+			esql = new MechanicShop(args[0], args[1], args[2], "");
+			IndexAdvisor advisor = new IndexAdvisor(minRows, showPlans);
+			esql.withConnection(conn -> {
+				Connection c = conn.getConnection();
+				for(Probe probe : probes(c)) advisor.explain(c, probe);
+				return null;
+			});
+			System.out.println("------------------------------------------------");
+			System.out.println(advisor._flagged + " sequential scan(s) reading at least " + minRows + " row(s)");
+		}catch(Exception e){
+			System.err.println(e.getMessage());
+		}finally{
+			if(esql != null) esql.cleanup();
+		}
+	}
+}//end IndexAdvisor
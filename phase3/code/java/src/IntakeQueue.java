@@ -0,0 +1,470 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * This class takes service requests at the desk without waiting for the
+ * database.  submit() checks the request, reserves its rid from the
+ * KeyAllocator, appends it to a write-ahead file and returns at once with
+ * that rid as the ticket; a daemon thread writes the queued requests in
+ * batches of up to ShopConfig.intakeBatchSize() with one statement, and
+ * records the outcome of each in the same file.  While the database is
+ * unavailable the batch is tried again, backing off up to
+ * ShopConfig.intakeRetryMaxMillis().
+ *
+ * On start the file is read back and every request without an outcome is
+ * queued again, so a request accepted before a crash is still filed.  The
+ * batch insert skips a (rid, date) already stored, which makes writing a
+ * request twice harmless.  A request may carry an idempotency key; a
+ * second submit with the same key returns the ticket of the first.
+ *
+ * A request is only known to be stored once its ticket is WRITTEN; the
+ * ownership of the car is checked by the insert, so a ticket may also end
+ * up REJECTED.
+ *
+ */
+public class IntakeQueue implements AutoCloseable{
+	public enum Status{ PENDING, WRITTEN, REJECTED }
+
+	/**
+	 * A request handed to the queue and what became of it.  The number of
+	 * the ticket is the rid the request is stored under.
+	 */
+	public static class Ticket{
+		public final ServiceRequest request;
+		//idempotency key given with the request, or null
+		public final String key;
+		private volatile Status _status = Status.PENDING;
+		private volatile String _reason = null;
+
+		Ticket(ServiceRequest request, String key){
+			this.request = request;
+			this.key = key;
+		}
+
+		public int getNumber(){
+			return request.rid;
+		}
+
+		public Status getStatus(){
+			return _status;
+		}
+
+		//why the request was rejected, null otherwise
+		public String getReason(){
+			return _reason;
+		}
+
+		@Override
+		public String toString(){
+			return "ticket " + request.rid + " " + _status + (_reason == null ? "" : ": " + _reason);
+		}
+	}
+
+	private final MechanicShop _db;
+	private final KeyAllocator _keys;
+	private final PartitionMaintainer _partitions;
+	//told of every request this queue inserted
+	private final Consumer<ServiceRequest> _onWritten;
+	private final String _path;
+	//written through the file rather than its channel, which a thread interrupt would close
+	private final RandomAccessFile _wal;
+	private final FileLock _lock;
+
+	//requests waiting for the writer, oldest first
+	private final ArrayDeque<Ticket> _pending = new ArrayDeque<Ticket>();
+	//requests of the batch being written
+	private int _inFlight = 0;
+	//every ticket still known, by number in the order taken
+	private final LinkedHashMap<Integer, Ticket> _tickets = new LinkedHashMap<Integer, Ticket>();
+	private final Map<String, Ticket> _byKey = new HashMap<String, Ticket>();
+	private Thread _writer = null;
+	private volatile boolean _closed = false;
+
+	private long _submitted = 0;
+	private long _replayed = 0;
+	private long _written = 0;
+	private long _rejected = 0;
+	private long _batches = 0;
+	private long _retries = 0;
+	private long _compactions = 0;
+	private String _lastError = null;
+
+	/**
+	 * Opens and locks the write-ahead file and queues the requests it holds
+	 * without an outcome.  The writer is not started.
+	 *
+	 * @param file the write-ahead file, created when missing
+	 * @param written called with each request once it is inserted
+	 */
+	public IntakeQueue(MechanicShop db, KeyAllocator keys, PartitionMaintainer partitions, String file,
+			Consumer<ServiceRequest> written) throws IOException {
+		this._db = db;
+		this._keys = keys;
+		this._partitions = partitions;
+		this._onWritten = written;
+		this._path = file;
+		this._wal = new RandomAccessFile(file, "rw");
+		FileLock lock;
+		try{
+			lock = _wal.getChannel().tryLock();
+		}catch(OverlappingFileLockException e){
+			//already open in this process
+			lock = null;
+		}
+		if(lock == null){
+			_wal.close();
+			throw new IOException("The intake file " + _path + " is already in use");
+		}
+		this._lock = lock;
+		replay();
+	}
+
+	//reads the file back: requests, then the outcomes recorded for them
+	private void replay() throws IOException {
+		byte[] bytes = new byte[(int) _wal.length()];
+		_wal.readFully(bytes);
+		String text = new String(bytes, StandardCharsets.UTF_8);
+		int end = text.lastIndexOf('\n') + 1;
+		//a torn last line was never acknowledged; it is cut off so appends start on a fresh line
+		if(end < text.length()) _wal.setLength(text.substring(0, end).getBytes(StandardCharsets.UTF_8).length);
+		_wal.seek(_wal.length());
+		for(String line : text.substring(0, end).split("\n")){
+			if(line.trim().isEmpty()) continue;
+			Map<String, Object> record;
+			try{
+				record = Json.parseObject(line);
+			}catch(RuntimeException e){
+				System.err.println("Skipping unreadable intake record: " + line);
+				continue;
+			}
+			String op = String.valueOf(record.get("op"));
+			int rid = ((Number) record.get("rid")).intValue();
+			if(op.equals("request")){
+				Ticket t = new Ticket(new ServiceRequest(rid, ((Number) record.get("customer_id")).intValue(), (String) record.get("car_vin"),
+					java.sql.Date.valueOf((String) record.get("date")), ((Number) record.get("odometer")).intValue(), (String) record.get("complain")),
+					(String) record.get("key"));
+				_tickets.put(rid, t);
+				if(t.key != null) _byKey.put(t.key, t);
+				continue;
+			}
+			Ticket t = _tickets.get(rid);
+			if(t == null) continue;
+			t._status = op.equals("written") ? Status.WRITTEN : Status.REJECTED;
+			t._reason = (String) record.get("reason");
+		}
+		for(Ticket t : _tickets.values()){
+			if(t._status == Status.PENDING){
+				_pending.add(t);
+				_replayed++;
+			}
+		}
+		forget();
+	}
+
+	/**
+	 * Method to accept a request.  It is checked, given its rid and made
+	 * durable before this returns; it is written to the database later.
+	 *
+	 * @param req the request; its rid is ignored and a missing date means today
+	 * @param idempotencyKey identifies the request across retries by the
+	 *                       caller, null for none
+	 * @return the ticket, the existing one when the key was seen before
+	 */
+	public Ticket submit(ServiceRequest req, String idempotencyKey) throws SQLException, IOException {
+		if(_closed) throw new IllegalStateException("The intake queue is closed");
+		String vin = Validators.vin(req.carVin);
+		Validators.odometer(req.odometer);
+		Validators.id(req.customerId, "Customer ID");
+		String key = idempotencyKey == null || idempotencyKey.trim().isEmpty() ? null : idempotencyKey.trim();
+		if(key != null){
+			synchronized(this){
+				Ticket known = _byKey.get(key);
+				if(known != null) return known;
+			}
+		}
+		java.sql.Date date = req.date != null ? req.date : new java.sql.Date(System.currentTimeMillis());
+		//reserved outside the lock, since a new block costs a round trip
+		int rid = _keys.next(KeyAllocator.Key.SERVICE_REQUEST);
+		Ticket t = new Ticket(new ServiceRequest(rid, req.customerId, vin, java.sql.Date.valueOf(date.toString()), req.odometer, req.complain), key);
+		Map<String, Object> record = new LinkedHashMap<String, Object>();
+		record.put("op", "request");
+		record.put("rid", rid);
+		record.put("customer_id", t.request.customerId);
+		record.put("car_vin", t.request.carVin);
+		record.put("date", t.request.date.toString());
+		record.put("odometer", t.request.odometer);
+		record.put("complain", t.request.complain);
+		record.put("key", key);
+		synchronized(this){
+			//the same key submitted twice at once: the second rid is left unused
+			Ticket known = key == null ? null : _byKey.get(key);
+			if(known != null) return known;
+			append(List.of(record));
+			_tickets.put(rid, t);
+			if(key != null) _byKey.put(key, t);
+			_pending.add(t);
+			_submitted++;
+			notifyAll();
+		}
+		return t;
+	}
+
+	//appends records to the file, one line each, forced to disk when configured
+	private void append(List<Map<String, Object>> records) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		for(Map<String, Object> record : records) sb.append(Json.write(record)).append('\n');
+		byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+		synchronized(_wal){
+			_wal.write(bytes);
+			if(ShopConfig.intakeSync()) _wal.getFD().sync();
+		}
+	}
+
+	/**
+	 * @return the ticket with the number, null when it is not known or was
+	 *         finished so long ago that it has been forgotten
+	 */
+	public synchronized Ticket ticket(int number){
+		return _tickets.get(number);
+	}
+
+	/**
+	 * @return requests taken and not written or rejected yet
+	 */
+	public synchronized int getPending(){
+		return _pending.size() + _inFlight;
+	}
+
+	/**
+	 * Method to start the daemon thread writing the queued requests.
+	 */
+	public synchronized void start(){
+		if(_writer != null || _closed) return;
+		_writer = new Thread(this::run, "intake-writer");
+		_writer.setDaemon(true);
+		_writer.start();
+	}
+
+	private void run(){
+		QueryMonitor.setOperation("Intake");
+		long backoff = 0;
+		try{
+			while(!_closed){
+				List<Ticket> batch = take();
+				if(batch.isEmpty()){
+					compact();
+					continue;
+				}
+				try{
+					write(batch);
+					backoff = 0;
+				}catch(SQLException e){
+					requeue(batch, e);
+					backoff = Math.min(Math.max(1, ShopConfig.intakeRetryMaxMillis()), backoff == 0 ? 100 : backoff * 2);
+					synchronized(this){
+						if(!_closed) wait(backoff);
+					}
+				}finally{
+					synchronized(this){
+						_inFlight = 0;
+					}
+				}
+			}
+		}catch(InterruptedException e){
+			//stopped; what is still pending is in the file
+		}
+	}
+
+	//the next batch: waits for a first request, then up to the flush interval for more
+	private synchronized List<Ticket> take() throws InterruptedException {
+		long flush = Math.max(1, ShopConfig.intakeFlushMillis());
+		if(_pending.isEmpty() && !_closed) wait(flush);
+		int size = Math.max(1, ShopConfig.intakeBatchSize());
+		long deadline = System.currentTimeMillis() + flush;
+		for(long left = flush; !_closed && !_pending.isEmpty() && _pending.size() < size && left > 0; left = deadline - System.currentTimeMillis())
+			wait(left);
+		List<Ticket> batch = new ArrayList<Ticket>(Math.min(size, _pending.size()));
+		while(batch.size() < size && !_pending.isEmpty()) batch.add(_pending.poll());
+		_inFlight = batch.size();
+		return batch;
+	}
+
+	//puts the unfinished requests of a failed batch back at the front, in order
+	private synchronized void requeue(List<Ticket> batch, SQLException e){
+		for(int i = batch.size() - 1; i >= 0; --i)
+			if(batch.get(i)._status == Status.PENDING) _pending.addFirst(batch.get(i));
+		_retries++;
+		_lastError = e.getMessage();
+	}
+
+	//lost connections, serialization failures, deadlocks, resource shortages and cancels pass
+	private static boolean isTransient(SQLException e){
+		String state = e.getSQLState();
+		return state == null || state.startsWith("08") || state.startsWith("40") || state.startsWith("53") || state.startsWith("57");
+	}
+
+	/**
+	 * Method to write one batch.  A missing month partition is created and
+	 * the batch tried again; any other permanent failure is narrowed down
+	 * by writing the requests one by one, so that only the faulty one is
+	 * rejected.  A transient failure is thrown for the caller to retry.
+	 */
+	private void write(List<Ticket> batch) throws SQLException {
+		List<Object> rids = new ArrayList<Object>(), customers = new ArrayList<Object>(), vins = new ArrayList<Object>();
+		List<Object> dates = new ArrayList<Object>(), odometers = new ArrayList<Object>(), complains = new ArrayList<Object>();
+		for(Ticket t : batch){
+			rids.add(t.request.rid);
+			customers.add(t.request.customerId);
+			vins.add(t.request.carVin);
+			dates.add(t.request.date);
+			odometers.add(t.request.odometer);
+			complains.add(t.request.complain);
+		}
+		List<List<String>> rows;
+		try{
+			rows = _db.executeQueryAndReturnResult(ShopQueries.INSERT_SERVICE_REQUEST_BATCH, MechanicShop.arrayLiteral(rids),
+				MechanicShop.arrayLiteral(customers), MechanicShop.arrayLiteral(vins), MechanicShop.arrayLiteral(dates),
+				MechanicShop.arrayLiteral(odometers), MechanicShop.arrayLiteral(complains));
+		}catch(SQLException e){
+			if(isTransient(e)) throw e;
+			if(ShopService.CHECK_VIOLATION.equals(e.getSQLState()) && ensureMonths(batch)){
+				write(batch);
+				return;
+			}
+			if(batch.size() == 1){
+				finish(batch, Map.of(batch.get(0).request.rid, e.getMessage()));
+				return;
+			}
+			for(Ticket t : batch) write(List.of(t));
+			return;
+		}
+		Map<Integer, String> rejected = new HashMap<Integer, String>();
+		List<Integer> inserted = new ArrayList<Integer>();
+		for(List<String> row : rows){
+			boolean owned = "t".equals(row.get(2));
+			if("t".equals(row.get(1))) inserted.add(Integer.valueOf(row.get(0)));
+			else if(!owned) rejected.put(Integer.valueOf(row.get(0)), "This customer doesn't own this car");
+		}
+		finish(batch, rejected);
+		//a request stored by an earlier attempt was reported then
+		if(_onWritten != null){
+			Map<Integer, ServiceRequest> byRid = new HashMap<Integer, ServiceRequest>();
+			for(Ticket t : batch) byRid.put(t.request.rid, t.request);
+			for(Integer rid : inserted) _onWritten.accept(byRid.get(rid));
+		}
+	}
+
+	//creates the partitions of the months of a batch, true when any was missing
+	private boolean ensureMonths(List<Ticket> batch) throws SQLException {
+		java.sql.Date first = batch.get(0).request.date, last = first;
+		for(Ticket t : batch){
+			if(t.request.date.before(first)) first = t.request.date;
+			if(t.request.date.after(last)) last = t.request.date;
+		}
+		return _partitions.ensure(first.toLocalDate(), last.toLocalDate());
+	}
+
+	//records the outcome of a written batch in the file, then on the tickets
+	private void finish(List<Ticket> batch, Map<Integer, String> rejected){
+		List<Map<String, Object>> records = new ArrayList<Map<String, Object>>(batch.size());
+		for(Ticket t : batch){
+			Map<String, Object> record = new LinkedHashMap<String, Object>();
+			String reason = rejected.get(t.request.rid);
+			record.put("op", reason == null ? "written" : "rejected");
+			record.put("rid", t.request.rid);
+			if(reason != null) record.put("reason", reason);
+			records.add(record);
+		}
+		try{
+			append(records);
+		}catch(IOException e){
+			//the requests are written again after a restart, which is harmless
+			synchronized(this){
+				_lastError = e.getMessage();
+			}
+		}
+		synchronized(this){
+			for(Ticket t : batch){
+				String reason = rejected.get(t.request.rid);
+				t._reason = reason;
+				t._status = reason == null ? Status.WRITTEN : Status.REJECTED;
+				if(reason == null) _written++;
+				else _rejected++;
+			}
+			_inFlight -= batch.size();
+			_batches++;
+			forget();
+		}
+	}
+
+	//drops the oldest finished tickets past ShopConfig.intakeRememberTickets()
+	private synchronized void forget(){
+		int excess = _tickets.size() - _pending.size() - _inFlight - Math.max(0, ShopConfig.intakeRememberTickets());
+		for(Iterator<Ticket> it = _tickets.values().iterator(); excess > 0 && it.hasNext(); ){
+			Ticket t = it.next();
+			if(t._status == Status.PENDING) continue;
+			it.remove();
+			if(t.key != null) _byKey.remove(t.key);
+			excess--;
+		}
+	}
+
+	//empties the file once nothing is pending in it and it has grown large
+	private synchronized void compact(){
+		try{
+			if(!_pending.isEmpty() || _inFlight > 0 || _wal.length() < ShopConfig.intakeCompactBytes()) return;
+			synchronized(_wal){
+				_wal.setLength(0);
+				_wal.getFD().sync();
+			}
+			_compactions++;
+		}catch(IOException e){
+			_lastError = e.getMessage();
+		}
+	}
+
+	public synchronized String getStatistics(){
+		return "intake: " + _submitted + " submitted, " + _replayed + " replayed, " + _written + " written, " + _rejected + " rejected, "
+			+ getPending() + " pending, " + _batches + " batch(es), " + _retries + " retr(ies), " + _compactions + " compaction(s)"
+			+ (_lastError == null ? "" : ", last error: " + _lastError);
+	}
+
+	/**
+	 * Method to stop the writer, waiting up to one flush interval for it to
+	 * finish the batch at hand, and release the file.  Requests still
+	 * pending are written after the next start.  The writer is woken rather
+	 * than interrupted, so a batch being recorded is not cut short.
+	 */
+	public void close(){
+		Thread writer;
+		synchronized(this){
+			_closed = true;
+			writer = _writer;
+			_writer = null;
+			notifyAll();
+		}
+		try{
+			if(writer != null) writer.join(Math.max(1, ShopConfig.intakeFlushMillis()));
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+		try{
+			_lock.release();
+			_wal.close();
+		}catch(IOException e){
+			//nothing left to do
+		}
+	}
+}//end IntakeQueue
@@ -0,0 +1,240 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class reads and writes the small subset of JSON the shop server
+ * speaks.  Objects become LinkedHashMaps, arrays become Lists, numbers
+ * become Longs (or Doubles when they have a fraction or exponent), and
+ * true, false and null map to Boolean and null.  Malformed input raises
+ * an IllegalArgumentException.
+ *
+ */
+public class Json{
+	private final String _text;
+	private int _pos = 0;
+
+	private Json(String text){
+		this._text = text;
+	}
+
+	/**
+	 * Method to parse one JSON value.
+	 *
+	 * @param text the document
+	 * @return the parsed value
+	 */
+	public static Object parse(String text){
+		Json p = new Json(text);
+		Object value = p.value();
+		p.skipSpace();
+		if(p._pos != text.length()) throw p.error("trailing characters");
+		return value;
+	}
+
+	/**
+	 * Method to parse a document that must be a JSON object.
+	 */
+	@SuppressWarnings("unchecked")
+	public static Map<String, Object> parseObject(String text){
+		Object value = parse(text);
+		if(!(value instanceof Map)) throw new IllegalArgumentException("Expected a JSON object");
+		return (Map<String, Object>) value;
+	}
+
+	private IllegalArgumentException error(String what){
+		return new IllegalArgumentException("Invalid JSON at offset " + _pos + ": " + what);
+	}
+
+	private void skipSpace(){
+		while(_pos < _text.length() && Character.isWhitespace(_text.charAt(_pos))) ++_pos;
+	}
+
+	private char peek(){
+		skipSpace();
+		if(_pos >= _text.length()) throw error("unexpected end of input");
+		return _text.charAt(_pos);
+	}
+
+	private void expect(char c){
+		if(peek() != c) throw error("expected '" + c + "'");
+		++_pos;
+	}
+
+	private boolean literal(String word){
+		if(_text.startsWith(word, _pos)){
+			_pos += word.length();
+			return true;
+		}
+		return false;
+	}
+
+	private Object value(){
+		char c = peek();
+		switch(c){
+			case '{': return object();
+			case '[': return array();
+			case '"': return string();
+			default:
+				if(literal("true")) return Boolean.TRUE;
+				if(literal("false")) return Boolean.FALSE;
+				if(literal("null")) return null;
+				if(c == '-' || Character.isDigit(c)) return number();
+				throw error("unexpected '" + c + "'");
+		}
+	}
+
+	private Map<String, Object> object(){
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		expect('{');
+		if(peek() == '}'){
+			++_pos;
+			return result;
+		}
+		do{
+			if(peek() != '"') throw error("expected a member name");
+			String key = string();
+			expect(':');
+			result.put(key, value());
+		}while(next('}'));
+		return result;
+	}
+
+	private List<Object> array(){
+		List<Object> result = new ArrayList<Object>();
+		expect('[');
+		if(peek() == ']'){
+			++_pos;
+			return result;
+		}
+		do{
+			result.add(value());
+		}while(next(']'));
+		return result;
+	}
+
+	//consumes a ',' (more to come) or the closing character (done)
+	private boolean next(char close){
+		char c = peek();
+		++_pos;
+		if(c == ',') return true;
+		if(c == close) return false;
+		throw error("expected ',' or '" + close + "'");
+	}
+
+	private String string(){
+		expect('"');
+		StringBuilder sb = new StringBuilder();
+		while(true){
+			if(_pos >= _text.length()) throw error("unterminated string");
+			char c = _text.charAt(_pos++);
+			if(c == '"') return sb.toString();
+			if(c != '\\'){
+				sb.append(c);
+				continue;
+			}
+			if(_pos >= _text.length()) throw error("unterminated escape");
+			char e = _text.charAt(_pos++);
+			switch(e){
+				case 'b': sb.append('\b'); break;
+				case 'f': sb.append('\f'); break;
+				case 'n': sb.append('\n'); break;
+				case 'r': sb.append('\r'); break;
+				case 't': sb.append('\t'); break;
+				case 'u':
+					if(_pos + 4 > _text.length()) throw error("short unicode escape");
+					try{
+						sb.append((char) Integer.parseInt(_text.substring(_pos, _pos + 4), 16));
+					}catch(NumberFormatException ex){
+						throw error("bad unicode escape");
+					}
+					_pos += 4;
+					break;
+				default: sb.append(e);
+			}
+		}
+	}
+
+	private Number number(){
+		int start = _pos;
+		if(_text.charAt(_pos) == '-') ++_pos;
+		boolean fraction = false;
+		while(_pos < _text.length()){
+			char c = _text.charAt(_pos);
+			if(Character.isDigit(c)) ++_pos;
+			else if(c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-'){
+				fraction = true;
+				++_pos;
+			}
+			else break;
+		}
+		String digits = _text.substring(start, _pos);
+		try{
+			return fraction ? (Number) Double.valueOf(digits) : (Number) Long.valueOf(digits);
+		}catch(NumberFormatException e){
+			throw error("bad number " + digits);
+		}
+	}
+
+	/**
+	 * Method to serialize a value built from Maps, Iterables, arrays of
+	 * strings, Strings, Numbers, Booleans and nulls.  Any other object is
+	 * written as its toString().
+	 */
+	public static String write(Object value){
+		StringBuilder sb = new StringBuilder();
+		write(sb, value);
+		return sb.toString();
+	}
+
+	public static void write(StringBuilder sb, Object value){
+		if(value == null){
+			sb.append("null");
+		}else if(value instanceof Number || value instanceof Boolean){
+			sb.append(value);
+		}else if(value instanceof Map){
+			sb.append('{');
+			boolean first = true;
+			for(Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet()){
+				if(!first) sb.append(',');
+				first = false;
+				quote(sb, String.valueOf(e.getKey()));
+				sb.append(':');
+				write(sb, e.getValue());
+			}
+			sb.append('}');
+		}else if(value instanceof Iterable){
+			sb.append('[');
+			boolean first = true;
+			for(Object item : (Iterable<?>) value){
+				if(!first) sb.append(',');
+				first = false;
+				write(sb, item);
+			}
+			sb.append(']');
+		}else if(value instanceof Object[]){
+			write(sb, java.util.Arrays.asList((Object[]) value));
+		}else{
+			quote(sb, value.toString());
+		}
+	}
+
+	static void quote(StringBuilder sb, String s){
+		sb.append('"');
+		for(int i = 0; i < s.length(); ++i){
+			char c = s.charAt(i);
+			switch(c){
+				case '"': sb.append("\\\""); break;
+				case '\\': sb.append("\\\\"); break;
+				case '\n': sb.append("\\n"); break;
+				case '\r': sb.append("\\r"); break;
+				case '\t': sb.append("\\t"); break;
+				default:
+					if(c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+					else sb.append(c);
+			}
+		}
+		sb.append('"');
+	}
+}//end Json
@@ -0,0 +1,105 @@
+import java.sql.SQLException;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class hands out surrogate keys from the sequences of
+ * sql/sequences.sql without a round trip per key.  Keys are reserved from
+ * the database a block at a time and then handed out locally, so a bulk
+ * or concurrent insert path pays one nextval round trip per block rather
+ * than per row.
+ *
+ * The block is drawn with nextval once per key in a single statement,
+ * which keeps the sequences at increment 1: rows inserted through the
+ * column defaults (psql, the service request statement) and keys handed
+ * out here never collide.  Keys reserved but not used before the program
+ * exits are simply skipped, as with any sequence.
+ *
+ */
+public class KeyAllocator{
+
+	/**
+	 * The surrogate keys, with the sequence behind each.
+	 */
+	public enum Key{
+		CUSTOMER("customer_id_seq"),
+		MECHANIC("mechanic_id_seq"),
+		OWNERSHIP("owns_ownership_id_seq"),
+		SERVICE_REQUEST("service_request_rid_seq"),
+		CLOSED_REQUEST("closed_request_wid_seq");
+
+		final String sequence;
+
+		Key(String sequence){
+			this.sequence = sequence;
+		}
+	}
+
+	//keys reserved from the database and not handed out yet
+	private static class Block{
+		int[] keys = new int[0];
+		int next = 0;
+	}
+
+	static final String RESERVE = "SELECT nextval(CAST(? AS regclass)) FROM generate_series(1, ?);";
+
+	private final MechanicShop _db;
+	private final int _blockSize;
+	private final Map<Key, Block> _blocks = new EnumMap<Key, Block>(Key.class);
+	private long _reservations = 0;
+	private long _allocated = 0;
+
+	public KeyAllocator(MechanicShop db){
+		this(db, ShopConfig.keyBlockSize());
+	}
+
+	/**
+	 * @param db the database the sequences live in
+	 * @param blockSize keys reserved per round trip
+	 */
+	public KeyAllocator(MechanicShop db, int blockSize){
+		if(blockSize <= 0) throw new IllegalArgumentException("Block size must be positive");
+		this._db = db;
+		this._blockSize = blockSize;
+		for(Key key : Key.values()) _blocks.put(key, new Block());
+	}
+
+	/**
+	 * Method to take the next key, reserving a new block when the current
+	 * one is used up.
+	 *
+	 * @param key which surrogate key
+	 * @return a key no other caller will be given
+	 * @throws java.sql.SQLException when a block cannot be reserved
+	 */
+	public int next(Key key) throws SQLException {
+		Block block = _blocks.get(key);
+		synchronized(block){
+			if(block.next == block.keys.length){
+				List<Integer> keys = _db.executeQueryAndMap(RESERVE, rs -> rs.getInt(1), key.sequence, _blockSize);
+				block.keys = new int[keys.size()];
+				for(int i = 0; i < block.keys.length; ++i) block.keys[i] = keys.get(i);
+				block.next = 0;
+				synchronized(this){
+					++_reservations;
+				}
+			}
+			synchronized(this){
+				++_allocated;
+			}
+			return block.keys[block.next++];
+		}
+	}
+
+	public int getBlockSize(){
+		return _blockSize;
+	}
+
+	/**
+	 * @return round trips made to reserve blocks and keys handed out
+	 */
+	public synchronized String getStatistics(){
+		return String.format("keys: %d allocated in %d block(s) of %d", _allocated, _reservations, _blockSize);
+	}
+}//end KeyAllocator
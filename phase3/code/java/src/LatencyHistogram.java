@@ -0,0 +1,102 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class records latencies in microseconds into log-linear buckets,
+ * in the style of an HDR histogram: values below 32 get a bucket each and
+ * every power of two above that is split into 16 equal buckets, so any
+ * recorded value is reported within about 6% of its true size.  Recording
+ * is lock free and may be done from any number of threads.
+ *
+ */
+public class LatencyHistogram{
+	//values below this are counted exactly
+	static final int LINEAR = 32;
+	//buckets per power of two above LINEAR
+	static final int SUB_BUCKETS = 16;
+	static final int SUB_BITS = 4;
+	static final int BUCKETS = LINEAR + (63 - 5) * SUB_BUCKETS;
+
+	private final AtomicLongArray _counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong _count = new AtomicLong();
+	private final AtomicLong _sum = new AtomicLong();
+	private final AtomicLong _max = new AtomicLong();
+
+	static int bucketOf(long micros){
+		if(micros < LINEAR) return (int) Math.max(0, micros);
+		int exp = 63 - Long.numberOfLeadingZeros(micros);
+		int sub = (int) (micros >>> (exp - SUB_BITS)) - SUB_BUCKETS;
+		return LINEAR + (exp - 5) * SUB_BUCKETS + sub;
+	}
+
+	//largest value that falls into the given bucket
+	static long upperBoundOf(int bucket){
+		if(bucket < LINEAR) return bucket;
+		int exp = (bucket - LINEAR) / SUB_BUCKETS + 5;
+		long sub = (bucket - LINEAR) % SUB_BUCKETS + SUB_BUCKETS;
+		return ((sub + 1) << (exp - SUB_BITS)) - 1;
+	}
+
+	/**
+	 * Method to record one latency.
+	 *
+	 * @param nanos the elapsed time in nanoseconds
+	 */
+	public void recordNanos(long nanos){
+		record(nanos / 1000);
+	}
+
+	/**
+	 * Method to record one value in microseconds.
+	 */
+	public void record(long micros){
+		_counts.incrementAndGet(bucketOf(micros));
+		_count.incrementAndGet();
+		_sum.addAndGet(micros);
+		_max.accumulateAndGet(micros, Math::max);
+	}
+
+	public long getCount(){
+		return _count.get();
+	}
+
+	public long getMaxMicros(){
+		return _max.get();
+	}
+
+	public long getTotalMicros(){
+		return _sum.get();
+	}
+
+	public double getMeanMicros(){
+		long n = _count.get();
+		return n == 0 ? 0 : (double) _sum.get() / n;
+	}
+
+	/**
+	 * Method to estimate a percentile of the recorded values.
+	 *
+	 * @param percentile between 0 and 100
+	 * @return the upper bound of the bucket holding the percentile, in microseconds
+	 */
+	public long getPercentileMicros(double percentile){
+		long n = _count.get();
+		if(n == 0) return 0;
+		long rank = Math.max(1, (long) Math.ceil(n * percentile / 100.0));
+		long seen = 0;
+		for(int i = 0; i < BUCKETS; ++i){
+			seen += _counts.get(i);
+			if(seen >= rank) return Math.min(upperBoundOf(i), _max.get());
+		}
+		return _max.get();
+	}
+
+	/**
+	 * @return count, mean and the usual percentiles, in milliseconds
+	 */
+	public String getSummary(){
+		return String.format("n=%d avg %.3f ms p50 %.3f ms p90 %.3f ms p99 %.3f ms p99.9 %.3f ms max %.3f ms",
+			getCount(), getMeanMicros() / 1e3, getPercentileMicros(50) / 1e3, getPercentileMicros(90) / 1e3,
+			getPercentileMicros(99) / 1e3, getPercentileMicros(99.9) / 1e3, getMaxMicros() / 1e3);
+	}
+}//end LatencyHistogram
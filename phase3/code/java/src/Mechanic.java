@@ -0,0 +1,31 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * A row of the Mechanic table.  The id may be null for a mechanic that has
+ * not been stored yet.
+ *
+ */
+public class Mechanic{
+	public final Integer id;
+	public final String fname;
+	public final String lname;
+	public final int experience;
+
+	public Mechanic(Integer id, String fname, String lname, int experience){
+		this.id = id;
+		this.fname = fname;
+		this.lname = lname;
+		this.experience = experience;
+	}
+
+	static Mechanic from(ResultSet rs) throws SQLException {
+		return new Mechanic(rs.getInt("id"), Customer.trim(rs.getString("fname")), Customer.trim(rs.getString("lname")),
+			rs.getInt("experience"));
+	}
+
+	@Override
+	public String toString(){
+		return id + "\t" + fname + "\t" + lname + "\t" + experience;
+	}
+}//end Mechanic
@@ -13,6 +13,7 @@
 
 import java.sql.DriverManager;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.Statement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
@@ -20,11 +21,11 @@ import java.sql.SQLException;
 import java.io.File;
 import java.io.FileReader;
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.SimpleDateFormat;
 
 /**
  * This class defines a simple embedded SQL utility class that is designed to
@@ -33,9 +34,44 @@ import java.util.SimpleDateFormat;
  */
 
 public class MechanicShop{
-	//reference to physical database connection
-	private Connection _connection = null;
+	//pool of physical database connections
+	private ConnectionPool _pool = null;
+	//how executeQueryAndPrintResult renders its rows
+	private ResultPrinter.Format _outputFormat = ResultPrinter.parseFormat(ShopConfig.outputFormat());
+	private int _rowLimit = ShopConfig.outputRowLimit();
+	private int _pageSize = ShopConfig.outputPageSize();
+	//renders every printed result; reset before each use
+	private final ResultPrinter _printer = new ResultPrinter(System.out, this._outputFormat, this._rowLimit, this._pageSize, in);
+	//whether the report menu options read the precomputed aggregates
+	private boolean _useAggregates = ShopConfig.reportsUseAggregates();
+	//whether total-bill and most-serviced-cars are answered by IncrementalReport
+	private boolean _useIncremental = ShopConfig.reportsIncremental();
+	//records every statement issued through the execute* helpers
+	private final QueryMonitor _monitor = new QueryMonitor();
+	//the non-interactive operations the menu is a client of
+	private final ShopService _service = new ShopService(this);
 	static BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+	//the main menu options, by number
+	static final String[] MENU = { null, "AddCustomer", "AddMechanic", "AddCar", "InsertServiceRequest", "CloseServiceRequest",
+		"ListCustomersWithBillLessThan100", "ListCustomersWithMoreThan20Cars", "ListCarsBefore1995With50000Milles",
+		"ListKCarsWithTheMostServices", "ListCustomersInDescendingOrderOfTheirTotalBill" };
+	//statement timeout in seconds for the calling thread, 0 for none
+	private static final ThreadLocal<Integer> QUERY_TIMEOUT = ThreadLocal.withInitial(() -> 0);
+
+	/**
+	 * A unit of work run on a connection borrowed from the pool.
+	 */
+	interface ConnectionWork<T>{
+		T run(ConnectionPool.PooledConnection conn) throws SQLException;
+	}
+
+	/**
+	 * A unit of work that issues one statement on a borrowed connection
+	 * and counts the rows it reads into the execution record.
+	 */
+	interface StatementWork<T>{
+		T run(ConnectionPool.PooledConnection conn, QueryMonitor.Execution exec) throws SQLException;
+	}
 	
 	public MechanicShop(String dbname, String dbport, String user, String passwd) throws SQLException {
 		System.out.print("Connecting to database...");
@@ -44,8 +80,19 @@ public class MechanicShop{
 			String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
 			System.out.println ("Connection URL: " + url + "\n");
 			
-			// obtain a physical connection
-	        this._connection = DriverManager.getConnection(url, user, passwd);
+			// opens the pool and checks that a physical connection can be made
+	        this._pool = new ConnectionPool(url, user, passwd);
+	        this._pool.release(this._pool.borrow());
+	        if (ShopConfig.cacheListen())
+	        	this._service.getCache().listen(this._pool, ShopConfig.cacheListenPollMillis());
+	        this._monitor.startExporter();
+	        this._service.getPartitions().start(ShopConfig.partitionsMaintainIntervalMillis());
+	        if (ShopConfig.intakeEnabled())
+	        	this._service.startIntake();
+	        if (ShopConfig.topCarsEnabled())
+	        	this._service.startTopCars();
+	        if (ShopConfig.snapshotEnabled())
+	        	this._service.startSnapshot();
 	        System.out.println("Done");
 		}catch(Exception e){
 			System.err.println("Error - Unable to Connect to Database: " + e.getMessage());
@@ -53,23 +100,99 @@ public class MechanicShop{
 	        System.exit(-1);
 		}
 	}
+
+	/**
+	 * Method to run a unit of work on a pooled connection.  The connection
+	 * is always handed back to the pool, and is flagged as broken when the
+	 * work fails because the link to the server was lost.
+	 *
+	 * @param work the work to run
+	 * @return the result of the work
+	 * @throws java.sql.SQLException when the work failed
+	 */
+	<T> T withConnection (ConnectionWork<T> work) throws SQLException {
+		ConnectionPool.PooledConnection conn = this._pool.borrow();
+		try{
+			return work.run(conn);
+		}catch(SQLException e){
+			ConnectionPool.checkBroken(conn, e);
+			throw e;
+		}finally{
+			this._pool.release(conn);
+		}
+	}
+
+	/**
+	 * Method to run one statement on a pooled connection and record it with
+	 * the QueryMonitor: its wall time, the rows the work counted and the
+	 * operation of the calling thread.
+	 *
+	 * @param sql the statement, as the monitor reports it
+	 * @param params its bind values, logged when it is slow
+	 * @param work issues the statement
+	 * @return the result of the work
+	 * @throws java.sql.SQLException when the work failed
+	 */
+	<T> T withStatement (String sql, Object[] params, StatementWork<T> work) throws SQLException {
+		return withConnection(conn -> {
+			QueryMonitor.Execution exec = this._monitor.start(sql, params);
+			try{
+				T result = work.run(conn, exec);
+				this._monitor.finish(exec, conn.getConnection());
+				return result;
+			}catch(SQLException | RuntimeException e){
+				//a mapper or printer failing counts as a failed statement too
+				this._monitor.fail(exec, e);
+				throw e;
+			}
+		});
+	}
+
+	/**
+	 * Method to limit how long statements issued by the calling thread may
+	 * run before the server is asked to cancel them.
+	 *
+	 * @param seconds the limit, 0 for none
+	 */
+	static void setQueryTimeout(int seconds){
+		QUERY_TIMEOUT.set(Math.max(0, seconds));
+	}
+
+	/**
+	 * Method to fetch the cached prepared statement for a SQL string and
+	 * bind the given parameters to its '?' placeholders in order.
+	 *
+	 * @param conn the pooled connection to prepare the statement on
+	 * @param sql the SQL string with '?' placeholders
+	 * @param params the values bound to the placeholders
+	 * @return the bound prepared statement
+	 * @throws java.sql.SQLException when the statement cannot be prepared
+	 */
+	static PreparedStatement prepare (ConnectionPool.PooledConnection conn, String sql, Object... params) throws SQLException {
+		PreparedStatement stmt = conn.getStatements().prepare(sql);
+		//cached statements keep the last timeout, so it is set on every use
+		stmt.setQueryTimeout(QUERY_TIMEOUT.get());
+		for (int i = 0; i < params.length; ++i)
+			stmt.setObject(i + 1, params[i]);
+		return stmt;
+	}
 	
 	/**
 	 * Method to execute an update SQL statement.  Update SQL instructions
 	 * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
 	 * 
-	 * @param sql the input SQL string
+	 * @param sql the input SQL string with '?' placeholders
+	 * @param params the values bound to the placeholders
+	 * @return the number of rows affected
 	 * @throws java.sql.SQLException when update failed
 	 * */
-	public void executeUpdate (String sql) throws SQLException { 
-		// creates a statement object
-		Statement stmt = this._connection.createStatement ();
-
-		// issues the update instruction
-		stmt.executeUpdate (sql);
-
-		// close the instruction
-	    stmt.close ();
+	public int executeUpdate (String sql, Object... params) throws SQLException { 
+		// fetches the cached statement and issues the update instruction
+		return withStatement(sql, params, (conn, exec) -> {
+			int rowCount = prepare(conn, sql, params).executeUpdate ();
+			exec.rows(rowCount);
+			return rowCount;
+		});
 	}//end executeUpdate
 
 	/**
@@ -77,110 +200,329 @@ public class MechanicShop{
 	 * method issues the query to the DBMS and outputs the results to
 	 * standard out.
 	 * 
-	 * @param query the input query string
+	 * @param query the input query string with '?' placeholders
+	 * @param params the values bound to the placeholders
 	 * @return the number of rows returned
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
-	public int executeQueryAndPrintResult (String query) throws SQLException {
-		//creates a statement object
-		Statement stmt = this._connection.createStatement ();
-
-		//issues the query instruction
-		ResultSet rs = stmt.executeQuery (query);
-
-		/*
-		 *  obtains the metadata object for the returned result set.  The metadata
-		 *  contains row and column info.
-		 */
-		ResultSetMetaData rsmd = rs.getMetaData ();
-		int numCol = rsmd.getColumnCount ();
-		int rowCount = 0;
-		
-		//iterates through the result set and output them to standard out.
-		boolean outputHeader = true;
-		while (rs.next()){
-			if(outputHeader){
-				for(int i = 1; i <= numCol; i++){
-					System.out.print(rsmd.getColumnName(i) + "\t");
-			    }
-			    System.out.println();
-			    outputHeader = false;
+	public int executeQueryAndPrintResult (String query, Object... params) throws SQLException {
+		synchronized (this._printer){
+			ResultPrinter printer = this._printer;
+			printer.reset(this._outputFormat, this._rowLimit, this._pageSize);
+			if (!printer.isPaged()) return streamAndPrint(printer, query, params);
+			//reads the rows first so no connection is held while the pager waits on the user
+			List<String> columns = new ArrayList<String>();
+			List<List<String>> rows = new ArrayList<List<String>>();
+			boolean truncated = withStatement(query, params, (conn, exec) -> {
+				ResultSet rs = prepare(conn, query, params).executeQuery ();
+				try{
+					boolean more = printer.read(rs, columns, rows);
+					exec.rows(rows.size());
+					exec.bytes += printer.getCharactersRead();
+					return more;
+				}finally{
+					rs.close ();
+				}
+			});
+			return printer.printPages(columns, rows, truncated);
+		}
+	}
+
+	//prints the rows as they arrive, without pausing
+	private int streamAndPrint (ResultPrinter printer, String query, Object... params) throws SQLException {
+		return withStatement(query, params, (conn, exec) -> {
+			//streams the rows through a cursor so large reports are not buffered in memory
+			Connection c = conn.getConnection();
+			c.setAutoCommit(false);
+			PreparedStatement stmt = prepare(conn, query, params);
+			stmt.setFetchSize(ShopConfig.streamFetchSize());
+			try{
+				//issues the query instruction and renders the rows
+				ResultSet rs = stmt.executeQuery ();
+				int rowCount = printer.print(rs);
+				exec.rows(rowCount);
+				exec.bytes += printer.getCharactersRead();
+				rs.close ();
+				c.commit();
+				return rowCount;
+			}finally{
+				stmt.setFetchSize(0);
 			}
-			for (int i=1; i<=numCol; ++i)
-				System.out.print (rs.getString (i) + "\t");
-			System.out.println ();
-			++rowCount;
-		}//end while
-		stmt.close ();
-		return rowCount;
+		});
 	}
 	
+	/**
+	 * Method to print a report one page at a time, asking before each
+	 * following page.  Every page is its own short query that seeks past
+	 * the last row shown, so the first rows appear as soon as the first
+	 * page is read.
+	 *
+	 * @param report which report
+	 * @param limit the most rows to print, 0 for all; the K of MOST_SERVICED_CARS
+	 * @return the number of rows printed
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public int executeReportAndPrintResult (ReportQueries.Report report, int limit) throws SQLException {
+		return executeReportAndPrintResult(report, DateWindow.ALL, limit);
+	}
+
+	/**
+	 * Method to print a report over the service requests made within a
+	 * date window one page at a time.
+	 *
+	 * @param window the days of the requests counted
+	 */
+	public int executeReportAndPrintResult (ReportQueries.Report report, DateWindow window, int limit) throws SQLException {
+		if (this._rowLimit > 0 && (limit == 0 || this._rowLimit < limit)) limit = this._rowLimit;
+		int pageSize = this._pageSize > 0 ? Math.min(this._pageSize, ShopConfig.reportMaxPageSize()) : ShopConfig.reportPageSize();
+		synchronized (this._printer){
+			ResultPrinter printer = this._printer;
+			printer.reset(this._outputFormat, 0, 0);
+			int rowCount = 0;
+			String after = null;
+			do{
+				ReportPage page = this._service.reportPage(report, window, limit, after, pageSize);
+				rowCount += printer.print(page.columns, page.rows, after == null);
+				after = page.next;
+			}while (after != null && printer.askNextPage());
+			return rowCount;
+		}
+	}
+
 	/**
 	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
 	 * method issues the query to the DBMS and returns the results as
 	 * a list of records. Each record in turn is a list of attribute values
 	 * 
-	 * @param query the input query string
+	 * @param query the input query string with '?' placeholders
+	 * @param params the values bound to the placeholders
 	 * @return the query result as a list of records
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
-	public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException { 
-		//creates a statement object 
-		Statement stmt = this._connection.createStatement (); 
-		
-		//issues the query instruction 
-		ResultSet rs = stmt.executeQuery (query); 
-	 
-		/*
-		 * obtains the metadata object for the returned result set.  The metadata 
-		 * contains row and column info. 
-		*/ 
-		ResultSetMetaData rsmd = rs.getMetaData (); 
-		int numCol = rsmd.getColumnCount (); 
-		int rowCount = 0; 
-	 
-		//iterates through the result set and saves the data returned by the query. 
-		boolean outputHeader = false;
-		List<List<String>> result  = new ArrayList<List<String>>(); 
-		while (rs.next()){
-			List<String> record = new ArrayList<String>(); 
-			for (int i=1; i<=numCol; ++i) 
-				record.add(rs.getString (i)); 
-			result.add(record); 
-		}//end while 
-		stmt.close (); 
-		return result; 
+	public List<List<String>> executeQueryAndReturnResult (String query, Object... params) throws SQLException { 
+		return withStatement(query, params, (conn, exec) -> {
+			//issues the query instruction 
+			ResultSet rs = prepare(conn, query, params).executeQuery (); 
+		 
+			/*
+			 * obtains the metadata object for the returned result set.  The metadata 
+			 * contains row and column info. 
+			*/ 
+			ResultSetMetaData rsmd = rs.getMetaData (); 
+			int numCol = rsmd.getColumnCount (); 
+		 
+			//iterates through the result set and saves the data returned by the query. 
+			List<List<String>> result  = new ArrayList<List<String>>(); 
+			while (rs.next()){
+				List<String> record = new ArrayList<String>(); 
+				for (int i=1; i<=numCol; ++i) 
+					record.add(rs.getString (i)); 
+				exec.row(record);
+				result.add(record); 
+			}//end while 
+			rs.close (); 
+			return result; 
+		});
 	}//end executeQueryAndReturnResult
+
+	/**
+	 * Converts the current row of a result set into an object.
+	 */
+	interface RowMapper<T>{
+		T map(ResultSet rs) throws SQLException;
+	}
+
+	/**
+	 * Method to execute an input query SQL instruction (i.e. SELECT, or a
+	 * DML statement with RETURNING) and convert every returned row with the
+	 * given mapper.
+	 *
+	 * @param query the input query string with '?' placeholders
+	 * @param mapper converts one row into an object
+	 * @param params the values bound to the placeholders
+	 * @return the converted rows
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public <T> List<T> executeQueryAndMap (String query, RowMapper<T> mapper, Object... params) throws SQLException {
+		return withStatement(query, params, (conn, exec) -> {
+			ResultSet rs = prepare(conn, query, params).executeQuery ();
+			int numCol = rs.getMetaData().getColumnCount();
+			List<T> result = new ArrayList<T>();
+			while (rs.next()){
+				exec.row(rs, numCol);
+				result.add(mapper.map(rs));
+			}//end while
+			rs.close ();
+			return result;
+		});
+	}
+
+	/**
+	 * A callback that receives each row of a streamed query.  The result set
+	 * is positioned on the current row and must not be advanced or retained.
+	 */
+	interface RowHandler{
+		void handle(ResultSet rs) throws SQLException;
+	}
+
+	/**
+	 * Method to execute an input query SQL instruction (i.e. SELECT) through
+	 * a server-side cursor and hand every row to a callback.  Autocommit is
+	 * switched off for the duration of the query so that the driver fetches
+	 * the rows fetchSize at a time, keeping memory use independent of the
+	 * size of the result.
+	 *
+	 * @param query the input query string with '?' placeholders
+	 * @param fetchSize the number of rows fetched per round trip
+	 * @param handler the callback invoked once per row
+	 * @param params the values bound to the placeholders
+	 * @return the number of rows returned
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public int executeQueryAndStream (String query, int fetchSize, RowHandler handler, Object... params) throws SQLException {
+		return withStatement(query, params, (conn, exec) -> {
+			Connection c = conn.getConnection();
+			c.setAutoCommit(false);
+			PreparedStatement stmt = prepare(conn, query, params);
+			stmt.setFetchSize(fetchSize);
+			try{
+				ResultSet rs = stmt.executeQuery ();
+				int numCol = rs.getMetaData().getColumnCount();
+				int rowCount = 0;
+				while (rs.next()){
+					exec.row(rs, numCol);
+					handler.handle(rs);
+					++rowCount;
+				}//end while
+				rs.close ();
+				c.commit();
+				return rowCount;
+			}finally{
+				//the statement stays cached, so it goes back to the default fetch size
+				stmt.setFetchSize(0);
+			}
+		});
+	}
+
+	/**
+	 * Method to stream a query with the configured default fetch size.
+	 *
+	 * @see #executeQueryAndStream(String, int, RowHandler, Object...)
+	 */
+	public int executeQueryAndStream (String query, RowHandler handler, Object... params) throws SQLException {
+		return executeQueryAndStream(query, ShopConfig.streamFetchSize(), handler, params);
+	}
 	
 	/**
-	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
-	 * method issues the query to the DBMS and returns the number of results
+	 * Method to execute an input query SQL instruction (i.e. SELECT) and
+	 * tell whether it returned anything.  The server is asked for one row
+	 * at most, so the rest of the result is never sent.  Prefer exists
+	 * for existence checks and count for the number of rows.
 	 * 
-	 * @param query the input query string
-	 * @return the number of rows returned
+	 * @param query the input query string with '?' placeholders
+	 * @param params the values bound to the placeholders
+	 * @return 1 when the query returned a row, 0 otherwise
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
-	public int executeQuery (String query) throws SQLException {
-		//creates a statement object
-		Statement stmt = this._connection.createStatement ();
+	public int executeQuery (String query, Object... params) throws SQLException {
+		return withStatement(query, params, (conn, exec) -> {
+			PreparedStatement stmt = prepare(conn, query, params);
+			stmt.setMaxRows(1);
+			try{
+				//issues the query instruction
+				ResultSet rs = stmt.executeQuery ();
+				int rowCount = rs.next() ? 1 : 0;
+				exec.rows(rowCount);
+				rs.close ();
+				return rowCount;
+			}finally{
+				//the statement stays cached, so it goes back to returning every row
+				stmt.setMaxRows(0);
+			}
+		});
+	}
 
-		//issues the query instruction
-		ResultSet rs = stmt.executeQuery (query);
+	/**
+	 * Method to check whether a query returns any row.  The query is
+	 * wrapped in SELECT EXISTS (...), so the server stops at the first
+	 * matching row and sends back a single boolean.
+	 *
+	 * @param query the input query string with '?' placeholders, e.g. "SELECT * FROM Customer WHERE id = ?"
+	 * @param params the values bound to the placeholders
+	 * @return whether the query has a row
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public boolean exists (String query, Object... params) throws SQLException {
+		String sql = "SELECT EXISTS (" + subquery(query) + ")";
+		return withStatement(sql, params, (conn, exec) -> {
+			ResultSet rs = prepare(conn, sql, params).executeQuery ();
+			try{
+				rs.next();
+				exec.rows(1);
+				return rs.getBoolean(1);
+			}finally{
+				rs.close ();
+			}
+		});
+	}
 
-		int rowCount = 0;
+	/**
+	 * Method to count the rows of a query on the server.  The query is
+	 * wrapped in SELECT COUNT(*) FROM (...), so only the count is sent back.
+	 *
+	 * @param query the input query string with '?' placeholders
+	 * @param params the values bound to the placeholders
+	 * @return the number of rows the query returns
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public long count (String query, Object... params) throws SQLException {
+		String sql = "SELECT COUNT(*) FROM (" + subquery(query) + ") AS counted";
+		return withStatement(sql, params, (conn, exec) -> {
+			ResultSet rs = prepare(conn, sql, params).executeQuery ();
+			try{
+				rs.next();
+				exec.rows(1);
+				return rs.getLong(1);
+			}finally{
+				rs.close ();
+			}
+		});
+	}
+
+	//a Postgres array literal of the values, bound as text and cast to the array type
+	static String arrayLiteral(Iterable<?> values){
+		StringBuilder sb = new StringBuilder("{");
+		for (Object v : values){
+			if (sb.length() > 1) sb.append(',');
+			if (v == null){
+				sb.append("NULL");
+				continue;
+			}
+			sb.append('"');
+			String s = v.toString();
+			for (int i = 0; i < s.length(); ++i){
+				char ch = s.charAt(i);
+				if (ch == '"' || ch == '\\') sb.append('\\');
+				sb.append(ch);
+			}
+			sb.append('"');
+		}
+		return sb.append('}').toString();
+	}
 
-		//iterates through the result set and count nuber of results.
-		if(rs.next()){
-			rowCount++;
-		}//end while
-		stmt.close ();
-		return rowCount;
+	//the query without its terminating semicolon, so that it can be nested
+	static String subquery(String query){
+		String sql = query.trim();
+		while (sql.endsWith(";")) sql = sql.substring(0, sql.length() - 1).trim();
+		return sql;
 	}
 	
 	/**
 	 * Method to fetch the last value from sequence. This
 	 * method issues the query to the DBMS and returns the current 
-	 * value of sequence used for autogenerated keys
+	 * value of sequence used for autogenerated keys.  currval is scoped to
+	 * a database session, so with pooled connections it is only meaningful
+	 * on the connection that called nextval.
 	 * 
 	 * @param sequence name of the DB sequence
 	 * @return current value of a sequence
@@ -188,24 +530,114 @@ public class MechanicShop{
 	 */
 	
 	public int getCurrSeqVal(String sequence) throws SQLException {
-		Statement stmt = this._connection.createStatement ();
-		
-		ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
-		if (rs.next()) return rs.getInt(1);
-		return -1;
+		String query = "SELECT currval(CAST(? AS regclass))";
+		return withStatement(query, new Object[]{ sequence }, (conn, exec) -> {
+			ResultSet rs = prepare(conn, query, sequence).executeQuery ();
+			try{
+				if (rs.next()){
+					exec.row(rs, 1);
+					return rs.getInt(1);
+				}
+				return -1;
+			}finally{
+				rs.close ();
+			}
+		});
+	}
+
+	/**
+	 * Method to change how executeQueryAndPrintResult renders its rows.
+	 *
+	 * @param format aligned table, tab separated or comma separated output
+	 * @param rowLimit the maximum number of rows printed, 0 for no limit
+	 * @param pageSize the number of rows per page, 0 to print without pausing
+	 */
+	public void setOutputOptions(ResultPrinter.Format format, int rowLimit, int pageSize){
+		this._outputFormat = format;
+		this._rowLimit = rowLimit;
+		this._pageSize = pageSize;
+	}
+
+	/**
+	 * Method to switch the report menu options between recomputing from the
+	 * base tables and reading the aggregates of sql/reporting.sql.
+	 *
+	 * @param useAggregates true to read the precomputed aggregates
+	 */
+	public void setUseAggregates(boolean useAggregates){
+		this._useAggregates = useAggregates;
+	}
+
+	public boolean getUseAggregates(){
+		return this._useAggregates;
+	}
+
+	/**
+	 * @param useIncremental true to answer the total-bill and
+	 *                       most-serviced-cars reports from aggregates
+	 *                       kept in memory and refreshed by their delta
+	 */
+	public void setUseIncremental(boolean useIncremental){
+		this._useIncremental = useIncremental;
+	}
+
+	public boolean getUseIncremental(){
+		return this._useIncremental;
+	}
+
+	/**
+	 * @return the shop operations running on this client
+	 */
+	public ShopService service(){
+		return this._service;
 	}
 
 	/**
-	 * Method to close the physical connection if it is open.
+	 * @return the statistics of the statements issued by this client
+	 */
+	public QueryMonitor getMonitor(){
+		return this._monitor;
+	}
+
+	/**
+	 * @return the connection pool backing this client
+	 */
+	public ConnectionPool getPool(){
+		return this._pool;
+	}
+
+	/**
+	 * @return number of statements served from the prepared statement cache
+	 */
+	public long getStatementCacheHits(){
+		return this._pool == null ? 0 : this._pool.getStatementCacheHits();
+	}
+
+	/**
+	 * @return number of statements that had to be parsed and prepared
+	 */
+	public long getStatementCacheMisses(){
+		return this._pool == null ? 0 : this._pool.getStatementCacheMisses();
+	}
+
+	/**
+	 * Method to stop the intake writer, the top cars summary, the report
+	 * snapshot, the cache listener and the partition maintainer and close
+	 * the pooled connections if they are open.
 	 */
 	public void cleanup(){
-		try{
-			if (this._connection != null){
-				this._connection.close ();
-			}//end if
-		}catch (SQLException e){
-	         // ignored.
-		}//end try
+		if (this._service.getIntake() != null)
+			this._service.getIntake().close();
+		if (this._service.getTopCars() != null)
+			this._service.getTopCars().close();
+		if (this._service.getSnapshot() != null)
+			this._service.getSnapshot().close();
+		this._service.getCache().close();
+		this._service.getPartitions().close();
+		this._monitor.close();
+		if (this._pool != null){
+			this._pool.close ();
+		}//end if
 	}//end cleanup
 
 	/**
@@ -246,22 +678,17 @@ public class MechanicShop{
 			while(keepon){
 				System.out.println("MAIN MENU");
 				System.out.println("---------");
-				System.out.println("1. AddCustomer");
-				System.out.println("2. AddMechanic");
-				System.out.println("3. AddCar");
-				System.out.println("4. InsertServiceRequest");
-				System.out.println("5. CloseServiceRequest");
-				System.out.println("6. ListCustomersWithBillLessThan100");
-				System.out.println("7. ListCustomersWithMoreThan20Cars");
-				System.out.println("8. ListCarsBefore1995With50000Milles");
-				System.out.println("9. ListKCarsWithTheMostServices");
-				System.out.println("10. ListCustomersInDescendingOrderOfTheirTotalBill");
-				System.out.println("11. < EXIT");
+				for (int i = 1; i < MENU.length; ++i)
+					System.out.println(i + ". " + MENU[i]);
+				System.out.println(MENU.length + ". < EXIT");
 				
 				/*
 				 * FOLLOW THE SPECIFICATION IN THE PROJECT DESCRIPTION
 				 */
-				switch (readChoice()){
+				int choice = readChoice();
+				//the statements of each menu option are recorded under its name
+				QueryMonitor.setOperation(choice >= 1 && choice < MENU.length ? MENU[choice] : null);
+				switch (choice){
 					case 1: AddCustomer(esql); break;
 					case 2: AddMechanic(esql); break;
 					case 3: AddCar(esql); break;
@@ -280,6 +707,17 @@ public class MechanicShop{
 		}finally{
 			try{
 				if(esql != null) {
+					System.out.println("Statement cache: " + esql.getStatementCacheHits() + " hit(s), " + esql.getStatementCacheMisses() + " miss(es)");
+					System.out.println(esql.service().getCache().getStatistics());
+					System.out.println(esql.service().getIncrementalStatistics());
+					if (esql.service().getIntake() != null)
+						System.out.println(esql.service().getIntake().getStatistics());
+					if (esql.service().getTopCars() != null)
+						System.out.println(esql.service().getTopCars().getStatistics());
+					if (esql.service().getSnapshot() != null)
+						System.out.println(esql.service().getSnapshot().getStatistics());
+					System.out.println(esql.getMonitor().getStatistics());
+					System.out.println(esql.getPool().getStatistics());
 					System.out.print("Disconnecting from database...");
 					esql.cleanup ();
 					System.out.println("Done\n\nBye !");
@@ -306,16 +744,14 @@ public class MechanicShop{
 		return input;
 	}//end readChoice
 	
-	public static void AddCustomer(MechanicShop esql){//1
+	public static Customer AddCustomer(MechanicShop esql){//1
 		String first_name;
 
 		do {    
         		System.out.print("Enter First name: ");
        		 	try {   
-                		first_name = in.readLine(); 
-                		if(first_name.length() <= 0 || first_name.length() > 32) {
-                			throw new RuntimeException("First name cannot be null or exceed 32 characters");
-        			}break;
+                		first_name = Validators.firstName(in.readLine());
+        			break;
         
         		}catch (Exception e) {
         			System.out.println (e);
@@ -328,10 +764,8 @@ public class MechanicShop{
 		do {    
         		System.out.print("Enter Last name: ");
         		try {   
-                		last_name = in.readLine(); 
-                		if(last_name.length() <= 0 || last_name.length() > 32) {
-                			throw new RuntimeException("Last name cannot be null or exceed 32 characters");
-        			}break;
+                		last_name = Validators.lastName(in.readLine());
+        			break;
         
         		}catch (Exception e) {
         			System.out.println(e);
@@ -339,29 +773,13 @@ public class MechanicShop{
         		}
 		}while (true);
 
-		int ID;
-
-        	do {
-                	System.out.print("Enter Customer ID: ");
-        		try {
-                		ID = Integer.parseInt(in.readLine());
-                		if(ID <= 0) throw new RuntimeException("Customer ID cannot be null");
-        			break;
-        		}catch (Exception e) {
-                		System.out.println(e);
-                		continue;
-        		}
-		}while (true);
-
 		String phone_num;
 
 		do {    
         		System.out.print("Enter Phone number: ");
         		try {   
-                		phone_num = in.readLine(); 
-                		if(phone_num.length() <= 0 || phone_num.length() > 13) {
-                			throw new RuntimeException("Phone number cannot be null or exceed 13 characters");
-        			}break;
+                		phone_num = Validators.phone(in.readLine());
+        			break;
         
         		}catch (Exception e) {
         			System.out.println(e);
@@ -374,11 +792,7 @@ public class MechanicShop{
 		do {
         		System.out.print("Enter Address: ");
         		try {
-                		address = in.readLine();
-                		if(address.length() <= 0 || address.length() > 256) {
-                			throw new RuntimeException("Last name cannot be null or exceed 256 characters");
-
-        			}
+                		address = Validators.address(in.readLine());
 				break;
         		}catch (Exception e) {
         			System.out.println(e);
@@ -387,45 +801,27 @@ public class MechanicShop{
 		}while (true);
 
 		try {
-      			String query = "INSERT INTO Customer (id, fname, lname, phone, address) VALUES (" + ID + ", \'" + first_name + "\', \'" + last_name + "\',  \'" + phone_num  + "\',  \'" + address + "\' );";
-
-                        esql.executeUpdate(query);
+			//the customer ID is assigned from customer_id_seq
+			Customer added = esql.service().addCustomer(new Customer(null, first_name, last_name, phone_num, address));
 			System.out.println("---------------------------------------------------------");
 			System.out.println("New customer added.");
-			query = "SELECT * FROM Customer WHERE id ='";
-			query += ID + "';";
-			esql.executeQueryAndPrintResult(query);
+			System.out.println(added);
 			System.out.println("---------------------------------------------------------");
+			return added;
                 }catch (Exception e) {
                         System.err.println (e.getMessage());
+                        return null;
                 }
 	}
 	
 	public static void AddMechanic(MechanicShop esql){//2
-		int ID;
-
-	        do {
-                	System.out.print("Enter Employee ID: ");
-                	try {
-                        	ID = Integer.parseInt(in.readLine());
-                        	if(ID <= 0) throw new RuntimeException("Employee ID cannot be null");
-                        	break;
-                	}catch (Exception e) {
-                        	System.out.println(e);
-                        	continue;
-                	}
-        	}while (true);
-
-
         	String first_name;
 
         	do {
                 	System.out.print("Enter First name: ");
                 	try {
-                        	first_name = in.readLine();
-                        	if(first_name.length() <= 0 || first_name.length() > 32) {
-                                	throw new RuntimeException("First name cannot be null or exceed 32 characters");
-                        	}break;
+                        	first_name = Validators.firstName(in.readLine());
+                        	break;
 
                 	}catch (Exception e) {
                         	System.out.println (e);
@@ -438,10 +834,8 @@ public class MechanicShop{
         	do {
                 	System.out.print("Enter Last name: ");
                 	try {
-                        	last_name = in.readLine();
-                        	if(last_name.length() <= 0 || last_name.length() > 32) {
-                        		throw new RuntimeException("Last name cannot be null or exceed 32 characters");
-                		}break;
+                        	last_name = Validators.lastName(in.readLine());
+                		break;
 
                 	}catch (Exception e) {
                         	System.out.println(e);
@@ -455,8 +849,7 @@ public class MechanicShop{
                 	System.out.print("Enter employee's experience(number of years): ");
                 	try{
             
-                        	experience = Integer.parseInt(in.readLine());
-                        	if(experience < 0 || experience >= 100) throw new RuntimeException("Employee's experience cannot be null or exceed 100 years");
+                        	experience = Validators.experience(Integer.parseInt(in.readLine()));
                         	break;
                 	}catch (Exception e) {
                         	System.out.println(e);
@@ -464,30 +857,24 @@ public class MechanicShop{
                 	}               
         	}while (true);          
                         
-        	try {                   
-                	String query = "INSERT INTO Mechanic (id, fname, lname, experience) VALUES (" + ID + ", \'" + first_name + "\', \'" + last_name + "\',  " + experience  + " );";
-                        
-                        esql.executeUpdate(query);
+        	try {
+			//the employee ID is assigned from mechanic_id_seq
+			Mechanic added = esql.service().addMechanic(new Mechanic(null, first_name, last_name, experience));
 			System.out.println("------------------------------------------------------");
 			System.out.println("New Mechanic added.");
-			query = "SELECT * FROM Mechanic WHERE id='";
-			query += ID + "';";
-			esql.executeQueryAndPrintResult(query);
+			System.out.println(added);
 			System.out.println("------------------------------------------------------");
         	}catch (Exception e) {
                 	System.err.println (e.getMessage());
         	}
 	}
 	
-	public static void AddCar(MechanicShop esql){//3
+	public static Car AddCar(MechanicShop esql){//3
 		String in1;
                 do{
                         System.out.print("\tEnter VIN: ");
                         try{
-                                in1 = in.readLine();
-                                if(in1.length() <= 0 || in1.length() > 16) {
-                                        throw new RuntimeException("VIN cannot be null or exceed 16 characters");
-                                }
+                                in1 = Validators.vin(in.readLine());
                                 break;
                         } catch(Exception e) {
                                 System.out.println("Your input is invalid!");
@@ -499,10 +886,7 @@ public class MechanicShop{
                 do{
                         System.out.print("\tEnter make: ");
                         try{
-                                in2 = in.readLine();
-                                if(in2.length() <=0 || in2.length() > 32) {
-                                        throw new RuntimeException("Make cannot be null or exceed 32 characters");
-                                }
+                                in2 = Validators.make(in.readLine());
                                 break;
                         } catch(Exception e) {
                                 System.out.println("Your input is invalid!");
@@ -514,10 +898,7 @@ public class MechanicShop{
                 do{
                         System.out.print("\tEnter model: ");
                         try{
-                                in3 = in.readLine();
-                                if(in3.length() <= 0 || in3.length() > 32) {
-                                        throw new RuntimeException("Model cannot be null or exceed 32 characters");
-                                }
+                                in3 = Validators.model(in.readLine());
                                 break;
                         } catch(Exception e) {
                                 System.out.println("Your input is invalid!");
@@ -529,10 +910,7 @@ public class MechanicShop{
                 do{
                         System.out.print("\tEnter year: ");
                         try{
-                                in4 = Integer.parseInt(in.readLine());
-                                if(in4 < 1970) {
-                                        throw new RuntimeException("Year cannot be less than 1970");
-                                }
+                                in4 = Validators.year(Integer.parseInt(in.readLine()));
                                 break;
                         } catch(Exception e) {
                                 System.out.println("Your input is invalid!");
@@ -540,50 +918,36 @@ public class MechanicShop{
                         }
                 } while(true);
 
-                try{
-                        String query = "INSERT INTO Car (vin, make, model, year) VALUES (\'" + in1 + "\', \'" + in2 + "\',\'" + in3 + "\'," + in4 +")";
-			System.out.println(query);
- 			esql.executeUpdate(query);
-
-                } catch(Exception e) {
-                        System.err.println(e.getMessage());
-                }
-
 		try{
+			Car added = esql.service().addCar(new Car(in1, in2, in3, in4));
 			System.out.println("-------------------------------------------");
 			System.out.println("New Car added.");
-			String query2 = "SELECT * FROM Car WHERE vin = ";
-			query2 += "\'" +  in1 + "\'";
-			esql.executeQueryAndPrintResult(query2);
+			System.out.println(added);
 			System.out.println("--------------------------------------------");
+			return added;
 		} catch(Exception e) {
 			System.err.println(e.getMessage());
+			return null;
 		}
 
 	}
 	
 	public static void InsertServiceRequest(MechanicShop esql){//4
 		try{
-			//todaysdate will be the current date when the user creates a service request
-			Date date = new Date();
-			SimpleDateFormat DateFor = new SimpleDateFormat("MM/dd/yyyy");
-			//DateTimeFormatter dtf = DateTimeFormatter.ofPattern("MM/dd/YYY");
-			//LocalDateTime now = LocalDateTime.now();
-        		String todaysdate = DateFor.format(date);
+			//the request date is the current date when the user creates a service request
+			java.sql.Date today = new java.sql.Date(new Date().getTime());
 			String cust_ID="";
 			String car_ID="";
-			System.out.print("Enter the last name of the customer: ");
+			System.out.print("Enter the last name of the customer (or its beginning): ");
                         String lastName = in.readLine();
 
-			//search for the last name in Customer table and display matchinig results
-			String query = "SELECT * FROM Customer WHERE lname='";
-			query += lastName + "';";
+			//search for the last name in Customer table and display the closest matches first
+			List<Customer> customers = esql.service().searchCustomers(lastName, ShopConfig.searchLimit());
+			for (Customer c : customers)
+				System.out.println(c);
 
-			esql.executeQueryAndPrintResult(query);
-			
-			int customerExists = esql.executeQuery(query);
 			//if there are matching customers in the database prompt the user to select an existing customer from the results or create a new customer 
-			if (customerExists != 0){
+			if (!customers.isEmpty()){
 				String user_input; 
 				do{
 					System.out.println("Choose an option below:\n 1. Select an existing customer\n 2. Create a new customer\n ");
@@ -591,14 +955,18 @@ public class MechanicShop{
 					switch(user_input) {
 						case "1":
 						System.out.println("Enter the customer ID: ");
-						cust_ID = in.readLine();
+						cust_ID = in.readLine().trim();
+						//checked now rather than after the car prompts, when the request is filed
+						if (!esql.service().customerExists(Integer.parseInt(cust_ID))){
+							System.out.println("Customer " + cust_ID + " does not exist");
+							return;
+						}
 						break;
 						case "2":
-						//to create a new customer call the add customer function
-						AddCustomer(esql);
-						//prompt the user to reenter the customer ID to update the cust_ID variable in this function
-						System.out.println("Enter the customer ID: ");
-						cust_ID = in.readLine();
+						//to create a new customer call the add customer function and use the ID it was given
+						Customer created = AddCustomer(esql);
+						if (created == null) return;
+						cust_ID = String.valueOf(created.id);
 						break;
 						default :
 						System.out.println("Invalid input");
@@ -608,70 +976,65 @@ public class MechanicShop{
 			//since there are no results matching that last name prompt the user to add a new customer
 			else{ 
 				System.out.println("There are no customers with that last name. Please add a new customer.");
-				AddCustomer(esql);
-				//prompt the user to reenter the customer ID to update the cust_ID variable in this function
-				System.out.println("Reenter the customer ID: ");
-				cust_ID = in.readLine();
+				Customer created = AddCustomer(esql);
+				if (created == null) return;
+				cust_ID = String.valueOf(created.id);
 			}	
 			
 			//check if the customer owns any cars from the Owns table
-			query = "SELECT * FROM Owns WHERE customer_id='";
-			query += cust_ID + "';";
-				
-			esql.executeQueryAndPrintResult(query);
-		
-			int carExists = esql.executeQuery(query); 
+			List<Car> cars = esql.service().carsOwnedBy(Integer.parseInt(cust_ID));
+			for (Car c : cars)
+				System.out.println(c);
+
 			//if customer owns any number of cars, then prompt the user to select a VIN from the matching results
-			if (carExists !=0){
+			if (!cars.isEmpty()){
 				System.out.println("Enter the VIN: ");
 				car_ID = in.readLine();
 			}
 			else { 
 				//if customer doesn't own any cars then prompt the user to add a new car
 				System.out.println("The customer doesn't own a car. Please add a new car.");
-				AddCar(esql);
-				System.out.println("Reenter the VIN: ");
-				car_ID = in.readLine();
-				//query = "SELECT * FROM Owns";
-                                //int maxOwnership = esql.executeQuery(query);
-                                //query = "INSERT INTO Owns(ownership_id, customer_id, car_vin) VALUES ( " + maxOwnership  + ", " + cust_ID + "," + car_ID + ");";
-				//esql.executeUpdate(query);
+				Car added = AddCar(esql);
+				if (added == null) return;
+				car_ID = added.vin;
+				//record the new car as owned by the customer; the ownership_id comes from its sequence
+				esql.service().addOwnership(Integer.parseInt(cust_ID), car_ID);
 			}	
 			
-			//query = "SELECT * FROM Owns WHERE car_vin='";
-			//query += car_ID + "' AND customer_id='";
-			//query += cust_ID + "';";
-			//esql.executeQueryAndPrintResult(query);
-				
-			int owns = esql.executeQuery(query);
-			//System.out.println(owns);
-			//if (owns != 0){
-			//insert user inputs into the Service_Request
-				query = "INSERT INTO Service_Request(rid, customer_id, car_vin, date, odometer, complain) VALUES ('";
-				System.out.println("Enter the Service Request ID: ");
-				int rid = Integer.parseInt(in.readLine());
-				query += rid + "', '";
-				query += cust_ID + "', '" + car_ID + "','" + todaysdate + "', '";
-				System.out.println("Enter the odometer reading: ");
-				String odometer = in.readLine();
-				query += odometer + "', '";
-				System.out.println("What is the issue? ");
-				String complain = in.readLine();
-				query += complain + "');";
-						
-				esql.executeUpdate(query);
-		
+			//insert user inputs into the Service_Request; the rid is assigned by the database and
+			//the insert only happens if the customer owns the car
+			System.out.println("Enter the odometer reading: ");
+			int odometer = Integer.parseInt(in.readLine());
+			System.out.println("What is the issue? ");
+			String complain = in.readLine();
+
+			//with the intake running the request is queued and written behind; the cars listed
+			//above are the ones the insert would accept, so a VIN not among them is refused now
+			IntakeQueue intake = esql.service().getIntake();
+			if (intake != null){
+				boolean listed = cars.isEmpty();
+				for (Car c : cars)
+					listed |= c.vin.trim().equals(car_ID.trim());
+				if (!listed){
+					System.out.println("This customer doesn't own this car");
+					return;
+				}
+				IntakeQueue.Ticket ticket = intake.submit(
+					new ServiceRequest(null, Integer.parseInt(cust_ID), car_ID.trim(), today, odometer, complain), null);
 				System.out.println("------------------------------------------------");
-				System.out.println("New service request created.");
-				query = "SELECT * FROM Service_Request WHERE rid='";
-				query+= rid + "';";
-				esql.executeQueryAndPrintResult(query);
+				System.out.println("Service request accepted as " + ticket + ".");
+				System.out.println(ticket.request);
 				System.out.println("------------------------------------------------");
+				return;
+			}
+					
+			ServiceRequest created = esql.service().openServiceRequest(
+				new ServiceRequest(null, Integer.parseInt(cust_ID), car_ID, today, odometer, complain));
 	
-			//}
-			//else { 
-			//	System.out.println("This customer doesn't own this car");
-			//}
+			System.out.println("------------------------------------------------");
+			System.out.println("New service request created.");
+			System.out.println(created);
+			System.out.println("------------------------------------------------");
 		} catch(Exception e){
 				System.err.println(e.getMessage());
 		}
@@ -679,37 +1042,22 @@ public class MechanicShop{
 	
 	public static void CloseServiceRequest(MechanicShop esql) throws Exception{//5
 		try{
-			String query;
 
-			String wid,rid, mid, comments;
+			String rid, mid, comments;
 			
 			//closing date is the current date when the user closes a service request
-			Date date = new Date();
-			SimpleDateFormat DateFor = new SimpleDateFormat("MM/dd/yyyy");
-			//DateTimeFormatter dtf = DateTimeFormatter.ofPattern("MM/dd/YYY");
-			//LocalDateTime now = LocalDateTime.now();
-			String closingdate = DateFor.format(date);
-
-	//		do{
-	//			query = "SELECT date FROM Service_Request WHERE date <= '" + closingdate + "';";
-	//			int validDate = esql.executeQuery(query);
-	//			if(validDate == 0) { throw new RuntimeException("Closing date can't be before request date");
-	//			}
-	//			else break;
-	//		} while(true);
+			java.sql.Date closing = new java.sql.Date(new Date().getTime());
+
+			//the service checks that the request and the mechanic exist, that the request is still
+			//open and that the closing date is not before the request date, in the same statement
+			//that inserts the closed request
 
 			int bill;
 			do {
                 		System.out.print("Enter the service request ID: ");
                			 try {
-                      		 	rid = in.readLine();
-					//check if the rid entered by the user exists in the database
-					query = "SELECT * FROM Service_Request WHERE rid = " + rid + ";";
-					int rid_exists = esql.executeQuery(query);
-					//ifi the rid doesn't exist then inform the user that the rid is invalid
-					if(rid_exists == 0) {
-						throw new RuntimeException("Service Request does not exist");
-					}break;
+                      		 	rid = String.valueOf(Integer.parseInt(in.readLine().trim()));
+					break;
        
              	   		}catch (Exception e) {
                    	     		System.out.println (e);
@@ -720,14 +1068,8 @@ public class MechanicShop{
 			do {
                 		System.out.print("Enter the Employee's ID: ");
               		  	try {
-                        		mid = in.readLine();
-					//check if the mid entered by the user exists in the database
-                       			query = "SELECT * FROM Mechanic WHERE id = " + mid + ";";
-					int mid_exists = esql.executeQuery(query);
-					//if the mid doesn't exist then infrom the suer that the mid is invalid
-					if(mid_exists == 0) {
-						throw new RuntimeException("Mechanic does not exist");
-					}break;
+                        		mid = String.valueOf(Integer.parseInt(in.readLine().trim()));
+					break;
 
 				}catch (Exception e) {
                         		System.out.println(e);
@@ -736,21 +1078,17 @@ public class MechanicShop{
         		}while (true);
 		
 		
-			System.out.println("Enter the Close request ID: ");
-			wid = in.readLine();
 			System.out.println("Any comments?");
 			comments = in.readLine();
 			System.out.println("What's the total amount due? ");
 			bill = Integer.parseInt(in.readLine());
-			//insert user inputs in the Closed_Request table
-			query = "INSERT INTO Closed_Request(wid, rid, mid, date, comment, bill) VALUES (" + wid + ", " + rid + "," + mid + ", '" + closingdate + "' , '" + comments +"', " + bill + ");" ;
-			esql.executeUpdate(query);
+			//insert user inputs in the Closed_Request table; the wid is assigned from closed_request_wid_seq
+			ClosedRequest closed = esql.service().closeServiceRequest(
+				new ClosedRequest(null, Integer.parseInt(rid), Integer.parseInt(mid), closing, comments, bill));
 			//display the new information added to the database
 			System.out.println("------------------------------------------------");
 			System.out.println("Service request closed.");
-			query = "SELECT * FROM Closed_Request WHERE rid='";
-			query+= rid + "';";
-			esql.executeQueryAndPrintResult(query);
+			System.out.println(closed);
 			System.out.println("------------------------------------------------");
 
 		}catch(Exception e){
@@ -758,65 +1096,60 @@ public class MechanicShop{
 		}
 	}
 	
+	//the days of the requests a report counts; blank for all of them
+	static DateWindow readWindow() throws IOException {
+		System.out.print("Only requests made from date [to date, exclusive] (MM/dd/yyyy, blank for all): ");
+		String[] dates = in.readLine().trim().split("\\s+");
+		return DateWindow.of(dates[0], dates.length > 1 ? dates[1] : null);
+	}
+
 	public static void ListCustomersWithBillLessThan100(MechanicShop esql){//6
 		try{
-                        String query = "SELECT c.fname AS FirstName, c.lname AS LastName, b.bill FROM Customer c, Service_Request a, Closed_Request b WHERE c.id = a.customer_id AND a.rid = b.rid AND b.bill < 100;";
-                        int rowCount = esql.executeQueryAndPrintResult(query);
-                        System.out.println("total row(s): " + rowCount);
-                }
-                catch(Exception e){
-                        System.err.println(e.getMessage());
-                }
-
+			int rowCount = esql.executeReportAndPrintResult(ReportQueries.Report.BILL_LESS_THAN_100, readWindow(), 0);
+			System.out.println("total row(s): " + rowCount);
+		}catch(Exception e){
+			System.err.println(e.getMessage());
+		}
 	}
 	
 	public static void ListCustomersWithMoreThan20Cars(MechanicShop esql){//7
 		try{
-			String query = "SELECT fname, lname FROM Customer WHERE id IN (SELECT customer_id FROM Owns GROUP BY customer_id HAVING COUNT(customer_id) > 20)";
-			int rowCount = esql.executeQueryAndPrintResult(query);
+			int rowCount = esql.executeReportAndPrintResult(ReportQueries.Report.MORE_THAN_20_CARS, 0);
 			System.out.println("total row(s): " + rowCount);
-
-		} catch(Exception e) {
+		}catch(Exception e){
 			System.err.println(e.getMessage());
 		}
 	}
 	
 	public static void ListCarsBefore1995With50000Milles(MechanicShop esql){//8
 		try{
-                        String query = "SELECT DISTINCT make, model, year FROM Car AS C, Service_Request AS S WHERE year < 1995 and S.car_vin = C.vin and S.odometer < 50000;";
-                        int rowCount = esql.executeQueryAndPrintResult(query);
-                        System.out.println("total row(s): " + rowCount);
-                }
-                catch(Exception e){
-                        System.err.println(e.getMessage());
-                }
+			int rowCount = esql.executeReportAndPrintResult(ReportQueries.Report.CARS_BEFORE_1995, readWindow(), 0);
+			System.out.println("total row(s): " + rowCount);
+		}catch(Exception e){
+			System.err.println(e.getMessage());
+		}
 	}
 	
 	public static void ListKCarsWithTheMostServices(MechanicShop esql){//9
-		 try{
-                        String query = "SELECT make, model, a.num_requests FROM Car c, (SELECT car_vin, COUNT(rid) AS num_requests FROM Service_Request GROUP BY car_vin ) AS a WHERE a.car_vin = c.vin ORDER BY a.num_requests DESC LIMIT "    ;
-                        System.out.println("Enter the number of cars you want to view: ");
-                        String num = in.readLine();
-                        query += num + ";";
-
-                        int rowCount = esql.executeQueryAndPrintResult(query);
-                        System.out.println("total row(s): " + rowCount);
-                }
-                catch(Exception e){
-                        System.err.println(e.getMessage());
-                }
-
+		try{
+			System.out.println("Enter the number of cars you want to view (at most " + ShopConfig.reportMaxK() + "): ");
+			int num = Integer.parseInt(in.readLine().trim());
+			int rowCount = esql.executeReportAndPrintResult(ReportQueries.Report.MOST_SERVICED_CARS, readWindow(), num);
+			System.out.println("total row(s): " + rowCount);
+		}catch(NumberFormatException e){
+			System.err.println("Number of cars must be a number");
+		}catch(Exception e){
+			System.err.println(e.getMessage());
+		}
 	}
 	
-	public static void ListCustomersInDescendingOrderOfTheirTotalBill(MechanicShop esql){//9
+	public static void ListCustomersInDescendingOrderOfTheirTotalBill(MechanicShop esql){//10
 		try{
-                        String query = "SELECT C.fname, C.lname, total FROM Customer AS C,(SELECT SR.customer_id, SUM(CR.bill) AS total FROM Closed_Request AS CR, Service_Request AS SR WHERE CR.rid = SR.rid GROUP BY SR.customer_id) AS B WHERE C.id=B.customer_id ORDER BY B.total DESC;";
-                        int rowCount = esql.executeQueryAndPrintResult(query);
-                        System.out.println("total row(s): " + rowCount);
-                }
-                catch(Exception e){
-                        System.err.println(e.getMessage());
-                }	
+			int rowCount = esql.executeReportAndPrintResult(ReportQueries.Report.TOTAL_BILL, readWindow(), 0);
+			System.out.println("total row(s): " + rowCount);
+		}catch(Exception e){
+			System.err.println(e.getMessage());
+		}
 	}
 	
 }
@@ -0,0 +1,188 @@
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * This class keeps the month partitions of sql/partition.sql in step with
+ * the calendar: it creates the partitions of the coming months before any
+ * request is filed in them and, when a retention is configured, moves the
+ * months past it to the shop_archive schema.  A daemon thread does this at
+ * start up and then every ShopConfig.partitionsMaintainIntervalMillis().
+ * Against a database without partition.sql every call is a no-op.
+ *
+ */
+public class PartitionMaintainer implements AutoCloseable{
+	private final MechanicShop _db;
+	//null until the first call finds out whether partition.sql is loaded
+	private volatile Boolean _partitioned = null;
+
+	private Thread _worker = null;
+	private long _runs = 0;
+	private long _created = 0;
+	private long _archived = 0;
+	private String _lastError = null;
+
+	public PartitionMaintainer(MechanicShop db){
+		this._db = db;
+	}
+
+	/**
+	 * Method to create the partitions of every month from the one of first
+	 * through the one of last that has none yet.
+	 *
+	 * @return whether any partition was created
+	 */
+	public boolean ensure(LocalDate first, LocalDate last) throws SQLException {
+		if(Boolean.FALSE.equals(_partitioned)) return false;
+		List<List<String>> result;
+		try{
+			result = _db.executeQueryAndReturnResult(ShopQueries.ENSURE_MONTH_PARTITIONS, first.toString(), last.toString());
+		}catch(SQLException e){
+			if(!ShopService.UNDEFINED_FUNCTION.equals(e.getSQLState())) throw e;
+			_partitioned = false;
+			return false;
+		}
+		_partitioned = true;
+		int created = Integer.parseInt(result.get(0).get(0));
+		synchronized(this){
+			_created += created;
+		}
+		return created > 0;
+	}
+
+	/**
+	 * Method to detach the months of both request tables that end on or
+	 * before a date and move them to the shop_archive schema.
+	 *
+	 * @param before the first day kept
+	 * @return the archived tables, qualified by schema
+	 */
+	public List<String> archive(LocalDate before) throws SQLException {
+		if(Boolean.FALSE.equals(_partitioned)) return List.of();
+		List<String> archived;
+		try{
+			archived = _db.executeQueryAndMap(ShopQueries.ARCHIVE_MONTH_PARTITIONS, rs -> rs.getString(1), before.toString());
+		}catch(SQLException e){
+			if(!ShopService.UNDEFINED_FUNCTION.equals(e.getSQLState())) throw e;
+			_partitioned = false;
+			return List.of();
+		}
+		_partitioned = true;
+		synchronized(this){
+			_archived += archived.size();
+		}
+		return archived;
+	}
+
+	/**
+	 * Method to run one round of maintenance: the current month and the
+	 * next ShopConfig.partitionsMonthsAhead() get their partitions, and
+	 * with a retention of N months everything before the month N months
+	 * back is archived.
+	 */
+	public void maintain() throws SQLException {
+		LocalDate month = LocalDate.now().withDayOfMonth(1);
+		ensure(month, month.plusMonths(Math.max(0, ShopConfig.partitionsMonthsAhead())));
+		int retain = ShopConfig.partitionsRetainMonths();
+		if(retain > 0) archive(month.minusMonths(retain));
+	}
+
+	/**
+	 * Method to start the daemon thread running maintain() now and then
+	 * every interval.  A failed round is remembered and tried again at the
+	 * next one.
+	 *
+	 * @param intervalMillis time between rounds, 0 or less to not start
+	 */
+	public synchronized void start(long intervalMillis){
+		if(_worker != null || intervalMillis <= 0) return;
+		_worker = new Thread(() -> {
+			try{
+				while(!Boolean.FALSE.equals(_partitioned)){
+					try{
+						maintain();
+						synchronized(this){
+							_runs++;
+							_lastError = null;
+						}
+					}catch(SQLException e){
+						synchronized(this){
+							_lastError = e.getMessage();
+						}
+					}
+					Thread.sleep(intervalMillis);
+				}
+			}catch(InterruptedException e){
+				//stopped
+			}
+		}, "partition-maintainer");
+		_worker.setDaemon(true);
+		_worker.start();
+	}
+
+	/**
+	 * @return whether the request tables are partitioned, null while unknown
+	 */
+	public Boolean isPartitioned(){
+		return _partitioned;
+	}
+
+	public synchronized String getStatistics(){
+		if(Boolean.FALSE.equals(_partitioned)) return "partitions: not partitioned";
+		return "partitions: " + _runs + " round(s), " + _created + " created, " + _archived + " archived"
+			+ (_lastError == null ? "" : ", last error: " + _lastError);
+	}
+
+	/**
+	 * Method to stop the daemon thread.
+	 */
+	public void close(){
+		Thread worker;
+		synchronized(this){
+			worker = _worker;
+			_worker = null;
+		}
+		if(worker != null) worker.interrupt();
+	}
+
+	/**
+	 * The main execution method: one round of maintenance, or the months
+	 * of a range, or the archiving of the months before a date.
+	 *
+	 * @param args <dbname> <port> <user> [--ensure FROM THROUGH] [--archive-before DATE]
+	 */
+	public static void main(String[] args){
+		if(args.length < 3){
+			System.err.println("Usage: java [-classpath <classpath>] " + PartitionMaintainer.class.getName()
+				+ " <dbname> <port> <user> [--ensure FROM THROUGH] [--archive-before DATE]");
+			return;
+		}
+		LocalDate first = null, last = null, before = null;
+		for(int i = 3; i < args.length; ++i){
+			if(args[i].equals("--ensure") && i + 2 < args.length){
+				first = DateWindow.parse(args[++i]);
+				last = DateWindow.parse(args[++i]);
+			}
+			else if(args[i].equals("--archive-before") && i + 1 < args.length) before = DateWindow.parse(args[++i]);
+			else System.err.println("Ignoring unknown option " + args[i]);
+		}
+
+		MechanicShop esql = null;
+		try{
+			Class.forName("org.postgresql.Driver");
+			esql = new MechanicShop(args[0], args[1], args[2], "");
+			PartitionMaintainer partitions = esql.service().getPartitions();
+			if(first != null) partitions.ensure(first, last);
+			if(before != null){
+				for(String table : partitions.archive(before))
+					System.out.println("archived " + table);
+			}
+			if(first == null && before == null) partitions.maintain();
+			System.out.println(partitions.getStatistics());
+		}catch(Exception e){
+			System.err.println(e.getMessage());
+		}finally{
+			if(esql != null) esql.cleanup();
+		}
+	}
+}//end PartitionMaintainer
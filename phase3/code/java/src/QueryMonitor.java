@@ -0,0 +1,465 @@
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class records every statement issued through the execute* helpers
+ * of MechanicShop: its wall time, the rows it returned, the bytes of
+ * those rows and the menu operation or server endpoint that issued it.
+ * Latencies are aggregated per operation and statement into
+ * LatencyHistograms.  A statement slower than the configured threshold is
+ * logged with its bind values and, optionally, its plan.  The aggregates
+ * can be written to a file as Prometheus text or JSON.
+ *
+ * The operation is a per-thread tag set by the console menu and by
+ * ShopExecutor; statements issued outside one are recorded as "other".
+ *
+ */
+public class QueryMonitor{
+	//operation of statements issued outside a tagged operation
+	static final String NO_OPERATION = "other";
+	//longest bind value or statement text written to the slow query log and labels
+	static final int MAX_TEXT = 120;
+
+	private static final ThreadLocal<String> OPERATION = ThreadLocal.withInitial(() -> NO_OPERATION);
+
+	/**
+	 * The output formats of writeSnapshot.
+	 */
+	public enum Format{ PROMETHEUS, JSON }
+
+	/**
+	 * The aggregates of one statement issued by one operation.
+	 */
+	static class Stats{
+		final String operation;
+		final String statement;
+		final LatencyHistogram latency = new LatencyHistogram();
+		final AtomicLong rows = new AtomicLong();
+		final AtomicLong bytes = new AtomicLong();
+		final AtomicLong errors = new AtomicLong();
+		final AtomicLong slow = new AtomicLong();
+
+		Stats(String operation, String statement){
+			this.operation = operation;
+			this.statement = statement;
+		}
+	}
+
+	/**
+	 * One statement being executed.  The helper counts the rows it reads
+	 * into it and hands it back to finish or fail.
+	 */
+	class Execution{
+		final String sql;
+		final Object[] params;
+		final String operation;
+		final long start = System.nanoTime();
+		long rows = 0;
+		long bytes = 0;
+
+		Execution(String sql, Object[] params){
+			this.sql = sql;
+			this.params = params;
+			this.operation = OPERATION.get();
+		}
+
+		/**
+		 * Method to count the current row of a result, and its bytes when
+		 * they are being measured.  Measuring them reads every value again
+		 * as text, on top of what the caller reads, so it is off by default.
+		 */
+		void row(ResultSet rs, int numCol) throws SQLException {
+			++rows;
+			if(!_countBytes) return;
+			for(int i = 1; i <= numCol; ++i){
+				String value = rs.getString(i);
+				if(value != null) bytes += value.length();
+			}
+		}
+
+		//counts a row whose values were already read
+		void row(List<String> values){
+			++rows;
+			for(String value : values)
+				if(value != null) bytes += value.length();
+		}
+
+		void rows(long count){
+			rows += count;
+		}
+	}
+
+	private final boolean _enabled;
+	private final boolean _countBytes;
+	private final long _slowNanos;
+	private final boolean _explainSlow;
+	private final PrintStream _slowLog;
+	private final Map<String, Stats> _stats = new ConcurrentHashMap<String, Stats>();
+	private final AtomicLong _slowQueries = new AtomicLong();
+	private final long _startedAt = System.currentTimeMillis();
+	private Thread _exporter = null;
+
+	public QueryMonitor(){
+		this(ShopConfig.monitorEnabled(), ShopConfig.monitorCountBytes(), ShopConfig.monitorSlowQueryMillis(),
+			ShopConfig.monitorExplainSlow(), openLog(ShopConfig.monitorSlowQueryLog()));
+	}
+
+	/**
+	 * @param enabled whether statements are recorded at all
+	 * @param countBytes whether the values of the rows read off a ResultSet are measured too
+	 * @param slowQueryMillis statements taking at least this long are logged, negative for none
+	 * @param explainSlow whether the plan of a slow statement is logged with it
+	 * @param slowLog where slow statements are logged
+	 */
+	public QueryMonitor(boolean enabled, boolean countBytes, long slowQueryMillis, boolean explainSlow, PrintStream slowLog){
+		this._enabled = enabled;
+		this._countBytes = countBytes;
+		this._slowNanos = slowQueryMillis < 0 ? Long.MAX_VALUE : slowQueryMillis * 1000000L;
+		this._explainSlow = explainSlow;
+		this._slowLog = slowLog;
+	}
+
+	//appends to the file, or writes to standard error when none is given
+	static PrintStream openLog(String file){
+		if(file == null || file.isEmpty()) return System.err;
+		try{
+			return new PrintStream(new FileOutputStream(file, true), true, "UTF-8");
+		}catch(IOException e){
+			System.err.println("Cannot open slow query log " + file + ", logging to standard error: " + e.getMessage());
+			return System.err;
+		}
+	}
+
+	/**
+	 * Method to tag the statements the calling thread issues from now on
+	 * with an operation name.
+	 *
+	 * @param operation the menu option or endpoint, null for none
+	 * @return the previous tag, to be restored when the operation ends
+	 */
+	public static String setOperation(String operation){
+		String previous = OPERATION.get();
+		OPERATION.set(operation == null ? NO_OPERATION : operation);
+		return previous;
+	}
+
+	public boolean isEnabled(){
+		return _enabled;
+	}
+
+	Execution start(String sql, Object[] params){
+		return new Execution(sql, params);
+	}
+
+	/**
+	 * Method to record a statement that completed, and log it when it
+	 * was slow.
+	 *
+	 * @param exec the statement
+	 * @param conn the connection it ran on, used to explain it
+	 */
+	void finish(Execution exec, Connection conn){
+		if(!_enabled) return;
+		long elapsed = System.nanoTime() - exec.start;
+		Stats stats = stats(exec);
+		stats.latency.recordNanos(elapsed);
+		stats.rows.addAndGet(exec.rows);
+		stats.bytes.addAndGet(exec.bytes);
+		if(elapsed >= _slowNanos){
+			stats.slow.incrementAndGet();
+			_slowQueries.incrementAndGet();
+			logSlow(exec, elapsed, null, _explainSlow ? explain(conn, exec) : null);
+		}
+	}
+
+	/**
+	 * Method to record a statement that failed, whether in the database or
+	 * while its rows were handled.  Failures are not added to the
+	 * latencies, but a slow one (such as a statement cancelled by its
+	 * timeout) is logged.
+	 */
+	void fail(Execution exec, Exception e){
+		if(!_enabled) return;
+		long elapsed = System.nanoTime() - exec.start;
+		Stats stats = stats(exec);
+		stats.errors.incrementAndGet();
+		if(elapsed >= _slowNanos){
+			stats.slow.incrementAndGet();
+			_slowQueries.incrementAndGet();
+			logSlow(exec, elapsed, e, null);
+		}
+	}
+
+	private Stats stats(Execution exec){
+		String key = exec.operation + '\u0000' + exec.sql;
+		Stats stats = _stats.get(key);
+		if(stats == null) stats = _stats.computeIfAbsent(key, k -> new Stats(exec.operation, label(exec.sql)));
+		return stats;
+	}
+
+	//the statement as a label: whitespace collapsed, shortened, with a hash to keep long ones apart
+	static String label(String sql){
+		String text = sql.trim().replaceAll("\\s+", " ");
+		if(text.length() <= MAX_TEXT) return text;
+		return text.substring(0, MAX_TEXT) + "... #" + Integer.toHexString(sql.hashCode());
+	}
+
+	/**
+	 * Method to render bind values for the log, quoting text as SQL
+	 * literals and shortening long values.
+	 */
+	static String render(Object[] params){
+		StringBuilder sb = new StringBuilder("[");
+		for(int i = 0; i < params.length; ++i){
+			if(i > 0) sb.append(", ");
+			Object value = params[i];
+			if(value == null){
+				sb.append("NULL");
+			}else if(value instanceof Number || value instanceof Boolean){
+				sb.append(value);
+			}else{
+				String text = value.toString();
+				if(text.length() > MAX_TEXT) text = text.substring(0, MAX_TEXT) + "...";
+				sb.append('\'').append(text.replace("'", "''")).append('\'');
+			}
+		}
+		return sb.append(']').toString();
+	}
+
+	//EXPLAIN without ANALYZE, so the statement is planned but not run again
+	static List<String> explain(Connection conn, Execution exec){
+		List<String> plan = new ArrayList<String>();
+		String sql = exec.sql.trim();
+		if(sql.endsWith(";")) sql = sql.substring(0, sql.length() - 1);
+		try(PreparedStatement stmt = conn.prepareStatement("EXPLAIN " + sql)){
+			for(int i = 0; i < exec.params.length; ++i)
+				stmt.setObject(i + 1, exec.params[i]);
+			try(ResultSet rs = stmt.executeQuery()){
+				while(rs.next()) plan.add(rs.getString(1));
+			}
+		}catch(SQLException e){
+			plan.add("(cannot explain: " + String.valueOf(e.getMessage()).trim() + ")");
+		}
+		return plan;
+	}
+
+	private void logSlow(Execution exec, long elapsed, Exception failure, List<String> plan){
+		StringBuilder sb = new StringBuilder();
+		sb.append(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS").format(new java.util.Date()))
+			.append(String.format(" slow query: %.3f ms", elapsed / 1e6))
+			.append(" operation=").append(exec.operation)
+			.append(" rows=").append(exec.rows)
+			.append(" bytes=").append(exec.bytes);
+		if(failure instanceof SQLException) sb.append(" failed=").append(((SQLException)failure).getSQLState());
+		else if(failure != null) sb.append(" failed=").append(failure.getClass().getSimpleName());
+		sb.append("\n\t").append(exec.sql.trim())
+			.append("\n\tparameters: ").append(render(exec.params));
+		if(plan != null)
+			for(String line : plan) sb.append("\n\t\t").append(line);
+		synchronized(_slowLog){
+			_slowLog.println(sb);
+			_slowLog.flush();
+		}
+	}
+
+	public long getSlowQueries(){
+		return _slowQueries.get();
+	}
+
+	//the aggregates ordered by operation, then statement
+	private List<Stats> sorted(){
+		TreeMap<String, Stats> sorted = new TreeMap<String, Stats>();
+		for(Stats s : _stats.values()) sorted.put(s.operation + '\u0000' + s.statement, s);
+		return new ArrayList<Stats>(sorted.values());
+	}
+
+	/**
+	 * @return one entry per operation and statement, ready for Json.write
+	 */
+	public List<Map<String, Object>> snapshot(){
+		List<Map<String, Object>> result = new ArrayList<Map<String, Object>>();
+		for(Stats s : sorted()){
+			LatencyHistogram h = s.latency;
+			Map<String, Object> m = new LinkedHashMap<String, Object>();
+			m.put("operation", s.operation);
+			m.put("statement", s.statement);
+			m.put("count", h.getCount());
+			m.put("errors", s.errors.get());
+			m.put("slow", s.slow.get());
+			m.put("rows", s.rows.get());
+			m.put("bytes", s.bytes.get());
+			m.put("mean_ms", h.getMeanMicros() / 1e3);
+			m.put("p50_ms", h.getPercentileMicros(50) / 1e3);
+			m.put("p90_ms", h.getPercentileMicros(90) / 1e3);
+			m.put("p99_ms", h.getPercentileMicros(99) / 1e3);
+			m.put("p999_ms", h.getPercentileMicros(99.9) / 1e3);
+			m.put("max_ms", h.getMaxMicros() / 1e3);
+			result.add(m);
+		}
+		return result;
+	}
+
+	/**
+	 * @return the aggregates in the Prometheus text exposition format
+	 */
+	public String toPrometheus(){
+		List<Stats> stats = sorted();
+		StringBuilder sb = new StringBuilder();
+		sb.append("# HELP mechanicshop_query_duration_seconds Wall time of the statements issued through MechanicShop.\n");
+		sb.append("# TYPE mechanicshop_query_duration_seconds summary\n");
+		for(Stats s : stats){
+			for(double q : new double[]{ 0.5, 0.9, 0.99, 0.999 }){
+				sb.append("mechanicshop_query_duration_seconds{").append(labels(s)).append(",quantile=\"").append(q).append("\"} ")
+					.append(s.latency.getPercentileMicros(q * 100) / 1e6).append('\n');
+			}
+			sb.append("mechanicshop_query_duration_seconds_sum{").append(labels(s)).append("} ")
+				.append(s.latency.getTotalMicros() / 1e6).append('\n');
+			sb.append("mechanicshop_query_duration_seconds_count{").append(labels(s)).append("} ")
+				.append(s.latency.getCount()).append('\n');
+		}
+		counter(sb, stats, "mechanicshop_query_rows_total", "Rows returned.", "rows");
+		counter(sb, stats, "mechanicshop_query_bytes_total", "Characters of the values returned.", "bytes");
+		counter(sb, stats, "mechanicshop_query_errors_total", "Statements that failed.", "errors");
+		counter(sb, stats, "mechanicshop_query_slow_total", "Statements over the slow query threshold.", "slow");
+		return sb.toString();
+	}
+
+	private static void counter(StringBuilder sb, List<Stats> stats, String name, String help, String field){
+		sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		sb.append("# TYPE ").append(name).append(" counter\n");
+		for(Stats s : stats){
+			long value;
+			switch(field){
+				case "rows": value = s.rows.get(); break;
+				case "bytes": value = s.bytes.get(); break;
+				case "errors": value = s.errors.get(); break;
+				default: value = s.slow.get();
+			}
+			sb.append(name).append('{').append(labels(s)).append("} ").append(value).append('\n');
+		}
+	}
+
+	private static String labels(Stats s){
+		return "operation=\"" + escape(s.operation) + "\",statement=\"" + escape(s.statement) + "\"";
+	}
+
+	static String escape(String value){
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	/**
+	 * Method to write the aggregates to a file.  The snapshot is written
+	 * to a temporary file first and moved into place, so a scraper never
+	 * reads half of one.
+	 *
+	 * @param file where to write
+	 * @param format Prometheus text or JSON
+	 * @throws java.io.IOException when the file cannot be written
+	 */
+	public void writeSnapshot(Path file, Format format) throws IOException {
+		String text;
+		if(format == Format.JSON){
+			Map<String, Object> m = new LinkedHashMap<String, Object>();
+			m.put("since", _startedAt);
+			m.put("written", System.currentTimeMillis());
+			m.put("slow_queries", getSlowQueries());
+			m.put("statements", snapshot());
+			text = Json.write(m) + "\n";
+		}else{
+			text = toPrometheus();
+		}
+		Path dir = file.toAbsolutePath().getParent();
+		Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+		try{
+			Files.write(tmp, text.getBytes(StandardCharsets.UTF_8));
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}finally{
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	/**
+	 * Method to write the snapshot configured by monitor.exportFile, if any.
+	 */
+	public void export(){
+		String file = ShopConfig.monitorExportFile();
+		if(file.isEmpty()) return;
+		try{
+			writeSnapshot(Paths.get(file), parseFormat(ShopConfig.monitorExportFormat()));
+		}catch(IOException e){
+			System.err.println("Cannot write query statistics to " + file + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Method to start a daemon thread that exports the snapshot every
+	 * monitor.exportIntervalMillis, when both it and the file are set.
+	 */
+	public synchronized void startExporter(){
+		long interval = ShopConfig.monitorExportIntervalMillis();
+		if(_exporter != null || interval <= 0 || ShopConfig.monitorExportFile().isEmpty()) return;
+		_exporter = new Thread(() -> {
+			try{
+				while(true){
+					Thread.sleep(interval);
+					export();
+				}
+			}catch(InterruptedException e){
+				//stopped
+			}
+		}, "query-monitor-export");
+		_exporter.setDaemon(true);
+		_exporter.start();
+	}
+
+	/**
+	 * Method to stop the exporter and write a last snapshot.
+	 */
+	public void close(){
+		Thread exporter;
+		synchronized(this){
+			exporter = _exporter;
+			_exporter = null;
+		}
+		if(exporter != null) exporter.interrupt();
+		export();
+		if(_slowLog != System.err) _slowLog.close();
+	}
+
+	/**
+	 * @param name prometheus or json (case insensitive)
+	 * @return the matching format, PROMETHEUS when the name is not recognised
+	 */
+	public static Format parseFormat(String name){
+		return name != null && name.trim().equalsIgnoreCase("json") ? Format.JSON : Format.PROMETHEUS;
+	}
+
+	/**
+	 * @return one line per operation and statement with its latency summary
+	 */
+	public String getStatistics(){
+		StringBuilder sb = new StringBuilder(String.format("queries: %d slow", getSlowQueries()));
+		for(Stats s : sorted())
+			sb.append(String.format("%n\t%-28s %s rows=%d bytes=%d errors=%d%n\t\t%s", s.operation, s.latency.getSummary(),
+				s.rows.get(), s.bytes.get(), s.errors.get(), s.statement));
+		return sb.toString();
+	}
+}//end QueryMonitor
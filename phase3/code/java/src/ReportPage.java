@@ -0,0 +1,81 @@
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * One page of a report read by keyset pagination.  Besides its rows it
+ * carries an opaque cursor naming where the next page starts: the key of
+ * its last row and how many rows the caller may still read.  The cursor is
+ * plain text so it can be handed to an HTTP client and back.
+ *
+ */
+public class ReportPage{
+	public final List<String> columns;
+	public final List<List<String>> rows;
+	//passed back to read the following page, null on the last page
+	public final String next;
+
+	public ReportPage(List<String> columns, List<List<String>> rows, String next){
+		this.columns = columns;
+		this.rows = rows;
+		this.next = next;
+	}
+
+	public boolean hasNext(){
+		return next != null;
+	}
+
+	/**
+	 * Where a page starts: after the given key, with at most remaining rows
+	 * left to read (0 for no limit), within the date window of the first
+	 * page.  The key is null for the first page.
+	 */
+	static class Cursor{
+		final int remaining;
+		final DateWindow window;
+		final List<String> key;
+
+		Cursor(int remaining, DateWindow window, List<String> key){
+			this.remaining = remaining;
+			this.window = window;
+			this.key = key;
+		}
+
+		String encode(){
+			List<Object> values = new ArrayList<Object>();
+			values.add(remaining);
+			values.add(window.from == null ? null : window.from.toString());
+			values.add(window.until == null ? null : window.until.toString());
+			values.addAll(key);
+			return Base64.getUrlEncoder().withoutPadding().encodeToString(Json.write(values).getBytes(StandardCharsets.UTF_8));
+		}
+
+		/**
+		 * @param text a cursor returned with an earlier page of the same report
+		 * @param keys the number of key columns of the report
+		 */
+		static Cursor decode(String text, int keys){
+			try{
+				Object parsed = Json.parse(new String(Base64.getUrlDecoder().decode(text), StandardCharsets.UTF_8));
+				if(parsed instanceof List && ((List<?>) parsed).size() == keys + 3){
+					List<?> values = (List<?>) parsed;
+					if(values.get(0) instanceof Number && ((Number) values.get(0)).intValue() >= 0){
+						DateWindow window = new DateWindow(date(values.get(1)), date(values.get(2)));
+						List<String> key = new ArrayList<String>();
+						for(Object value : values.subList(3, values.size())) key.add(String.valueOf(value));
+						return new Cursor(((Number) values.get(0)).intValue(), window, key);
+					}
+				}
+			}catch(RuntimeException e){
+				//falls through to the error below
+			}
+			throw new IllegalArgumentException("Invalid page cursor");
+		}
+
+		private static LocalDate date(Object value){
+			return value == null ? null : LocalDate.parse((String) value);
+		}
+	}
+}//end ReportPage
@@ -0,0 +1,162 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * This class holds the SQL of the five report menu options.  Each report
+ * has a live form that aggregates the base tables and, where one exists, a
+ * form that reads the precomputed aggregates maintained by the triggers in
+ * sql/reporting.sql.
+ *
+ * Report also gives every report a paged form.  Pages are read by keyset
+ * (seek) pagination: the rows are ordered by a unique key, each page is
+ * LIMITed, and the next page starts after the key of the last row shown
+ * rather than at an OFFSET, so reading any page costs the same as the
+ * first.  The key columns follow the displayed columns in each row.
+ * Text keys are ordered COLLATE "C", whatever the database default, so
+ * that the summaries answering reports from memory can order them the
+ * same way with C_ORDER.
+ *
+ */
+public class ReportQueries{
+
+	/**
+	 * The paged reports.  Each template has a %1$s where the date window
+	 * goes and a %2$s where the seek condition goes, and ends with a LIMIT
+	 * parameter.  The window binds its first and last day once for every
+	 * table of requests it restricts, so that both are pruned to the months
+	 * in it when sql/partition.sql is loaded; the seek condition binds the
+	 * key of the last row already shown.  Both are cast so that they can
+	 * be bound as text.  A windowed page always reads the base tables,
+	 * since the aggregates cover all of history.
+	 */
+	public enum Report{
+		//6. ordered by bill, then wid; sql/index.sql indexes Closed_Request (bill, wid)
+		BILL_LESS_THAN_100("bill-less-than-100", new String[]{ "firstname", "lastname", "bill" }, 2,
+			"SELECT c.fname AS FirstName, c.lname AS LastName, b.bill, b.wid FROM Customer c, Service_Request a, Closed_Request b "
+				+ "WHERE c.id = a.customer_id AND a.rid = b.rid AND b.bill < 100%1$s%2$s ORDER BY b.bill, b.wid LIMIT ?;",
+			null,
+			" AND a.date >= CAST(? AS DATE) AND a.date < CAST(? AS DATE) AND b.request_date >= CAST(? AS DATE) AND b.request_date < CAST(? AS DATE)",
+			" AND (b.bill, b.wid) > (CAST(? AS INTEGER), CAST(? AS INTEGER))"),
+		//7. ordered by customer id; ownership is not dated, so there is no window
+		MORE_THAN_20_CARS("more-than-20-cars", new String[]{ "fname", "lname" }, 1,
+			"SELECT C.fname, C.lname, C.id FROM Customer AS C "
+				+ "WHERE C.id IN (SELECT customer_id FROM Owns GROUP BY customer_id HAVING COUNT(customer_id) > 20)%2$s ORDER BY C.id LIMIT ?;",
+			"SELECT C.fname, C.lname, C.id FROM Customer AS C, Customer_Car_Count AS N "
+				+ "WHERE C.id = N.customer_id AND N.num_cars > 20%2$s ORDER BY C.id LIMIT ?;",
+			null,
+			" AND C.id > CAST(? AS INTEGER)"),
+		//8. the displayed columns are distinct, so they are the key; text in C order
+		CARS_BEFORE_1995("cars-before-1995", new String[]{ "make", "model", "year" }, 3,
+			"SELECT DISTINCT C.make, C.model, C.year FROM Car AS C, Service_Request AS S "
+				+ "WHERE C.year < 1995 AND S.car_vin = C.vin AND S.odometer < 50000%1$s%2$s ORDER BY C.make COLLATE \"C\", C.model COLLATE \"C\", C.year LIMIT ?;",
+			"SELECT DISTINCT C.make, C.model, C.year FROM Car AS C, Car_Service_Stats AS S "
+				+ "WHERE C.year < 1995 AND S.car_vin = C.vin AND S.min_odometer < 50000%2$s ORDER BY C.make COLLATE \"C\", C.model COLLATE \"C\", C.year LIMIT ?;",
+			" AND S.date >= CAST(? AS DATE) AND S.date < CAST(? AS DATE)",
+			" AND (C.make COLLATE \"C\", C.model COLLATE \"C\", C.year) > (CAST(? AS VARCHAR), CAST(? AS VARCHAR), CAST(? AS INTEGER))"),
+		//9. ordered by number of requests, ties by vin in C order, both descending so that one row comparison seeks
+		MOST_SERVICED_CARS("most-serviced-cars", new String[]{ "make", "model", "num_requests" }, 2,
+			"SELECT C.make, C.model, A.num_requests, A.car_vin FROM Car AS C, "
+				+ "(SELECT car_vin, COUNT(rid) AS num_requests FROM Service_Request AS S%1$s GROUP BY car_vin) AS A "
+				+ "WHERE A.car_vin = C.vin%2$s ORDER BY A.num_requests DESC, A.car_vin COLLATE \"C\" DESC LIMIT ?;",
+			"SELECT C.make, C.model, A.num_requests, A.car_vin FROM Car AS C, Car_Service_Stats AS A "
+				+ "WHERE A.car_vin = C.vin%2$s ORDER BY A.num_requests DESC, A.car_vin COLLATE \"C\" DESC LIMIT ?;",
+			" WHERE S.date >= CAST(? AS DATE) AND S.date < CAST(? AS DATE)",
+			" AND (A.num_requests, A.car_vin COLLATE \"C\") < (CAST(? AS BIGINT), CAST(? AS VARCHAR))"),
+		//10. ordered by total, ties by customer id, both descending
+		TOTAL_BILL("total-bill", new String[]{ "fname", "lname", "total" }, 2,
+			"SELECT C.fname, C.lname, B.total, B.customer_id FROM Customer AS C, "
+				+ "(SELECT SR.customer_id, SUM(CR.bill) AS total FROM Closed_Request AS CR, Service_Request AS SR WHERE CR.rid = SR.rid%1$s GROUP BY SR.customer_id) AS B "
+				+ "WHERE C.id = B.customer_id%2$s ORDER BY B.total DESC, B.customer_id DESC LIMIT ?;",
+			"SELECT C.fname, C.lname, B.total, B.customer_id FROM Customer AS C, Customer_Bill_Total AS B "
+				+ "WHERE C.id = B.customer_id%2$s ORDER BY B.total DESC, B.customer_id DESC LIMIT ?;",
+			" AND SR.date >= CAST(? AS DATE) AND SR.date < CAST(? AS DATE) AND CR.request_date >= CAST(? AS DATE) AND CR.request_date < CAST(? AS DATE)",
+			" AND (B.total, B.customer_id) < (CAST(? AS BIGINT), CAST(? AS INTEGER))");
+
+		//name used in URLs
+		public final String path;
+		public final String[] columns;
+		//trailing columns of each row that make up its key; they may overlap the displayed ones
+		final int keys;
+		private final String _live;
+		private final String _aggregates;
+		//null when the report does not read the request tables
+		private final String _window;
+		private final String _seek;
+
+		Report(String path, String[] columns, int keys, String live, String aggregates, String window, String seek){
+			//the seek condition binds one value per key column, so a wrong width cannot go unnoticed
+			if(seek.chars().filter(ch -> ch == '?').count() != keys)
+				throw new IllegalArgumentException("The " + path + " report has " + keys + " key column(s) but its seek condition binds a different number");
+			this.path = path;
+			this.columns = columns;
+			this.keys = keys;
+			this._live = live;
+			this._aggregates = aggregates;
+			this._window = window;
+			this._seek = seek;
+		}
+
+		/**
+		 * @return the query of the first page; one parameter, the page size
+		 */
+		public String firstPage(boolean aggregates){
+			return page(aggregates, false, false);
+		}
+
+		/**
+		 * @return the query of a following page; the key of the last row
+		 *         shown, then the page size
+		 */
+		public String nextPage(boolean aggregates){
+			return page(aggregates, false, true);
+		}
+
+		/**
+		 * @param windowed whether the page is restricted to a date window;
+		 *                 its bounds are the first parameters
+		 * @param seek whether the page follows another; the key of the last
+		 *             row shown comes after the window
+		 */
+		public String page(boolean aggregates, boolean windowed, boolean seek){
+			if(windowed && _window == null) throw new IllegalArgumentException("The " + path + " report has no date window");
+			String template = aggregates && _aggregates != null && !windowed ? _aggregates : _live;
+			return String.format(template, windowed ? _window : "", seek ? _seek : "");
+		}
+
+		/**
+		 * @return the key of a row of a page, which the page after it seeks past
+		 */
+		List<String> keyOf(List<String> row){
+			return row.subList(row.size() - keys, row.size());
+		}
+
+		public boolean hasWindow(){
+			return _window != null;
+		}
+
+		/**
+		 * @return the window bounds to bind, first day then the day after,
+		 *         once for every table the window restricts
+		 */
+		List<Object> windowParams(DateWindow window){
+			List<Object> params = new ArrayList<Object>();
+			long bounds = _window.chars().filter(ch -> ch == '?').count();
+			for(int i = 0; i < bounds; i += 2){
+				params.add(window.fromText());
+				params.add(window.untilText());
+			}
+			return params;
+		}
+	}
+
+	//the order of COLLATE "C" on UTF-8 text: by code point, where String.compareTo goes by UTF-16 unit
+	static final Comparator<String> C_ORDER = (a, b) -> {
+		for(int i = 0; i < a.length() && i < b.length(); ){
+			int ca = a.codePointAt(i), cb = b.codePointAt(i);
+			if(ca != cb) return Integer.compare(ca, cb);
+			i += Character.charCount(ca);
+		}
+		return Integer.compare(a.length(), b.length());
+	};
+}//end ReportQueries
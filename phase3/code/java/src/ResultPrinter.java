@@ -0,0 +1,356 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class renders a result set to a print stream.  Output is collected
+ * in one reusable buffer and written in large chunks rather than once per
+ * cell, and the column names are read from the metadata once per result.
+ * Rows can be rendered as an aligned table, as tab separated or as comma
+ * separated values, with an optional row limit and page size.
+ *
+ */
+public class ResultPrinter{
+
+	public enum Format{ TABLE, TSV, CSV }
+
+	//buffered characters are written out once the buffer grows past this size
+	static final int FLUSH_THRESHOLD = 1 << 16;
+
+	private final PrintStream _out;
+	private Format _format;
+	private int _rowLimit;
+	private int _pageSize;
+	private final BufferedReader _pager;
+	private final StringBuilder _buffer = new StringBuilder(FLUSH_THRESHOLD + 1024);
+
+	//per result state
+	private String[] _names;
+	private int[] _widths;
+	private String[][] _page;
+	private int _pageRows;
+	//characters of the values read by the last print(ResultSet)
+	private long _charactersRead;
+
+	/**
+	 * @param out the stream the rows are written to
+	 * @param format the rendering of each row
+	 * @param rowLimit the maximum number of rows printed, 0 for no limit
+	 * @param pageSize the number of rows per page, 0 to print without pausing
+	 * @param pager where to read the "next page" answer from, ignored when pageSize is 0
+	 */
+	public ResultPrinter(PrintStream out, Format format, int rowLimit, int pageSize, BufferedReader pager){
+		this._out = out;
+		this._pager = pager;
+		reset(format, rowLimit, pageSize);
+	}
+
+	/**
+	 * Method to change the rendering options and drop whatever the last
+	 * result left behind, so one printer can be kept and reused.
+	 *
+	 * @param format the rendering of each row
+	 * @param rowLimit the maximum number of rows printed, 0 for no limit
+	 * @param pageSize the number of rows per page, 0 to print without pausing
+	 */
+	public void reset(Format format, int rowLimit, int pageSize){
+		this._format = format;
+		this._rowLimit = Math.max(0, rowLimit);
+		this._pageSize = _pager == null ? 0 : Math.max(0, pageSize);
+		_buffer.setLength(0);
+		_names = null;
+		_widths = null;
+		_page = null;
+		_pageRows = 0;
+		_charactersRead = 0;
+	}
+
+	/**
+	 * @return whether rows are printed a page at a time, asking in between
+	 */
+	public boolean isPaged(){
+		return _pageSize > 0;
+	}
+
+	/**
+	 * Method to parse a format name as typed by the user or given in a
+	 * system property.
+	 *
+	 * @param name table, tsv or csv (case insensitive)
+	 * @return the matching format, TSV when the name is not recognised
+	 */
+	public static Format parseFormat(String name){
+		if(name != null){
+			for(Format f : Format.values())
+				if(f.name().equalsIgnoreCase(name.trim())) return f;
+		}
+		return Format.TSV;
+	}
+
+	/**
+	 * Method to print every row of a result set, stopping early when the
+	 * row limit is reached or the user declines the next page.  The header
+	 * is only printed when there is at least one row.
+	 *
+	 * @param rs the result set positioned before its first row
+	 * @return the number of rows printed
+	 * @throws java.sql.SQLException when the rows cannot be read
+	 */
+	public int print(ResultSet rs) throws SQLException {
+		ResultSetMetaData rsmd = rs.getMetaData();
+		int numCol = rsmd.getColumnCount();
+		_names = new String[numCol];
+		for(int i = 1; i <= numCol; ++i)
+			_names[i - 1] = rsmd.getColumnName(i);
+		_widths = null;
+		_page = null;
+		_pageRows = 0;
+		_charactersRead = 0;
+
+		int pageCapacity = _pageSize > 0 ? _pageSize : (_format == Format.TABLE ? 1024 : 0);
+		if(pageCapacity > 0) _page = new String[pageCapacity][numCol];
+
+		int rowCount = 0;
+		boolean truncated = false;
+		while(rs.next()){
+			if(_rowLimit > 0 && rowCount == _rowLimit){
+				truncated = true;
+				break;
+			}
+			if(_page == null){
+				if(rowCount == 0) appendHeader(null);
+				for(int i = 1; i <= numCol; ++i){
+					if(i > 1) _buffer.append(separator());
+					appendCell(read(rs, i));
+				}
+				_buffer.append('\n');
+				if(_buffer.length() >= FLUSH_THRESHOLD) flush();
+			}else{
+				String[] row = _page[_pageRows++];
+				for(int i = 1; i <= numCol; ++i)
+					row[i - 1] = read(rs, i);
+				if(_pageRows == _page.length){
+					boolean first = rowCount + 1 == _pageRows;
+					writePage(first);
+					if(_pageSize > 0 && !nextPage()){
+						++rowCount;
+						truncated = true;
+						break;
+					}
+				}
+			}
+			++rowCount;
+		}//end while
+		if(_page != null && _pageRows > 0)
+			writePage(rowCount == _pageRows);
+		if(truncated)
+			_buffer.append("(output stopped after ").append(rowCount).append(" row(s))\n");
+		flush();
+		return rowCount;
+	}
+
+	/**
+	 * Method to read the rows of a result set, up to the row limit, for
+	 * printing later with print(List, List, boolean).  Paged output is
+	 * read this way so the connection is given back before the user is
+	 * asked for the next page.
+	 *
+	 * @param rs the result set positioned before its first row
+	 * @param columns receives the column names
+	 * @param rows receives the rows read
+	 * @return whether rows were left unread because of the row limit
+	 * @throws java.sql.SQLException when the rows cannot be read
+	 */
+	public boolean read(ResultSet rs, List<String> columns, List<List<String>> rows) throws SQLException {
+		ResultSetMetaData rsmd = rs.getMetaData();
+		int numCol = rsmd.getColumnCount();
+		for(int i = 1; i <= numCol; ++i)
+			columns.add(rsmd.getColumnName(i));
+		_charactersRead = 0;
+		while(rs.next()){
+			if(_rowLimit > 0 && rows.size() == _rowLimit) return true;
+			String[] row = new String[numCol];
+			for(int i = 1; i <= numCol; ++i)
+				row[i - 1] = read(rs, i);
+			rows.add(Arrays.asList(row));
+		}
+		return false;
+	}
+
+	/**
+	 * Method to print rows read by read(ResultSet, List, List) a page at a
+	 * time, asking before each following page.
+	 *
+	 * @param columns the column names
+	 * @param rows the rows read
+	 * @param truncated whether the row limit stopped the read
+	 * @return the number of rows printed
+	 */
+	public int printPages(List<String> columns, List<List<String>> rows, boolean truncated){
+		int step = _pageSize > 0 ? _pageSize : Math.max(1, rows.size());
+		int printed = 0;
+		while(printed < rows.size()){
+			int end = Math.min(rows.size(), printed + step);
+			print(columns, rows.subList(printed, end), printed == 0);
+			printed = end;
+			if(printed < rows.size() && !askNextPage()){
+				truncated = true;
+				break;
+			}
+		}
+		if(truncated)
+			_buffer.append("(output stopped after ").append(printed).append(" row(s))\n");
+		flush();
+		return printed;
+	}
+
+	private String read(ResultSet rs, int column) throws SQLException {
+		String value = rs.getString(column);
+		if(value != null) _charactersRead += value.length();
+		return value;
+	}
+
+	/**
+	 * @return characters of the values read by the last print(ResultSet)
+	 */
+	public long getCharactersRead(){
+		return _charactersRead;
+	}
+
+	/**
+	 * Method to print one page of rows read elsewhere, such as a page of a
+	 * report.  The table layout is sized to the page; the other formats
+	 * print the header with the first page only.
+	 *
+	 * @param columns the column names
+	 * @param rows the rows of the page
+	 * @param first whether this is the first page of the result
+	 * @return the number of rows printed
+	 */
+	public int print(List<String> columns, List<List<String>> rows, boolean first){
+		_names = columns.toArray(new String[0]);
+		_page = new String[rows.size()][];
+		for(int r = 0; r < _page.length; ++r)
+			_page[r] = rows.get(r).toArray(new String[0]);
+		_pageRows = _page.length;
+		if(_pageRows > 0) writePage(first);
+		_page = null;
+		return rows.size();
+	}
+
+	/**
+	 * Method to ask whether to print the next page, for callers that read
+	 * their pages one at a time.
+	 *
+	 * @return false when the user declined or there is no one to ask
+	 */
+	public boolean askNextPage(){
+		return _pager != null && nextPage();
+	}
+
+	//renders the buffered page; the table layout is sized to the page it shows
+	private void writePage(boolean first){
+		if(_format == Format.TABLE){
+			_widths = new int[_names.length];
+			for(int c = 0; c < _names.length; ++c)
+				_widths[c] = _names[c].length();
+			for(int r = 0; r < _pageRows; ++r)
+				for(int c = 0; c < _names.length; ++c)
+					_widths[c] = Math.max(_widths[c], String.valueOf(_page[r][c]).length());
+			appendHeader(_widths);
+		}else if(first){
+			appendHeader(null);
+		}
+		for(int r = 0; r < _pageRows; ++r){
+			String[] row = _page[r];
+			for(int c = 0; c < row.length; ++c){
+				if(c > 0) _buffer.append(separator());
+				if(_format == Format.TABLE) pad(String.valueOf(row[c]), _widths[c]);
+				else appendCell(row[c]);
+			}
+			_buffer.append('\n');
+			if(_buffer.length() >= FLUSH_THRESHOLD) flush();
+		}
+		_pageRows = 0;
+		flush();
+	}
+
+	private void appendHeader(int[] widths){
+		for(int c = 0; c < _names.length; ++c){
+			if(c > 0) _buffer.append(separator());
+			if(widths != null) pad(_names[c], widths[c]);
+			else appendCell(_names[c]);
+		}
+		_buffer.append('\n');
+		if(widths != null){
+			for(int c = 0; c < widths.length; ++c){
+				if(c > 0) _buffer.append("-+-");
+				for(int i = 0; i < widths[c]; ++i) _buffer.append('-');
+			}
+			_buffer.append('\n');
+		}
+	}
+
+	private String separator(){
+		switch(_format){
+			case CSV: return ",";
+			case TABLE: return " | ";
+			default: return "\t";
+		}
+	}
+
+	private void appendCell(String value){
+		if(_format != Format.CSV){
+			_buffer.append(value);
+			return;
+		}
+		if(value == null) return;
+		boolean quote = false;
+		for(int i = 0; i < value.length() && !quote; ++i){
+			char ch = value.charAt(i);
+			quote = ch == ',' || ch == '"' || ch == '\n' || ch == '\r';
+		}
+		if(!quote){
+			_buffer.append(value);
+			return;
+		}
+		_buffer.append('"');
+		for(int i = 0; i < value.length(); ++i){
+			char ch = value.charAt(i);
+			if(ch == '"') _buffer.append('"');
+			_buffer.append(ch);
+		}
+		_buffer.append('"');
+	}
+
+	private void pad(String value, int width){
+		_buffer.append(value);
+		for(int i = value.length(); i < width; ++i) _buffer.append(' ');
+	}
+
+	//asks whether to continue; anything but q (or end of input) continues
+	private boolean nextPage(){
+		flush();
+		_out.print("-- more (Enter for next page, q to stop) --");
+		_out.flush();
+		try{
+			String answer = _pager.readLine();
+			return answer != null && !answer.trim().equalsIgnoreCase("q");
+		}catch(IOException e){
+			return false;
+		}
+	}
+
+	private void flush(){
+		if(_buffer.length() > 0){
+			_out.append(_buffer);
+			_buffer.setLength(0);
+		}
+		_out.flush();
+	}
+}//end ResultPrinter
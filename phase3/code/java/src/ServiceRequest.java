@@ -0,0 +1,36 @@
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * A row of the Service_Request table.  The rid may be null for a request
+ * that has not been stored yet.
+ *
+ */
+public class ServiceRequest{
+	public final Integer rid;
+	public final int customerId;
+	public final String carVin;
+	public final Date date;
+	public final int odometer;
+	public final String complain;
+
+	public ServiceRequest(Integer rid, int customerId, String carVin, Date date, int odometer, String complain){
+		this.rid = rid;
+		this.customerId = customerId;
+		this.carVin = carVin;
+		this.date = date;
+		this.odometer = odometer;
+		this.complain = complain;
+	}
+
+	static ServiceRequest from(ResultSet rs) throws SQLException {
+		return new ServiceRequest(rs.getInt("rid"), rs.getInt("customer_id"), rs.getString("car_vin"),
+			rs.getDate("date"), rs.getInt("odometer"), rs.getString("complain"));
+	}
+
+	@Override
+	public String toString(){
+		return rid + "\t" + customerId + "\t" + carVin + "\t" + date + "\t" + odometer + "\t" + complain;
+	}
+}//end ServiceRequest
@@ -0,0 +1,301 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class benchmarks every MechanicShop menu operation through the
+ * query paths the menu uses, and the execute* helpers on their own, against
+ * a running Postgres.  Each benchmark is warmed up, then timed per call;
+ * throughput and latency percentiles are printed per benchmark.
+ *
+ * Operations that write are run on a pooled connection inside a transaction
+ * that is rolled back, so the dataset stays the same between iterations.
+ * The dataset can be regenerated at several sizes with DataGenerator, and
+ * the helper benchmarks are repeated for several result sizes.
+ *
+ */
+public class ShopBenchmark{
+
+	/**
+	 * One timed call; i is the iteration number.
+	 */
+	interface Op{
+		void run(int i) throws Exception;
+	}
+
+	//discards everything printed while a benchmark runs
+	static final PrintStream NULL_OUT = new PrintStream(new OutputStream(){
+		public void write(int b){ }
+		public void write(byte[] b, int off, int len){ }
+	});
+
+	private final MechanicShop _esql;
+	private final int _warmup;
+	private final int _iterations;
+	private final String _only;
+	private final PrintStream _report;
+
+	//sample keys from the loaded data
+	private int _customers, _mechanics, _nextCustomer, _nextMechanic, _nextWid;
+	private String[] _lnames;
+	private int[] _ownerIds, _rids;
+	private String[] _ownedVins;
+
+	public ShopBenchmark(MechanicShop esql, int warmup, int iterations, String only, PrintStream report){
+		this._esql = esql;
+		this._warmup = warmup;
+		this._iterations = iterations;
+		this._only = only;
+		this._report = report;
+	}
+
+	/**
+	 * Method to read the sample keys the benchmarks draw their inputs from.
+	 */
+	void sample() throws SQLException {
+		_customers = (int) _esql.count("SELECT id FROM Customer");
+		_mechanics = (int) _esql.count("SELECT id FROM Mechanic");
+		_esql.withConnection(conn -> {
+			Connection c = conn.getConnection();
+			try(Statement stmt = c.createStatement()){
+				_nextCustomer = count(stmt, "SELECT COALESCE(MAX(id), 0) + 1 FROM Customer");
+				_nextMechanic = count(stmt, "SELECT COALESCE(MAX(id), 0) + 1 FROM Mechanic");
+				_nextWid = count(stmt, "SELECT COALESCE(MAX(wid), 0) + 1 FROM Closed_Request");
+				List<String> lnames = new ArrayList<String>();
+				try(ResultSet rs = stmt.executeQuery("SELECT lname FROM Customer ORDER BY random() LIMIT 100")){
+					while(rs.next()) lnames.add(rs.getString(1));
+				}
+				_lnames = lnames.toArray(new String[lnames.size()]);
+				List<Integer> owners = new ArrayList<Integer>();
+				List<String> vins = new ArrayList<String>();
+				try(ResultSet rs = stmt.executeQuery("SELECT customer_id, car_vin FROM Owns ORDER BY random() LIMIT 100")){
+					while(rs.next()){
+						owners.add(rs.getInt(1));
+						vins.add(rs.getString(2));
+					}
+				}
+				_ownerIds = new int[owners.size()];
+				for(int i = 0; i < _ownerIds.length; ++i) _ownerIds[i] = owners.get(i);
+				_ownedVins = vins.toArray(new String[vins.size()]);
+				List<Integer> rids = new ArrayList<Integer>();
+				//open requests first, so that the close benchmark inserts rather than hits the duplicate check
+				try(ResultSet rs = stmt.executeQuery("SELECT S.rid FROM Service_Request AS S LEFT JOIN Closed_Request AS C ON C.rid = S.rid "
+						+ "ORDER BY (C.rid IS NOT NULL), random() LIMIT 100")){
+					while(rs.next()) rids.add(rs.getInt(1));
+				}
+				_rids = new int[rids.size()];
+				for(int i = 0; i < _rids.length; ++i) _rids[i] = rids.get(i);
+			}
+			return null;
+		});
+		if(_lnames.length == 0 || _ownerIds.length == 0 || _rids.length == 0 || _mechanics == 0)
+			throw new SQLException("The database has no data to benchmark against; load it first (see bench.sh)");
+	}
+
+	private static int count(Statement stmt, String sql) throws SQLException {
+		try(ResultSet rs = stmt.executeQuery(sql)){
+			rs.next();
+			return rs.getInt(1);
+		}
+	}
+
+	/**
+	 * Method to run a data entry operation's statements on one connection in
+	 * a transaction that is rolled back afterwards.
+	 */
+	private void rolledBack(MechanicShop.ConnectionWork<Void> work) throws SQLException {
+		_esql.withConnection(conn -> {
+			Connection c = conn.getConnection();
+			c.setAutoCommit(false);
+			try{
+				return work.run(conn);
+			}finally{
+				c.rollback();
+				c.setAutoCommit(true);
+			}
+		});
+	}
+
+	private static void query(ConnectionPool.PooledConnection conn, String sql, Object... params) throws SQLException {
+		try(ResultSet rs = MechanicShop.prepare(conn, sql, params).executeQuery()){
+			while(rs.next()) rs.getString(1);
+		}
+	}
+
+	/**
+	 * Method to time one benchmark and print its line of the report.
+	 */
+	void bench(String name, Op op) throws Exception {
+		if(_only != null && !name.toLowerCase().contains(_only.toLowerCase())) return;
+		for(int i = 0; i < _warmup; ++i) op.run(i);
+		long[] nanos = new long[_iterations];
+		long start = System.nanoTime();
+		for(int i = 0; i < _iterations; ++i){
+			long t = System.nanoTime();
+			op.run(_warmup + i);
+			nanos[i] = System.nanoTime() - t;
+		}
+		long total = System.nanoTime() - start;
+		Arrays.sort(nanos);
+		_report.printf("%-52s %10.1f ops/s  avg %9.3f ms  p50 %9.3f ms  p99 %9.3f ms  max %9.3f ms%n",
+			name, _iterations / (total / 1e9), total / 1e6 / _iterations,
+			nanos[nanos.length / 2] / 1e6, nanos[Math.min(nanos.length - 1, (int) (nanos.length * 0.99))] / 1e6,
+			nanos[nanos.length - 1] / 1e6);
+	}
+
+	/**
+	 * Method to benchmark the ten menu operations.
+	 */
+	void menuOperations() throws Exception {
+		java.sql.Date today = new java.sql.Date(System.currentTimeMillis());
+		bench("1. AddCustomer", i -> rolledBack(conn -> {
+			query(conn, ShopQueries.INSERT_CUSTOMER, _nextCustomer + i, "Bench", "Mark", "(000)000-0000", "1 Bench Street");
+			return null;
+		}));
+		bench("2. AddMechanic", i -> rolledBack(conn -> {
+			query(conn, ShopQueries.INSERT_MECHANIC, _nextMechanic + i, "Bench", "Mark", 5);
+			return null;
+		}));
+		bench("3. AddCar", i -> rolledBack(conn -> {
+			String vin = String.format("BENCH%011d", i);
+			query(conn, ShopQueries.INSERT_CAR, vin, "Bench", "Mark", 2000);
+			return null;
+		}));
+		bench("4. InsertServiceRequest", i -> rolledBack(conn -> {
+			int k = i % _ownerIds.length;
+			query(conn, ShopQueries.CUSTOMER_BY_LNAME, _lnames[i % _lnames.length]);
+			query(conn, ShopQueries.CARS_OWNED_BY, _ownerIds[k]);
+			query(conn, ShopQueries.INSERT_SERVICE_REQUEST, today, 1000, "bench", _ownerIds[k], _ownedVins[k]);
+			return null;
+		}));
+		//the search the menu runs on the first three letters typed
+		bench("4. InsertServiceRequest: customer search", i -> {
+			String lname = _lnames[i % _lnames.length].trim();
+			_esql.service().searchCustomers(lname.substring(0, Math.min(3, lname.length())), ShopConfig.searchLimit());
+		});
+		bench("5. CloseServiceRequest", i -> rolledBack(conn -> {
+			int rid = _rids[i % _rids.length];
+			query(conn, ShopQueries.CLOSE_SERVICE_REQUEST, rid, i % _mechanics, _nextWid + i, today, "bench", 100, today);
+			return null;
+		}));
+		for(boolean agg : new boolean[]{ false, true }){
+			String suffix = agg ? " (aggregates)" : "";
+			//what the menu reads: a page-size first page, then the page after the key of its last row
+			for(ReportQueries.Report report : ReportQueries.Report.values()){
+				int pageSize = ShopConfig.reportPageSize();
+				bench("first page of " + report.path + suffix, i -> _esql.executeQueryAndReturnResult(report.page(agg, false, false), pageSize + 1));
+				List<String> key = _esql.withConnection(conn -> IndexAdvisor.lastKey(conn.getConnection(), report, agg, pageSize));
+				if(key == null) continue;
+				List<Object> params = new ArrayList<Object>(key);
+				params.add(pageSize + 1);
+				bench("next page of " + report.path + suffix, i -> _esql.executeQueryAndReturnResult(report.page(agg, false, true), params.toArray()));
+			}
+		}
+	}
+
+	/**
+	 * Method to benchmark the helpers whose cost does not depend on the
+	 * size of a result.
+	 */
+	void helpers() throws Exception {
+		bench("executeUpdate", i -> _esql.executeUpdate("UPDATE Customer SET phone = phone WHERE id = ?", i % Math.max(1, _customers)));
+		bench("getCurrSeqVal", i -> {
+			try{
+				_esql.getCurrSeqVal("pg_catalog.pg_class");
+			}catch(SQLException e){
+				// currval fails on a connection that never called nextval; the round trip is what is measured.
+			}
+		});
+	}
+
+	/**
+	 * Method to benchmark the query helpers in isolation for one result
+	 * size.  The rows come from generate_series so the result size does not
+	 * depend on the dataset.
+	 */
+	void helpers(int resultRows) throws Exception {
+		String rows = "SELECT g, md5(g::text) FROM generate_series(1, ?) AS g";
+		String suffix = " [" + resultRows + " row(s)]";
+		bench("executeQuery" + suffix, i -> _esql.executeQuery(rows, resultRows));
+		bench("exists" + suffix, i -> _esql.exists(rows, resultRows));
+		bench("count" + suffix, i -> _esql.count(rows, resultRows));
+		bench("executeQueryAndReturnResult" + suffix, i -> _esql.executeQueryAndReturnResult(rows, resultRows));
+		bench("executeQueryAndPrintResult" + suffix, i -> _esql.executeQueryAndPrintResult(rows, resultRows));
+		bench("executeQueryAndStream" + suffix, i -> _esql.executeQueryAndStream(rows, rs -> rs.getString(2), resultRows));
+	}
+
+	private static int[] parseList(String value){
+		String[] parts = value.split(",");
+		int[] out = new int[parts.length];
+		for(int i = 0; i < parts.length; ++i) out[i] = Integer.parseInt(parts[i].trim().replace("_", ""));
+		return out;
+	}
+
+	/**
+	 * The main execution method
+	 *
+	 * @param args <dbname> <port> <user> [--requests N,N,...] [--result-rows N,N,...]
+	 *             [--warmup N] [--iterations N] [--only name]
+	 */
+	public static void main(String[] args){
+		if(args.length < 3){
+			System.err.println("Usage: java [-classpath <classpath>] " + ShopBenchmark.class.getName()
+				+ " <dbname> <port> <user> [--requests N,N,...] [--result-rows N,N,...] [--warmup N] [--iterations N] [--only name]");
+			return;
+		}
+		int[] datasets = null;
+		int[] resultRows = { 1, 100, 10000 };
+		int warmup = 20, iterations = 100;
+		String only = null;
+		for(int i = 3; i < args.length; ++i){
+			if(args[i].equals("--requests") && i + 1 < args.length) datasets = parseList(args[++i]);
+			else if(args[i].equals("--result-rows") && i + 1 < args.length) resultRows = parseList(args[++i]);
+			else if(args[i].equals("--warmup") && i + 1 < args.length) warmup = Integer.parseInt(args[++i]);
+			else if(args[i].equals("--iterations") && i + 1 < args.length) iterations = Integer.parseInt(args[++i]);
+			else if(args[i].equals("--only") && i + 1 < args.length) only = args[++i];
+			else System.err.println("Ignoring unknown option " + args[i]);
+		}
+
+		PrintStream console = System.out;
+		MechanicShop esql = null;
+		try{
+			Class.forName("org.postgresql.Driver");
+			esql = new MechanicShop(args[0], args[1], args[2], "");
+			//the benchmark waits for nothing, so it never pages
+			esql.setOutputOptions(ResultPrinter.Format.TSV, 0, 0);
+			ShopBenchmark bench = new ShopBenchmark(esql, warmup, iterations, only, console);
+			int[] sizes = datasets == null ? new int[]{ 0 } : datasets;
+			for(int size : sizes){
+				if(size > 0){
+					console.println("Generating " + size + " service request(s)...");
+					DataGenerator.main(new String[]{ "--requests", Integer.toString(size), "--db", args[0], args[1], args[2], "--truncate" });
+				}
+				bench.sample();
+				console.println("------------------------------------------------");
+				console.println("Dataset: " + (size > 0 ? size + " service request(s)" : "as loaded")
+					+ ", " + bench._customers + " customer(s); warmup " + warmup + ", iterations " + iterations);
+				console.println("------------------------------------------------");
+				System.setOut(NULL_OUT);
+				try{
+					bench.menuOperations();
+					bench.helpers();
+					for(int n : resultRows) bench.helpers(n);
+				}finally{
+					System.setOut(console);
+				}
+			}
+			console.println(esql.getPool().getStatistics());
+		}catch(Exception e){
+			System.setOut(console);
+			System.err.println(e.getMessage());
+		}finally{
+			if(esql != null) esql.cleanup();
+		}
+	}
+}//end ShopBenchmark
@@ -0,0 +1,186 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+/**
+ * This class holds the read-through caches of the reference rows the
+ * front desk looks up again and again: customers by id and by last name,
+ * mechanics, cars, and the cars each customer owns.  ShopService keeps
+ * them current for its own writes.  When several programs share the
+ * database, load sql/cache_notify.sql and turn on the listener, which
+ * invalidates entries on the notifications its triggers send for every
+ * change, whoever made it.
+ *
+ */
+public class ShopCache implements AutoCloseable{
+	//channel the triggers of sql/cache_notify.sql notify on
+	static final String CHANNEL = "shop_cache";
+
+	final EntityCache<Integer, Customer> customers;
+	//keyed by the last name as typed, less the blanks CHAR comparison ignores
+	final EntityCache<String, List<Customer>> customersByLastName;
+	final EntityCache<Integer, Mechanic> mechanics;
+	final EntityCache<String, Car> cars;
+	//keyed by customer id
+	final EntityCache<Integer, List<Car>> carsOwnedBy;
+
+	private Thread _listener = null;
+	private volatile boolean _closed = false;
+	private long _notifications = 0;
+	private long _reconnects = 0;
+
+	public ShopCache(){
+		this(ShopConfig.cacheMaxEntries(), ShopConfig.cacheTtlMillis());
+	}
+
+	/**
+	 * @param capacity entries kept per cache, 0 to cache nothing
+	 * @param ttlMillis how long an entry is served after it was loaded
+	 */
+	public ShopCache(int capacity, long ttlMillis){
+		this.customers = new EntityCache<Integer, Customer>("customers", capacity, ttlMillis);
+		this.customersByLastName = new EntityCache<String, List<Customer>>("customers by last name", capacity, ttlMillis);
+		this.mechanics = new EntityCache<Integer, Mechanic>("mechanics", capacity, ttlMillis);
+		this.cars = new EntityCache<String, Car>("cars", capacity, ttlMillis);
+		this.carsOwnedBy = new EntityCache<Integer, List<Car>>("cars owned", capacity, ttlMillis);
+	}
+
+	void customerWritten(Customer c){
+		customers.put(c.id, c);
+		customersByLastName.invalidate(c.lname.stripTrailing());
+	}
+
+	void mechanicWritten(Mechanic m){
+		mechanics.put(m.id, m);
+	}
+
+	void carWritten(Car car){
+		cars.put(car.vin, car);
+	}
+
+	void ownershipWritten(int customerId){
+		carsOwnedBy.invalidate(customerId);
+	}
+
+	void invalidateAll(){
+		customers.invalidateAll();
+		customersByLastName.invalidateAll();
+		mechanics.invalidateAll();
+		cars.invalidateAll();
+		carsOwnedBy.invalidateAll();
+	}
+
+	/**
+	 * Method to apply one notification of sql/cache_notify.sql, whose
+	 * payload is "<table>:<key>".  A changed row may have moved between
+	 * last names or appear in ownership lists, so those caches are cleared.
+	 */
+	void apply(String payload){
+		int colon = payload.indexOf(':');
+		if(colon < 0){
+			invalidateAll();
+			return;
+		}
+		String table = payload.substring(0, colon);
+		String key = payload.substring(colon + 1);
+		try{
+			switch(table){
+				case "customer":
+					customers.invalidate(Integer.valueOf(key));
+					customersByLastName.invalidateAll();
+					break;
+				case "mechanic":
+					mechanics.invalidate(Integer.valueOf(key));
+					break;
+				case "car":
+					cars.invalidate(key);
+					carsOwnedBy.invalidateAll();
+					break;
+				case "owns":
+					carsOwnedBy.invalidate(Integer.valueOf(key));
+					break;
+				default:
+					invalidateAll();
+			}
+		}catch(NumberFormatException e){
+			invalidateAll();
+		}
+	}
+
+	/**
+	 * Method to start a daemon thread that LISTENs on a connection of its
+	 * own and applies the notifications.  If the connection is lost the
+	 * caches are cleared, since notifications may have been missed, and the
+	 * thread reconnects.
+	 *
+	 * @param pool the pool whose database to listen to
+	 * @param pollMillis how often to check for notifications
+	 */
+	public synchronized void listen(ConnectionPool pool, long pollMillis){
+		if(_listener != null) return;
+		_listener = new Thread(() -> {
+			while(!_closed){
+				try(Connection conn = pool.openDedicated(); Statement stmt = conn.createStatement()){
+					stmt.execute("LISTEN " + CHANNEL);
+					PGConnection pg = conn.unwrap(PGConnection.class);
+					while(!_closed){
+						//the driver only reads notifications while it talks to the server
+						stmt.execute("SELECT 1");
+						PGNotification[] received = pg.getNotifications();
+						if(received != null){
+							for(PGNotification n : received) apply(n.getParameter());
+							synchronized(this){
+								_notifications += received.length;
+							}
+						}
+						Thread.sleep(pollMillis);
+					}
+				}catch(InterruptedException e){
+					return;
+				}catch(SQLException e){
+					invalidateAll();
+					synchronized(this){
+						_reconnects++;
+					}
+					try{
+						Thread.sleep(Math.max(pollMillis, 1000L));
+					}catch(InterruptedException ie){
+						return;
+					}
+				}
+			}
+		}, "shop-cache-listener");
+		_listener.setDaemon(true);
+		_listener.start();
+	}
+
+	public List<EntityCache<?, ?>> getCaches(){
+		return List.of(customers, customersByLastName, mechanics, cars, carsOwnedBy);
+	}
+
+	public String getStatistics(){
+		StringBuilder sb = new StringBuilder();
+		for(EntityCache<?, ?> cache : getCaches())
+			sb.append(cache.getStatistics()).append('\n');
+		synchronized(this){
+			sb.append(_listener == null ? "listener off" : "listener: " + _notifications + " notification(s), " + _reconnects + " reconnect(s)");
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Method to stop the listener thread.
+	 */
+	public void close(){
+		_closed = true;
+		Thread listener;
+		synchronized(this){
+			listener = _listener;
+		}
+		if(listener != null) listener.interrupt();
+	}
+}//end ShopCache
@@ -0,0 +1,332 @@
+/**
+ * This class collects the tuning knobs of the MechanicShop client.  Every
+ * setting is read from a JVM system property (e.g. run with
+ * -Dmechanicshop.pool.maxSize=8) and falls back to the default given here.
+ *
+ */
+public class ShopConfig{
+	//prefix shared by every MechanicShop system property
+	static final String PREFIX = "mechanicshop.";
+
+	//maximum number of physical connections held by the pool
+	public static int poolMaxSize(){
+		return getInt("pool.maxSize", 4);
+	}
+
+	//how long a caller waits for a free connection before failing
+	public static long poolMaxWaitMillis(){
+		return getLong("pool.maxWaitMillis", 30000L);
+	}
+
+	//idle connections older than this are closed by the housekeeper
+	public static long poolIdleTimeoutMillis(){
+		return getLong("pool.idleTimeoutMillis", 600000L);
+	}
+
+	//connections are retired once they have been open this long
+	public static long poolMaxLifetimeMillis(){
+		return getLong("pool.maxLifetimeMillis", 1800000L);
+	}
+
+	//connections idle for less than this are handed out without a validation round trip
+	public static long poolValidationWindowMillis(){
+		return getLong("pool.validationWindowMillis", 500L);
+	}
+
+	//number of prepared statements kept open per connection
+	public static int statementCacheSize(){
+		return getInt("statementCache.size", 64);
+	}
+
+	//rows fetched per round trip when a query is streamed through a server-side cursor
+	public static int streamFetchSize(){
+		return getInt("stream.fetchSize", 1000);
+	}
+
+	//how executeQueryAndPrintResult renders rows: table, tsv or csv
+	public static String outputFormat(){
+		return getString("output.format", "tsv");
+	}
+
+	//maximum number of rows printed per query, 0 for no limit
+	public static int outputRowLimit(){
+		return getInt("output.rowLimit", 0);
+	}
+
+	//rows printed before asking for the next page, 0 to print without pausing
+	public static int outputPageSize(){
+		return getInt("output.pageSize", 0);
+	}
+
+	//report menu options read the trigger maintained aggregates of sql/reporting.sql
+	public static boolean reportsUseAggregates(){
+		return getBoolean("reports.useAggregates", false);
+	}
+
+	//total-bill and most-serviced-cars fold new rows into an aggregate kept in memory, see IncrementalReport; needs sql/report_changes.sql
+	public static boolean reportsIncremental(){
+		return getBoolean("reports.incremental", false);
+	}
+
+	//incremental reports read again sooner than this share the previous refresh
+	public static long reportsIncrementalMinRefreshMillis(){
+		return getLong("reports.incrementalMinRefreshMillis", 1000L);
+	}
+
+	//incremental reports are read in full this often, which picks up updates and deletes; Report_Change keeps twice this
+	public static long reportsIncrementalRebuildMillis(){
+		return getLong("reports.incrementalRebuildMillis", 3600000L);
+	}
+
+	//date windows with an incremental aggregate kept at once, least recently used dropped first
+	public static int reportsIncrementalMaxWindows(){
+		return getInt("reports.incrementalMaxWindows", 16);
+	}
+
+	//rows per report page when the caller does not say
+	public static int reportPageSize(){
+		return getInt("reports.pageSize", 50);
+	}
+
+	//largest report page a caller may ask for
+	public static int reportMaxPageSize(){
+		return getInt("reports.maxPageSize", 1000);
+	}
+
+	//largest K accepted by ListKCarsWithTheMostServices
+	public static int reportMaxK(){
+		return getInt("reports.maxK", 10000);
+	}
+
+	//candidates returned by the customer search when the caller does not say
+	public static int searchLimit(){
+		return getInt("search.limit", 10);
+	}
+
+	//most candidates a customer search may ask for
+	public static int searchMaxLimit(){
+		return getInt("search.maxLimit", 100);
+	}
+
+	//record every statement issued through the MechanicShop execute* helpers
+	public static boolean monitorEnabled(){
+		return getBoolean("monitor.enabled", true);
+	}
+
+	//also measure the rows of the streamed and mapped queries, which reads each value a second time as text
+	public static boolean monitorCountBytes(){
+		return getBoolean("monitor.countBytes", false);
+	}
+
+	//statements taking at least this long are logged with their bind values, negative for none
+	public static long monitorSlowQueryMillis(){
+		return getLong("monitor.slowQueryMillis", 1000L);
+	}
+
+	//file the slow queries are appended to, standard error when empty
+	public static String monitorSlowQueryLog(){
+		return getString("monitor.slowQueryLog", "");
+	}
+
+	//log the EXPLAIN plan of each slow query with it
+	public static boolean monitorExplainSlow(){
+		return getBoolean("monitor.explainSlow", false);
+	}
+
+	//file the query statistics are written to on exit, none when empty
+	public static String monitorExportFile(){
+		return getString("monitor.exportFile", "");
+	}
+
+	//prometheus or json
+	public static String monitorExportFormat(){
+		return getString("monitor.exportFormat", "prometheus");
+	}
+
+	//also write the statistics this often, 0 for only on exit
+	public static long monitorExportIntervalMillis(){
+		return getLong("monitor.exportIntervalMillis", 0L);
+	}
+
+	//TCP port the HTTP server mode listens on
+	public static int serverPort(){
+		return getInt("server.port", 8080);
+	}
+
+	//rows kept per entity cache, 0 disables the caches
+	public static int cacheMaxEntries(){
+		return getInt("cache.maxEntries", 10000);
+	}
+
+	//how long a cached row is served before it is read again
+	public static long cacheTtlMillis(){
+		return getLong("cache.ttlMillis", 60000L);
+	}
+
+	//invalidate the caches on the notifications of sql/cache_notify.sql
+	public static boolean cacheListen(){
+		return getBoolean("cache.listen", false);
+	}
+
+	//how often the cache listener checks for notifications
+	public static long cacheListenPollMillis(){
+		return getLong("cache.listenPollMillis", 250L);
+	}
+
+	//surrogate keys reserved from a sequence per round trip
+	public static int keyBlockSize(){
+		return getInt("keys.blockSize", 20);
+	}
+
+	//times an operation is retried after a serialization failure or deadlock
+	public static int serializationRetries(){
+		return getInt("txn.serializationRetries", 3);
+	}
+
+	//shop operations running against the database at once
+	public static int executorMaxConcurrent(){
+		return getInt("executor.maxConcurrent", poolMaxSize());
+	}
+
+	//operations allowed to wait for a slot before new ones are rejected
+	public static int executorMaxQueued(){
+		return getInt("executor.maxQueued", 128);
+	}
+
+	//how long a waiting operation may wait for a slot before it is shed
+	public static long executorMaxQueueWaitMillis(){
+		return getLong("executor.maxQueueWaitMillis", 2000L);
+	}
+
+	//seconds a statement of an operation may run before it is cancelled, 0 for no limit
+	public static int executorQueryTimeoutSeconds(){
+		return getInt("executor.queryTimeoutSeconds", 30);
+	}
+
+	//how often the month partitions of sql/partition.sql are created ahead, 0 to never
+	public static long partitionsMaintainIntervalMillis(){
+		return getLong("partitions.maintainIntervalMillis", 21600000L);
+	}
+
+	//months after the current one that get their partitions ahead of time
+	public static int partitionsMonthsAhead(){
+		return getInt("partitions.monthsAhead", 3);
+	}
+
+	//months of requests kept before older ones are archived, 0 to keep everything
+	public static int partitionsRetainMonths(){
+		return getInt("partitions.retainMonths", 0);
+	}
+
+	//InsertServiceRequest hands requests to IntakeQueue and returns a ticket at once
+	public static boolean intakeEnabled(){
+		return getBoolean("intake.enabled", false);
+	}
+
+	//write-ahead file the queued requests are kept in until they are stored
+	public static String intakeFile(){
+		return getString("intake.file", "intake.wal");
+	}
+
+	//force every append to the write-ahead file to disk before the ticket is returned
+	public static boolean intakeSync(){
+		return getBoolean("intake.sync", true);
+	}
+
+	//most requests written by one statement
+	public static int intakeBatchSize(){
+		return getInt("intake.batchSize", 100);
+	}
+
+	//how long the writer waits for a batch to fill up
+	public static long intakeFlushMillis(){
+		return getLong("intake.flushMillis", 200L);
+	}
+
+	//longest wait between two attempts to write a batch while the database is unavailable
+	public static long intakeRetryMaxMillis(){
+		return getLong("intake.retryMaxMillis", 30000L);
+	}
+
+	//the write-ahead file is emptied once nothing is pending and it has grown past this
+	public static long intakeCompactBytes(){
+		return getLong("intake.compactBytes", 1L << 20);
+	}
+
+	//finished tickets whose status can still be asked for
+	public static int intakeRememberTickets(){
+		return getInt("intake.rememberTickets", 10000);
+	}
+
+	//most-serviced-cars over all dates is answered from the TopCars summary when it can be
+	public static boolean topCarsEnabled(){
+		return getBoolean("topCars.enabled", false);
+	}
+
+	//largest K answered from the summary; it keeps twice as many cars
+	public static int topCarsMaxK(){
+		return getInt("topCars.maxK", 100);
+	}
+
+	//counters per row of the count-min sketch of the cars not kept
+	public static int topCarsSketchWidth(){
+		return getInt("topCars.sketchWidth", 1 << 15);
+	}
+
+	//rows of the count-min sketch
+	public static int topCarsSketchDepth(){
+		return getInt("topCars.sketchDepth", 4);
+	}
+
+	//time between comparisons of the summary with the query, 0 for none
+	public static long topCarsReconcileMillis(){
+		return getLong("topCars.reconcileMillis", 600000L);
+	}
+
+	//the reports are answered from the ColumnarSnapshot copy of the tables
+	public static boolean snapshotEnabled(){
+		return getBoolean("snapshot.enabled", false);
+	}
+
+	//time between refreshes of the snapshot, 0 to refresh on demand only
+	public static long snapshotRefreshMillis(){
+		return getLong("snapshot.refreshMillis", 300000L);
+	}
+
+	//sorted report results kept per snapshot, by report and date window
+	public static int snapshotMaxResults(){
+		return getInt("snapshot.maxResults", 16);
+	}
+
+	static String getString(String key, String def){
+		String value = System.getProperty(PREFIX + key);
+		return (value == null || value.trim().isEmpty()) ? def : value.trim();
+	}
+
+	static int getInt(String key, int def){
+		String value = getString(key, null);
+		if(value == null) return def;
+		try{
+			return Integer.parseInt(value);
+		}catch(NumberFormatException e){
+			System.err.println("Ignoring invalid value for " + PREFIX + key + ": " + value);
+			return def;
+		}
+	}
+
+	static long getLong(String key, long def){
+		String value = getString(key, null);
+		if(value == null) return def;
+		try{
+			return Long.parseLong(value);
+		}catch(NumberFormatException e){
+			System.err.println("Ignoring invalid value for " + PREFIX + key + ": " + value);
+			return def;
+		}
+	}
+
+	static boolean getBoolean(String key, boolean def){
+		String value = getString(key, null);
+		return value == null ? def : Boolean.parseBoolean(value);
+	}
+}//end ShopConfig
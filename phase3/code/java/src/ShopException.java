@@ -0,0 +1,30 @@
+/**
+ * This class is a request the shop turns down because of what was asked:
+ * input that breaks a rule of Validators, a row it refers to that does not
+ * exist, or a conflict with a row already stored.  Its message is meant
+ * for the user.  ShopServer answers it with 400, or 409 for a conflict;
+ * any other exception is a fault of the shop itself.
+ *
+ */
+public class ShopException extends RuntimeException{
+	private static final long serialVersionUID = 1L;
+
+	//whether the request clashes with stored state rather than being invalid
+	public final boolean conflict;
+
+	public ShopException(String message){
+		this(message, false);
+	}
+
+	private ShopException(String message, boolean conflict){
+		super(message);
+		this.conflict = conflict;
+	}
+
+	/**
+	 * @return an exception for a row that already exists or was already changed
+	 */
+	public static ShopException conflict(String message){
+		return new ShopException(message, true);
+	}
+}//end ShopException
@@ -0,0 +1,293 @@
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class runs shop operations concurrently with admission control.
+ * Each submitted operation gets a thread of its own (a virtual thread
+ * when the JVM has them), but only as many operations as the connection
+ * pool has connections run against the database at once; the rest wait
+ * for a slot.  Once too many are waiting, or one has waited too long, new
+ * work is turned away with a RejectedExecutionException so a saturated
+ * database sheds load instead of building an unbounded backlog.  Every
+ * statement an operation issues is bounded by Statement.setQueryTimeout.
+ *
+ */
+public class ShopExecutor implements AutoCloseable{
+	//SQLState reported when a statement is cancelled by its timeout
+	static final String QUERY_CANCELED = "57014";
+
+	/**
+	 * A unit of work against the shop.
+	 */
+	interface Operation<T>{
+		T run(ShopService service) throws Exception;
+	}
+
+	private final ShopService _service;
+	private final ExecutorService _threads;
+	private final boolean _virtual;
+	private final Semaphore _slots;
+	private final int _maxConcurrent;
+	private final int _maxQueued;
+	private final long _maxQueueWaitMillis;
+	private final int _queryTimeoutSeconds;
+
+	private final AtomicInteger _queued = new AtomicInteger();
+	private final AtomicInteger _inFlight = new AtomicInteger();
+	private final AtomicLong _completed = new AtomicLong();
+	private final AtomicLong _failed = new AtomicLong();
+	private final AtomicLong _timedOut = new AtomicLong();
+	private final AtomicLong _rejected = new AtomicLong();
+	private final AtomicLong _shed = new AtomicLong();
+	private final Map<String, LatencyHistogram> _latency = new ConcurrentHashMap<String, LatencyHistogram>();
+
+	public ShopExecutor(ShopService service){
+		this(service, ShopConfig.executorMaxConcurrent(), ShopConfig.executorMaxQueued(),
+			ShopConfig.executorMaxQueueWaitMillis(), ShopConfig.executorQueryTimeoutSeconds());
+	}
+
+	/**
+	 * @param service the operations to run
+	 * @param maxConcurrent operations running at once, normally the pool size
+	 * @param maxQueued operations allowed to wait for a slot
+	 * @param maxQueueWaitMillis how long one may wait before it is shed
+	 * @param queryTimeoutSeconds default statement timeout, 0 for none
+	 */
+	public ShopExecutor(ShopService service, int maxConcurrent, int maxQueued, long maxQueueWaitMillis, int queryTimeoutSeconds){
+		if(maxConcurrent <= 0) throw new IllegalArgumentException("Concurrency must be positive");
+		this._service = service;
+		this._maxConcurrent = maxConcurrent;
+		this._maxQueued = Math.max(0, maxQueued);
+		this._maxQueueWaitMillis = maxQueueWaitMillis;
+		this._queryTimeoutSeconds = queryTimeoutSeconds;
+		this._slots = new Semaphore(maxConcurrent, true);
+		ExecutorService virtual = newVirtualThreadExecutor();
+		this._virtual = virtual != null;
+		this._threads = virtual != null ? virtual : Executors.newCachedThreadPool(r -> {
+			Thread t = new Thread(r, "shop-op");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * Method to create a thread-per-task executor of virtual threads.  They
+	 * need Java 21, so the factory is looked up reflectively and the caller
+	 * falls back to platform threads on older runtimes.
+	 *
+	 * @return the executor, or null when virtual threads are unavailable
+	 */
+	static ExecutorService newVirtualThreadExecutor(){
+		try{
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		}catch(ReflectiveOperationException | RuntimeException e){
+			return null;
+		}
+	}
+
+	public ShopService getService(){
+		return _service;
+	}
+
+	/**
+	 * @return the thread-per-task executor operations are started on
+	 */
+	public ExecutorService getThreads(){
+		return _threads;
+	}
+
+	public <T> CompletableFuture<T> submit(String operation, Operation<T> op){
+		return submit(operation, _queryTimeoutSeconds, op);
+	}
+
+	/**
+	 * Method to run an operation on its own thread.
+	 *
+	 * @param operation the name its latency is recorded under
+	 * @param queryTimeoutSeconds statement timeout for this operation, 0 for none
+	 * @param op the work
+	 * @return completes with the result, or exceptionally with the failure
+	 *         or a RejectedExecutionException when the shop is saturated
+	 */
+	public <T> CompletableFuture<T> submit(String operation, int queryTimeoutSeconds, Operation<T> op){
+		CompletableFuture<T> future = new CompletableFuture<T>();
+		try{
+			enqueue();
+		}catch(RejectedExecutionException e){
+			future.completeExceptionally(e);
+			return future;
+		}
+		try{
+			_threads.execute(() -> {
+				try{
+					future.complete(runQueued(operation, queryTimeoutSeconds, op));
+				}catch(Throwable t){
+					future.completeExceptionally(t);
+				}
+			});
+		}catch(RejectedExecutionException e){
+			_queued.decrementAndGet();
+			_rejected.incrementAndGet();
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	public <T> T call(String operation, Operation<T> op) throws Exception {
+		return call(operation, _queryTimeoutSeconds, op);
+	}
+
+	/**
+	 * Method to run an operation on the calling thread under the same
+	 * admission control as submit, for callers that already have a thread
+	 * per request (such as the HTTP server).
+	 */
+	public <T> T call(String operation, int queryTimeoutSeconds, Operation<T> op) throws Exception {
+		enqueue();
+		return runQueued(operation, queryTimeoutSeconds, op);
+	}
+
+	/**
+	 * Method to wait for a submitted operation and rethrow its own failure.
+	 */
+	public static <T> T await(CompletableFuture<T> future) throws Exception {
+		try{
+			return future.get();
+		}catch(ExecutionException e){
+			Throwable cause = e.getCause();
+			if(cause instanceof Exception) throw (Exception) cause;
+			if(cause instanceof Error) throw (Error) cause;
+			throw e;
+		}
+	}
+
+	//claims a place in the queue or rejects the operation outright
+	private void enqueue(){
+		if(_queued.incrementAndGet() > _maxQueued + _slots.availablePermits()){
+			_queued.decrementAndGet();
+			_rejected.incrementAndGet();
+			throw new RejectedExecutionException("Shop is saturated: " + _inFlight.get() + " operation(s) running, "
+				+ _maxQueued + " waiting");
+		}
+	}
+
+	private <T> T runQueued(String operation, int queryTimeoutSeconds, Operation<T> op) throws Exception {
+		long start = System.nanoTime();
+		boolean admitted = false;
+		try{
+			admitted = _slots.tryAcquire(_maxQueueWaitMillis, TimeUnit.MILLISECONDS);
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+		}finally{
+			_queued.decrementAndGet();
+		}
+		if(!admitted){
+			_shed.incrementAndGet();
+			throw new RejectedExecutionException("Waited more than " + _maxQueueWaitMillis + "ms for a database slot");
+		}
+		_inFlight.incrementAndGet();
+		MechanicShop.setQueryTimeout(queryTimeoutSeconds);
+		String previous = QueryMonitor.setOperation(operation);
+		try{
+			T result = op.run(_service);
+			_completed.incrementAndGet();
+			return result;
+		}catch(SQLException e){
+			if(QUERY_CANCELED.equals(e.getSQLState())) _timedOut.incrementAndGet();
+			_failed.incrementAndGet();
+			throw e;
+		}catch(Exception | Error e){
+			_failed.incrementAndGet();
+			throw e;
+		}finally{
+			QueryMonitor.setOperation(previous);
+			MechanicShop.setQueryTimeout(0);
+			_inFlight.decrementAndGet();
+			_slots.release();
+			_latency.computeIfAbsent(operation, k -> new LatencyHistogram()).recordNanos(System.nanoTime() - start);
+		}
+	}
+
+	public boolean usesVirtualThreads(){
+		return _virtual;
+	}
+
+	public int getMaxConcurrent(){
+		return _maxConcurrent;
+	}
+
+	public int getMaxQueued(){
+		return _maxQueued;
+	}
+
+	//operations waiting for a slot
+	public int getQueueDepth(){
+		return Math.max(0, _queued.get());
+	}
+
+	public int getInFlight(){
+		return _inFlight.get();
+	}
+
+	public long getCompleted(){
+		return _completed.get();
+	}
+
+	public long getFailed(){
+		return _failed.get();
+	}
+
+	//statements cancelled by their query timeout
+	public long getTimedOut(){
+		return _timedOut.get();
+	}
+
+	//operations turned away because the queue was full
+	public long getRejected(){
+		return _rejected.get();
+	}
+
+	//operations that gave up after waiting too long for a slot
+	public long getShed(){
+		return _shed.get();
+	}
+
+	/**
+	 * @return latency of each operation name, including the time spent waiting for a slot
+	 */
+	public Map<String, LatencyHistogram> getLatencies(){
+		return _latency;
+	}
+
+	public String getStatistics(){
+		StringBuilder sb = new StringBuilder(String.format("executor: %s threads, %d in flight (max %d), %d queued (max %d); "
+			+ "%d completed, %d failed, %d timed out, %d rejected, %d shed",
+			_virtual ? "virtual" : "platform", getInFlight(), _maxConcurrent, getQueueDepth(), _maxQueued,
+			getCompleted(), getFailed(), getTimedOut(), getRejected(), getShed()));
+		for(Map.Entry<String, LatencyHistogram> e : new java.util.TreeMap<String, LatencyHistogram>(_latency).entrySet())
+			sb.append(String.format("%n\t%-36s %s", e.getKey(), e.getValue().getSummary()));
+		return sb.toString();
+	}
+
+	/**
+	 * Method to stop accepting work and wait for running operations.
+	 */
+	public void close(){
+		_threads.shutdown();
+		try{
+			_threads.awaitTermination(30, TimeUnit.SECONDS);
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+	}
+}//end ShopExecutor
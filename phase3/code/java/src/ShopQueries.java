@@ -0,0 +1,82 @@
+/**
+ * This class holds the SQL issued by the data entry menu options (1-5).
+ * Inserts return the stored row so that it can be shown without a second
+ * round trip.  The report queries live in ReportQueries.
+ *
+ */
+public class ShopQueries{
+
+	//1. AddCustomer
+	static final String INSERT_CUSTOMER = "INSERT INTO Customer (id, fname, lname, phone, address) VALUES (?, ?, ?, ?, ?) RETURNING *;";
+	static final String CUSTOMER_BY_ID = "SELECT * FROM Customer WHERE id = ?;";
+
+	//2. AddMechanic
+	static final String INSERT_MECHANIC = "INSERT INTO Mechanic (id, fname, lname, experience) VALUES (?, ?, ?, ?) RETURNING *;";
+	static final String MECHANIC_BY_ID = "SELECT * FROM Mechanic WHERE id = ?;";
+
+	//3. AddCar
+	static final String INSERT_CAR = "INSERT INTO Car (vin, make, model, year) VALUES (?, ?, ?, ?) RETURNING *;";
+	static final String CAR_BY_VIN = "SELECT * FROM Car WHERE vin = ?";
+
+	//4. InsertServiceRequest
+	static final String CUSTOMER_BY_LNAME = "SELECT * FROM Customer WHERE lname = ?;";
+	//customer search over the indexes of sql/search.sql: the first prefix matches in index order, then the
+	//nearest trigram matches.  parameters: text, prefix, end of the prefix range, limit, text, text, text, limit
+	static final String SEARCH_CUSTOMERS =
+		"(SELECT *, 0 AS tier, similarity(lower(lname), ?) AS score FROM Customer "
+		+ "WHERE lower(lname) ~>=~ ? AND lower(lname) ~<~ ? ORDER BY lower(lname) USING ~<~, id LIMIT ?) "
+		+ "UNION ALL "
+		+ "(SELECT *, 1, similarity(lower(lname), ?) FROM Customer WHERE lower(lname) % ? ORDER BY lower(lname) <-> ?, id LIMIT ?);";
+	//the same without pg_trgm.  parameters: prefix, end of the prefix range, limit
+	static final String SEARCH_CUSTOMERS_BY_PREFIX =
+		"SELECT *, 0 AS tier, 0 AS score FROM Customer "
+		+ "WHERE lower(lname) ~>=~ ? AND lower(lname) ~<~ ? ORDER BY lower(lname) USING ~<~, id LIMIT ?;";
+	static final String CARS_OWNED_BY = "SELECT C.* FROM Owns AS O, Car AS C WHERE O.car_vin = C.vin AND O.customer_id = ? ORDER BY C.vin;";
+	static final String INSERT_OWNS = "INSERT INTO Owns (customer_id, car_vin) VALUES (?, ?) RETURNING ownership_id;";
+	//one statement: share-locks the ownership so it cannot vanish, draws rid from its sequence and inserts;
+	//no row comes back when the customer does not own the car
+	static final String INSERT_SERVICE_REQUEST =
+		"INSERT INTO Service_Request (rid, customer_id, car_vin, date, odometer, complain) "
+		+ "SELECT nextval('service_request_rid_seq'), O.customer_id, O.car_vin, CAST(? AS DATE), CAST(? AS INTEGER), CAST(? AS TEXT) "
+		+ "FROM (SELECT customer_id, car_vin FROM Owns WHERE customer_id = ? AND car_vin = ? LIMIT 1 FOR KEY SHARE) AS O "
+		+ "RETURNING *;";
+	static final String SERVICE_REQUEST_BY_RID = "SELECT * FROM Service_Request WHERE rid = ?;";
+	//IntakeQueue: one batch of requests with their keys already assigned, passed as arrays.  Rows
+	//already stored by an earlier attempt are left alone, so a batch may be written again.  One row
+	//back per request: whether it was inserted now and whether the customer owns the car.
+	static final String INSERT_SERVICE_REQUEST_BATCH =
+		"WITH v AS (SELECT * FROM unnest(CAST(? AS INTEGER[]), CAST(? AS INTEGER[]), CAST(? AS VARCHAR[]), "
+		+ "CAST(? AS DATE[]), CAST(? AS INTEGER[]), CAST(? AS TEXT[])) AS v (rid, customer_id, car_vin, date, odometer, complain)), "
+		+ "ins AS (INSERT INTO Service_Request (rid, customer_id, car_vin, date, odometer, complain) "
+		+ "SELECT v.rid, O.customer_id, O.car_vin, v.date, v.odometer, v.complain FROM v CROSS JOIN LATERAL "
+		+ "(SELECT customer_id, car_vin FROM Owns WHERE customer_id = v.customer_id AND car_vin = v.car_vin LIMIT 1 FOR KEY SHARE) AS O "
+		+ "ON CONFLICT (rid, date) DO NOTHING RETURNING rid) "
+		+ "SELECT v.rid, EXISTS (SELECT 1 FROM ins WHERE ins.rid = v.rid) AS inserted, "
+		+ "EXISTS (SELECT 1 FROM Owns WHERE customer_id = v.customer_id AND car_vin = v.car_vin) AS owned FROM v;";
+
+	//5. CloseServiceRequest
+	//one statement: key-share locks the request and the mechanic, checks the closing date and inserts
+	//unless the request is already closed.  Always returns one row; wid is null when nothing was
+	//inserted and the found/date columns tell why.
+	//parameters: rid, mid, wid, closing date, comment, bill, closing date
+	static final String CLOSE_SERVICE_REQUEST =
+		"WITH req AS (SELECT rid, date FROM Service_Request WHERE rid = ? FOR KEY SHARE), "
+		+ "mech AS (SELECT id FROM Mechanic WHERE id = ? FOR KEY SHARE), "
+		+ "ins AS (INSERT INTO Closed_Request (wid, rid, mid, date, comment, bill, request_date) "
+		+ "SELECT CAST(? AS INTEGER), req.rid, mech.id, CAST(? AS DATE), CAST(? AS TEXT), CAST(? AS INTEGER), req.date "
+		+ "FROM req, mech WHERE req.date <= CAST(? AS DATE) "
+		+ "ON CONFLICT (rid, request_date) DO NOTHING RETURNING *) "
+		+ "SELECT ins.*, (SELECT COUNT(*) FROM req) AS request_found, (SELECT COUNT(*) FROM mech) AS mechanic_found, "
+		+ "(SELECT date FROM req) AS req_date "
+		+ "FROM (SELECT 1) AS one LEFT JOIN ins ON true;";
+	static final String CLOSED_REQUEST_BY_RID = "SELECT * FROM Closed_Request WHERE rid = ?;";
+
+	//sql/partition.sql: the month partitions of both request tables from the month of one date through another
+	static final String ENSURE_MONTH_PARTITIONS = "SELECT ensure_month_partitions(CAST(? AS DATE), CAST(? AS DATE));";
+	//detaches the months ending on or before a date into shop_archive, one row per table moved
+	static final String ARCHIVE_MONTH_PARTITIONS = "SELECT * FROM archive_month_partitions(CAST(? AS DATE));";
+
+	//moves the key sequences of sql/sequences.sql past bulk loaded keys, if they are installed
+	static final String SYNC_KEY_SEQUENCES =
+		"DO $$ BEGIN PERFORM sync_key_sequences(); EXCEPTION WHEN undefined_function THEN NULL; END $$";
+}//end ShopQueries
@@ -0,0 +1,575 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class serves the shop operations over HTTP with JSON bodies, using
+ * the HTTP server built into the JDK.  Every endpoint is a thin adapter
+ * over ShopService, so the server shares the connection pool and the
+ * prepared statement caches of one MechanicShop client.
+ *
+ * Every exchange gets a thread of its own from a ShopExecutor, which
+ * admits only as many requests to the database as the connection pool
+ * has connections.  When too many are waiting the request is answered at
+ * once with 503 instead of piling up, so a load test sees the shop
+ * saturate rather than time out.  Latencies are recorded per endpoint and
+ * served by GET /metrics.
+ *
+ *	POST /customers                 {["id",] "fname", "lname", "phone", "address"}
+ *	GET  /customers?lname=...
+ *	GET  /customers/search?q=...[&limit=10]   prefix and similar last names, best first
+ *	GET  /customers/{id}
+ *	GET  /customers/{id}/cars
+ *	POST /mechanics                 {["id",] "fname", "lname", "experience"}
+ *	GET  /mechanics/{id}
+ *	POST /cars                      {"vin", "make", "model", "year"}
+ *	GET  /cars/{vin}
+ *	POST /service-requests          {"customer_id", "car_vin", "odometer", "complain" [, "date"]}
+ *	POST /service-requests/intake   {"customer_id", "car_vin", "odometer", "complain" [, "date"] [, "idempotency_key"]}
+ *	GET  /service-requests/intake/{ticket}
+ *	GET  /service-requests/{rid}
+ *	POST /service-requests/{rid}/close  {["wid",] "mid", "comment", "bill" [, "date"]}
+ *
+ * Keys left out of a POST body are assigned from their sequences.
+ *	GET  /reports/bill-less-than-100
+ *	GET  /reports/more-than-20-cars
+ *	GET  /reports/cars-before-1995
+ *	GET  /reports/most-serviced-cars?k=10
+ *	GET  /reports/total-bill
+ *	GET  /metrics
+ *	POST /snapshot/refresh
+ *
+ * Reports are answered a page at a time ([?page_size=N] [&limit=N]); a
+ * page that is not the last carries a "next" cursor, passed back as
+ * ?after=... to read the following one.  All but more-than-20-cars take
+ * [&from=yyyy-mm-dd] [&until=yyyy-mm-dd] to count only the requests made
+ * in those days, until excluded.  Started with --incremental, total-bill and
+ * most-serviced-cars are answered from aggregates kept in memory that
+ * each first page brings up to date with the rows added since.
+ *
+ * Started with --intake, POST /service-requests/intake answers 202 as soon
+ * as the request is in the write-ahead file of IntakeQueue, with a ticket
+ * whose status is polled until it is WRITTEN or REJECTED.  Started with
+ * --top-cars, most-serviced-cars over all dates with k up to
+ * mechanicshop.topCars.maxK is answered from the summary of TopCars.
+ * Started with --snapshot, every report is answered from the copy of the
+ * tables in ColumnarSnapshot, as of its last refresh; POST /snapshot/refresh
+ * reads them again and answers with the rows and bytes of the new copy.
+ *
+ */
+public class ShopServer{
+
+	/**
+	 * One endpoint's work: turns the path and query parameters and the
+	 * parsed request body into a JSON-serializable result.
+	 */
+	interface Action{
+		Object run(Map<String, String> params, Map<String, Object> body) throws Exception;
+	}
+
+	/**
+	 * An error that maps onto an HTTP status code.
+	 */
+	static class HttpError extends RuntimeException{
+		private static final long serialVersionUID = 1L;
+
+		final int status;
+
+		HttpError(int status, String message){
+			super(message);
+			this.status = status;
+		}
+	}
+
+	/**
+	 * A method and path template (e.g. "/customers/{id}") with its action
+	 * and the statistics kept for it.
+	 */
+	static class Endpoint{
+		final String method;
+		final String[] parts;
+		final int status;
+		//whether the action runs under the executor's admission control
+		final boolean database;
+		final Action action;
+		final String name;
+		final LatencyHistogram latency = new LatencyHistogram();
+		final AtomicLong errors = new AtomicLong();
+
+		Endpoint(String method, String template, int status, boolean database, Action action){
+			this.method = method;
+			this.parts = split(template);
+			this.status = status;
+			this.database = database;
+			this.action = action;
+			this.name = method + " " + template;
+		}
+
+		//binds the {name} segments into params; false if the path does not match
+		boolean matches(String method, String[] path, Map<String, String> params){
+			if(!this.method.equals(method) || path.length != parts.length) return false;
+			for(int i = 0; i < parts.length; ++i){
+				if(parts[i].startsWith("{")) params.put(parts[i].substring(1, parts[i].length() - 1), path[i]);
+				else if(!parts[i].equals(path[i])) return false;
+			}
+			return true;
+		}
+	}
+
+	private final ShopService _service;
+	private final ShopExecutor _executor;
+	private final List<Endpoint> _endpoints = new ArrayList<Endpoint>();
+	private final HttpServer _http;
+	private final AtomicLong _notFound = new AtomicLong();
+	private final long _startedAt = System.currentTimeMillis();
+
+	public ShopServer(ShopExecutor executor, int port) throws IOException {
+		this._executor = executor;
+		this._service = executor.getService();
+		registerEndpoints();
+		this._http = HttpServer.create(new InetSocketAddress(port), 0);
+		this._http.createContext("/", this::handle);
+		this._http.setExecutor(executor.getThreads());
+	}
+
+	public void start(){
+		_http.start();
+	}
+
+	/**
+	 * Method to stop accepting requests and finish the ones in flight.
+	 *
+	 * @param graceSeconds how long in-flight exchanges are given to finish
+	 */
+	public void stop(int graceSeconds){
+		_http.stop(graceSeconds);
+	}
+
+	private void route(String method, String template, int status, Action action){
+		_endpoints.add(new Endpoint(method, template, status, true, action));
+	}
+
+	private void registerEndpoints(){
+		route("POST", "/customers", 201, (p, b) -> json(_service.addCustomer(new Customer(
+			optionalIntField(b, "id"), textField(b, "fname"), textField(b, "lname"), textField(b, "phone"), textField(b, "address")))));
+		route("GET", "/customers", 200, (p, b) -> {
+			List<Object> result = new ArrayList<Object>();
+			for(Customer c : _service.findCustomersByLastName(required(p, "lname"))) result.add(json(c));
+			return result;
+		});
+		route("GET", "/customers/search", 200, (p, b) -> {
+			List<Object> result = new ArrayList<Object>();
+			int limit = p.containsKey("limit") ? intParam(p, "limit") : ShopConfig.searchLimit();
+			for(Customer c : _service.searchCustomers(required(p, "q"), limit)) result.add(json(c));
+			return result;
+		});
+		route("GET", "/customers/{id}", 200, (p, b) -> json(found(_service.getCustomer(intParam(p, "id")))));
+		route("GET", "/customers/{id}/cars", 200, (p, b) -> {
+			List<Object> result = new ArrayList<Object>();
+			for(Car c : _service.carsOwnedBy(intParam(p, "id"))) result.add(json(c));
+			return result;
+		});
+		route("POST", "/mechanics", 201, (p, b) -> json(_service.addMechanic(new Mechanic(
+			optionalIntField(b, "id"), textField(b, "fname"), textField(b, "lname"), intField(b, "experience")))));
+		route("GET", "/mechanics/{id}", 200, (p, b) -> json(found(_service.getMechanic(intParam(p, "id")))));
+		route("POST", "/cars", 201, (p, b) -> json(_service.addCar(new Car(
+			textField(b, "vin"), textField(b, "make"), textField(b, "model"), intField(b, "year")))));
+		route("GET", "/cars/{vin}", 200, (p, b) -> json(found(_service.getCar(p.get("vin")))));
+		route("POST", "/service-requests", 201, (p, b) -> json(_service.openServiceRequest(new ServiceRequest(
+			null, intField(b, "customer_id"), textField(b, "car_vin"), dateField(b, "date"),
+			intField(b, "odometer"), textField(b, "complain")))));
+		route("POST", "/service-requests/intake", 202, (p, b) -> json(intake().submit(new ServiceRequest(
+			null, intField(b, "customer_id"), textField(b, "car_vin"), dateField(b, "date"),
+			intField(b, "odometer"), textField(b, "complain")), textField(b, "idempotency_key"))));
+		route("GET", "/service-requests/intake/{ticket}", 200, (p, b) -> json(found(intake().ticket(intParam(p, "ticket")))));
+		route("GET", "/service-requests/{rid}", 200, (p, b) -> json(found(_service.getServiceRequest(intParam(p, "rid")))));
+		route("POST", "/service-requests/{rid}/close", 201, (p, b) -> json(_service.closeServiceRequest(new ClosedRequest(
+			optionalIntField(b, "wid"), intParam(p, "rid"), intField(b, "mid"), dateField(b, "date"),
+			textField(b, "comment"), intField(b, "bill")))));
+		for(ReportQueries.Report report : ReportQueries.Report.values())
+			route("GET", "/reports/" + report.path, 200, (p, b) -> page(report, p));
+		route("POST", "/snapshot/refresh", 200, (p, b) -> {
+			ColumnarSnapshot snapshot = found(_service.getSnapshot());
+			snapshot.refresh();
+			Map<String, Object> result = new LinkedHashMap<String, Object>();
+			result.put("bytes", snapshot.getFootprintBytes());
+			result.put("statistics", snapshot.getStatistics());
+			return result;
+		});
+		_endpoints.add(new Endpoint("GET", "/metrics", 200, false, (p, b) -> metrics()));
+	}
+
+	/**
+	 * Method to serve one exchange: find the endpoint, run it, write the
+	 * JSON answer and record how long it took.
+	 */
+	void handle(HttpExchange exchange) throws IOException {
+		long start = System.nanoTime();
+		try{
+			Map<String, String> params = new HashMap<String, String>();
+			String[] path = split(exchange.getRequestURI().getPath());
+			Endpoint endpoint = null;
+			for(Endpoint e : _endpoints){
+				if(e.matches(exchange.getRequestMethod(), path, params)){
+					endpoint = e;
+					break;
+				}
+				params.clear();
+			}
+			if(endpoint == null){
+				_notFound.incrementAndGet();
+				respond(exchange, 404, error("No such endpoint: " + exchange.getRequestMethod() + " " + exchange.getRequestURI().getPath()));
+				return;
+			}
+			int status = endpoint.status;
+			Object result;
+			try{
+				query(exchange.getRequestURI().getRawQuery(), params);
+				Map<String, Object> body = body(exchange);
+				Endpoint e = endpoint;
+				result = e.database ? _executor.call(e.name, s -> e.action.run(params, body)) : e.action.run(params, body);
+			}catch(Exception e){
+				status = statusOf(e);
+				//anything else is a fault of the server, worth a stack trace
+				if(status == 500 && !(e instanceof SQLException)) e.printStackTrace();
+				if(status == 503) exchange.getResponseHeaders().set("Retry-After", "1");
+				result = error(e.getMessage());
+				endpoint.errors.incrementAndGet();
+			}
+			respond(exchange, status, result);
+			endpoint.latency.recordNanos(System.nanoTime() - start);
+		}finally{
+			exchange.close();
+		}
+	}
+
+	static int statusOf(Exception e){
+		if(e instanceof HttpError) return ((HttpError) e).status;
+		if(e instanceof ShopException) return ((ShopException) e).conflict ? 409 : 400;
+		//a number that does not parse here was stored, not typed; the parameters are checked in param()
+		if(e instanceof IllegalArgumentException && !(e instanceof NumberFormatException)) return 400;
+		if(e instanceof RejectedExecutionException) return 503;
+		if(e instanceof SQLException){
+			String state = ((SQLException) e).getSQLState();
+			//class 08 is raised by the pool when no connection could be had
+			if(state != null && state.startsWith("08")) return 503;
+			return ShopExecutor.QUERY_CANCELED.equals(state) ? 503 : 500;
+		}
+		return 500;
+	}
+
+	static void respond(HttpExchange exchange, int status, Object result) throws IOException {
+		byte[] bytes = Json.write(result).getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try(OutputStream out = exchange.getResponseBody()){
+			out.write(bytes);
+		}
+	}
+
+	static Map<String, Object> body(HttpExchange exchange) throws IOException {
+		byte[] bytes = exchange.getRequestBody().readAllBytes();
+		if(bytes.length == 0) return new HashMap<String, Object>();
+		return Json.parseObject(new String(bytes, StandardCharsets.UTF_8));
+	}
+
+	static void query(String rawQuery, Map<String, String> params){
+		if(rawQuery == null) return;
+		for(String pair : rawQuery.split("&")){
+			int eq = pair.indexOf('=');
+			if(eq <= 0) continue;
+			params.putIfAbsent(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+				URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+		}
+	}
+
+	static String[] split(String path){
+		String trimmed = path.replaceAll("^/+|/+$", "");
+		return trimmed.isEmpty() ? new String[0] : trimmed.split("/+");
+	}
+
+	static Map<String, Object> error(String message){
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		result.put("error", message == null ? "Internal error" : message);
+		return result;
+	}
+
+	static <T> T found(T entity){
+		if(entity == null) throw new HttpError(404, "Not found");
+		return entity;
+	}
+
+	static String required(Map<String, String> params, String name){
+		String value = params.get(name);
+		if(value == null || value.isEmpty()) throw new HttpError(400, "Missing parameter " + name);
+		return value;
+	}
+
+	static int intParam(Map<String, String> params, String name){
+		try{
+			return Integer.parseInt(required(params, name));
+		}catch(NumberFormatException e){
+			throw new HttpError(400, name + " must be a number");
+		}
+	}
+
+	static String textField(Map<String, Object> body, String name){
+		Object value = body.get(name);
+		return value == null ? null : value.toString();
+	}
+
+	static Integer intField(Map<String, Object> body, String name){
+		Object value = body.get(name);
+		if(value == null) throw new HttpError(400, "Missing field " + name);
+		if(value instanceof Number) return ((Number) value).intValue();
+		try{
+			return Integer.valueOf(value.toString().trim());
+		}catch(NumberFormatException e){
+			throw new HttpError(400, name + " must be a number");
+		}
+	}
+
+	//null when absent, so that the key is assigned by the service
+	static Integer optionalIntField(Map<String, Object> body, String name){
+		return body.get(name) == null ? null : intField(body, name);
+	}
+
+	//yyyy-mm-dd, today when absent
+	static java.sql.Date dateField(Map<String, Object> body, String name){
+		Object value = body.get(name);
+		if(value == null) return new java.sql.Date(System.currentTimeMillis());
+		try{
+			return java.sql.Date.valueOf(value.toString().trim());
+		}catch(IllegalArgumentException e){
+			throw new HttpError(400, name + " must be a date (yyyy-mm-dd)");
+		}
+	}
+
+	static Map<String, Object> json(Customer c){
+		Map<String, Object> m = new LinkedHashMap<String, Object>();
+		m.put("id", c.id);
+		m.put("fname", c.fname);
+		m.put("lname", c.lname);
+		m.put("phone", c.phone);
+		m.put("address", c.address);
+		return m;
+	}
+
+	static Map<String, Object> json(Mechanic mech){
+		Map<String, Object> m = new LinkedHashMap<String, Object>();
+		m.put("id", mech.id);
+		m.put("fname", mech.fname);
+		m.put("lname", mech.lname);
+		m.put("experience", mech.experience);
+		return m;
+	}
+
+	static Map<String, Object> json(Car car){
+		Map<String, Object> m = new LinkedHashMap<String, Object>();
+		m.put("vin", car.vin);
+		m.put("make", car.make);
+		m.put("model", car.model);
+		m.put("year", car.year);
+		return m;
+	}
+
+	static Map<String, Object> json(ServiceRequest req){
+		Map<String, Object> m = new LinkedHashMap<String, Object>();
+		m.put("rid", req.rid);
+		m.put("customer_id", req.customerId);
+		m.put("car_vin", req.carVin);
+		m.put("date", req.date == null ? null : req.date.toString());
+		m.put("odometer", req.odometer);
+		m.put("complain", req.complain);
+		return m;
+	}
+
+	static Map<String, Object> json(ClosedRequest closed){
+		Map<String, Object> m = new LinkedHashMap<String, Object>();
+		m.put("wid", closed.wid);
+		m.put("rid", closed.rid);
+		m.put("mid", closed.mid);
+		m.put("date", closed.date == null ? null : closed.date.toString());
+		m.put("comment", closed.comment);
+		m.put("bill", closed.bill);
+		return m;
+	}
+
+	//the running intake; without one its endpoints do not exist
+	IntakeQueue intake(){
+		return found(_service.getIntake());
+	}
+
+	static Map<String, Object> json(IntakeQueue.Ticket ticket){
+		Map<String, Object> m = new LinkedHashMap<String, Object>();
+		m.put("ticket", ticket.getNumber());
+		m.put("status", ticket.getStatus().name());
+		m.put("reason", ticket.getReason());
+		m.put("idempotency_key", ticket.key);
+		m.put("request", json(ticket.request));
+		return m;
+	}
+
+	//k is the row limit of most-serviced-cars, 10 by default
+	Map<String, Object> page(ReportQueries.Report report, Map<String, String> params) throws SQLException {
+		int limit = 0;
+		if(report == ReportQueries.Report.MOST_SERVICED_CARS) limit = params.containsKey("k") ? intParam(params, "k") : 10;
+		else if(params.containsKey("limit")) limit = intParam(params, "limit");
+		int pageSize = params.containsKey("page_size") ? intParam(params, "page_size") : ShopConfig.reportPageSize();
+		DateWindow window = DateWindow.of(params.get("from"), params.get("until"));
+		ReportPage page = _service.reportPage(report, window, limit, params.get("after"), pageSize);
+		Map<String, Object> m = new LinkedHashMap<String, Object>();
+		m.put("columns", page.columns);
+		m.put("count", page.rows.size());
+		m.put("rows", page.rows);
+		m.put("next", page.next);
+		return m;
+	}
+
+	/**
+	 * Method to collect the per endpoint latencies, the worker queue, the
+	 * entity caches and the connection pool statistics.
+	 */
+	Map<String, Object> metrics(){
+		Map<String, Object> endpoints = new LinkedHashMap<String, Object>();
+		for(Endpoint e : _endpoints){
+			LatencyHistogram h = e.latency;
+			if(h.getCount() == 0) continue;
+			Map<String, Object> m = new LinkedHashMap<String, Object>();
+			m.put("count", h.getCount());
+			m.put("errors", e.errors.get());
+			m.put("mean_ms", h.getMeanMicros() / 1e3);
+			m.put("p50_ms", h.getPercentileMicros(50) / 1e3);
+			m.put("p90_ms", h.getPercentileMicros(90) / 1e3);
+			m.put("p99_ms", h.getPercentileMicros(99) / 1e3);
+			m.put("p999_ms", h.getPercentileMicros(99.9) / 1e3);
+			m.put("max_ms", h.getMaxMicros() / 1e3);
+			endpoints.put(e.name, m);
+		}
+		Map<String, Object> executor = new LinkedHashMap<String, Object>();
+		executor.put("virtual_threads", _executor.usesVirtualThreads());
+		executor.put("in_flight", _executor.getInFlight());
+		executor.put("max_concurrent", _executor.getMaxConcurrent());
+		executor.put("queue_depth", _executor.getQueueDepth());
+		executor.put("max_queued", _executor.getMaxQueued());
+		executor.put("completed", _executor.getCompleted());
+		executor.put("failed", _executor.getFailed());
+		executor.put("timed_out", _executor.getTimedOut());
+		executor.put("rejected", _executor.getRejected());
+		executor.put("shed", _executor.getShed());
+		Map<String, Object> caches = new LinkedHashMap<String, Object>();
+		for(EntityCache<?, ?> c : _service.getCache().getCaches()){
+			Map<String, Object> m = new LinkedHashMap<String, Object>();
+			m.put("entries", c.size());
+			m.put("hits", c.getHits());
+			m.put("misses", c.getMisses());
+			m.put("hit_rate", c.getHitRate());
+			caches.put(c.getName(), m);
+		}
+
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		result.put("uptime_ms", System.currentTimeMillis() - _startedAt);
+		result.put("endpoints", endpoints);
+		result.put("not_found", _notFound.get());
+		result.put("executor", executor);
+		result.put("pool", _service.getDatabase().getPool().getStatistics());
+		result.put("keys", _service.getKeys().getStatistics());
+		result.put("caches", caches);
+		result.put("slow_queries", _service.getDatabase().getMonitor().getSlowQueries());
+		result.put("queries", _service.getDatabase().getMonitor().snapshot());
+		result.put("statement_cache_hits", _service.getDatabase().getStatementCacheHits());
+		result.put("statement_cache_misses", _service.getDatabase().getStatementCacheMisses());
+		return result;
+	}
+
+	/**
+	 * @return one line per endpoint with its latency summary
+	 */
+	public String getStatistics(){
+		StringBuilder sb = new StringBuilder();
+		for(Endpoint e : _endpoints){
+			if(e.latency.getCount() == 0) continue;
+			sb.append(String.format("%-36s %s errors=%d%n", e.name, e.latency.getSummary(), e.errors.get()));
+		}
+		sb.append(_executor.getStatistics());
+		return sb.toString();
+	}
+
+	/**
+	 * The main execution method
+	 *
+	 * @param args <dbname> <port> <user> [--http-port N] [--concurrency N] [--queue N] [--timeout S] [--aggregates] [--incremental] [--intake] [--top-cars] [--snapshot]
+	 */
+	public static void main(String[] args){
+		if(args.length < 3){
+			System.err.println("Usage: java [-classpath <classpath>] " + ShopServer.class.getName()
+				+ " <dbname> <port> <user> [--http-port N] [--concurrency N] [--queue N] [--timeout S] [--aggregates] [--incremental] [--intake] [--top-cars] [--snapshot]");
+			return;
+		}
+		int httpPort = ShopConfig.serverPort();
+		int concurrency = ShopConfig.executorMaxConcurrent();
+		int queue = ShopConfig.executorMaxQueued();
+		int timeout = ShopConfig.executorQueryTimeoutSeconds();
+		boolean aggregates = ShopConfig.reportsUseAggregates();
+		boolean incremental = ShopConfig.reportsIncremental();
+		boolean intake = false;
+		boolean topCars = false;
+		boolean snapshot = false;
+		for(int i = 3; i < args.length; ++i){
+			if(args[i].equals("--http-port") && i + 1 < args.length) httpPort = Integer.parseInt(args[++i]);
+			else if(args[i].equals("--concurrency") && i + 1 < args.length) concurrency = Integer.parseInt(args[++i]);
+			else if(args[i].equals("--queue") && i + 1 < args.length) queue = Integer.parseInt(args[++i]);
+			else if(args[i].equals("--timeout") && i + 1 < args.length) timeout = Integer.parseInt(args[++i]);
+			else if(args[i].equals("--aggregates")) aggregates = true;
+			else if(args[i].equals("--incremental")) incremental = true;
+			else if(args[i].equals("--intake")) intake = true;
+			else if(args[i].equals("--top-cars")) topCars = true;
+			else if(args[i].equals("--snapshot")) snapshot = true;
+			else System.err.println("Ignoring unknown option " + args[i]);
+		}
+
+		try{
+			Class.forName("org.postgresql.Driver");
+			MechanicShop esql = new MechanicShop(args[0], args[1], args[2], "");
+			esql.setUseAggregates(aggregates);
+			esql.setUseIncremental(incremental);
+			if(intake) esql.service().startIntake();
+			if(topCars) esql.service().startTopCars();
+			if(snapshot) esql.service().startSnapshot();
+			ShopExecutor executor = new ShopExecutor(esql.service(), concurrency, queue,
+				ShopConfig.executorMaxQueueWaitMillis(), timeout);
+			ShopServer server = new ShopServer(executor, httpPort);
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+				server.stop(2);
+				executor.close();
+				System.out.println(server.getStatistics());
+				System.out.println(esql.service().getCache().getStatistics());
+				System.out.println(esql.service().getIncrementalStatistics());
+				if(esql.service().getIntake() != null) System.out.println(esql.service().getIntake().getStatistics());
+				if(esql.service().getTopCars() != null) System.out.println(esql.service().getTopCars().getStatistics());
+				if(esql.service().getSnapshot() != null) System.out.println(esql.service().getSnapshot().getStatistics());
+				System.out.println(esql.getMonitor().getStatistics());
+				System.out.println(esql.getPool().getStatistics());
+				esql.cleanup();
+			}));
+			server.start();
+			System.out.println("Serving on http://localhost:" + httpPort + "/ with " + concurrency
+				+ " concurrent and " + queue + " queued request(s) on " + (executor.usesVirtualThreads() ? "virtual" : "platform")
+				+ " threads; Ctrl-C to stop");
+		}catch(Exception e){
+			System.err.println(e.getMessage());
+		}
+	}
+}//end ShopServer
@@ -0,0 +1,557 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * This class is the non-interactive API of the mechanic shop.  It takes
+ * and returns domain objects and never touches standard in or out, so the
+ * console menu, the bulk tools and any number of concurrent callers can
+ * share it.  Apart from the blocks of surrogate keys it has reserved and
+ * the ShopCache of customers, mechanics and cars, it keeps no state of its
+ * own; every call borrows a pooled connection through MechanicShop, which
+ * makes it safe to use from many threads at once.  Entities passed in
+ * without a key get one from the KeyAllocator.  Lookups of those entities
+ * read through the cache, and the writes here keep it current.
+ *
+ * Invalid input is reported with a ShopException carrying the same
+ * message the console prompts show; database failures are SQLExceptions.
+ *
+ */
+public class ShopService{
+	//SQLState of a foreign key violation
+	static final String FOREIGN_KEY_VIOLATION = "23503";
+	//SQLState of a unique or primary key violation
+	static final String UNIQUE_VIOLATION = "23505";
+	//SQLStates worth retrying: serialization failure and deadlock
+	static final String SERIALIZATION_FAILURE = "40001";
+	static final String DEADLOCK_DETECTED = "40P01";
+	//SQLState of a missing function or operator, such as those of pg_trgm
+	static final String UNDEFINED_FUNCTION = "42883";
+	//SQLState of a check violation, also raised for a row no partition accepts
+	static final String CHECK_VIOLATION = "23514";
+
+	/**
+	 * A database operation that may be run again from the start.
+	 */
+	interface Retryable<T>{
+		T run() throws SQLException;
+	}
+
+	private final MechanicShop _db;
+	private final KeyAllocator _keys;
+	private final ShopCache _cache;
+	private final PartitionMaintainer _partitions;
+	//null unless startIntake() was called
+	private volatile IntakeQueue _intake = null;
+	//null unless startTopCars() was called
+	private volatile TopCars _topCars = null;
+	//null unless startSnapshot() was called
+	private volatile ColumnarSnapshot _snapshot = null;
+	//incremental report aggregates by report and window, least recently used first
+	private final LinkedHashMap<String, IncrementalReport> _incremental = new LinkedHashMap<String, IncrementalReport>(16, 0.75f, true);
+	//cleared once the database turns out not to have pg_trgm
+	private volatile boolean _trigrams = true;
+
+	public ShopService(MechanicShop db){
+		this._db = db;
+		this._keys = new KeyAllocator(db);
+		this._cache = new ShopCache();
+		this._partitions = new PartitionMaintainer(db);
+	}
+
+	/**
+	 * @return the database client the service runs on
+	 */
+	public MechanicShop getDatabase(){
+		return _db;
+	}
+
+	public KeyAllocator getKeys(){
+		return _keys;
+	}
+
+	public ShopCache getCache(){
+		return _cache;
+	}
+
+	public PartitionMaintainer getPartitions(){
+		return _partitions;
+	}
+
+	/**
+	 * Method to open the write-behind intake on ShopConfig.intakeFile(),
+	 * queue what it holds from the last run and start its writer.
+	 *
+	 * @return the intake, the running one when it was started before
+	 */
+	public synchronized IntakeQueue startIntake() throws java.io.IOException {
+		if(_intake == null){
+			IntakeQueue intake = new IntakeQueue(_db, _keys, _partitions, ShopConfig.intakeFile(), this::recorded);
+			intake.start();
+			_intake = intake;
+		}
+		return _intake;
+	}
+
+	/**
+	 * @return the write-behind intake, null when it was not started
+	 */
+	public IntakeQueue getIntake(){
+		return _intake;
+	}
+
+	/**
+	 * Method to keep the most-serviced-cars summary of TopCars, seeded and
+	 * reconciled by its own thread, and answer the report from it when it
+	 * can.
+	 *
+	 * @return the summary, the running one when it was started before
+	 */
+	public synchronized TopCars startTopCars(){
+		if(_topCars == null){
+			TopCars top = new TopCars(_db, ShopConfig.topCarsMaxK());
+			top.start(ShopConfig.topCarsReconcileMillis());
+			_topCars = top;
+		}
+		return _topCars;
+	}
+
+	/**
+	 * @return the most-serviced-cars summary, null when it was not started
+	 */
+	public TopCars getTopCars(){
+		return _topCars;
+	}
+
+	/**
+	 * Method to keep a ColumnarSnapshot of the report tables, refreshed by
+	 * its own thread, and answer the reports from it once it is loaded.
+	 *
+	 * @return the snapshot, the running one when it was started before
+	 */
+	public synchronized ColumnarSnapshot startSnapshot(){
+		if(_snapshot == null){
+			ColumnarSnapshot snapshot = new ColumnarSnapshot(_db);
+			snapshot.start(ShopConfig.snapshotRefreshMillis());
+			_snapshot = snapshot;
+		}
+		return _snapshot;
+	}
+
+	/**
+	 * @return the report snapshot, null when it was not started
+	 */
+	public ColumnarSnapshot getSnapshot(){
+		return _snapshot;
+	}
+
+	//a request was stored, by openServiceRequest or by the intake
+	private void recorded(ServiceRequest req){
+		TopCars top = _topCars;
+		if(top != null) top.recorded(req.carVin);
+	}
+
+	//the given key, or the next one from its sequence when there is none
+	private int keyOf(Integer given, KeyAllocator.Key key, String field) throws SQLException {
+		return given != null ? Validators.id(given, field) : _keys.next(key);
+	}
+
+	/**
+	 * Method to run an operation again when the database aborts it with a
+	 * serialization failure or a deadlock, backing off a little more each
+	 * time.  Other errors are rethrown at once.
+	 */
+	static <T> T retrying(Retryable<T> op) throws SQLException {
+		int retries = ShopConfig.serializationRetries();
+		for(int attempt = 0; ; ++attempt){
+			try{
+				return op.run();
+			}catch(SQLException e){
+				String state = e.getSQLState();
+				boolean retry = SERIALIZATION_FAILURE.equals(state) || DEADLOCK_DETECTED.equals(state);
+				if(!retry || attempt >= retries) throw e;
+				try{
+					Thread.sleep((long) (Math.random() * (10L << attempt)));
+				}catch(InterruptedException ie){
+					Thread.currentThread().interrupt();
+					throw e;
+				}
+			}
+		}
+	}
+
+	private static <T> T first(List<T> rows){
+		return rows.isEmpty() ? null : rows.get(0);
+	}
+
+	/**
+	 * Method to turn a constraint violation into the message the user sees.
+	 * Other errors are rethrown unchanged.
+	 */
+	static SQLException explain(SQLException e, String duplicate, String... missing) throws SQLException {
+		String state = e.getSQLState();
+		String message = e.getMessage() == null ? "" : e.getMessage();
+		if(UNIQUE_VIOLATION.equals(state) && duplicate != null) throw ShopException.conflict(duplicate);
+		if(FOREIGN_KEY_VIOLATION.equals(state)){
+			//missing holds pairs of (column, message)
+			for(int i = 0; i + 1 < missing.length; i += 2)
+				if(message.contains("(" + missing[i] + ")")) throw new ShopException(missing[i + 1]);
+		}
+		return e;
+	}
+
+	/**
+	 * @param c the customer; a null id means the next one from customer_id_seq
+	 */
+	public Customer addCustomer(Customer c) throws SQLException {
+		Validators.firstName(c.fname);
+		Validators.lastName(c.lname);
+		Validators.phone(c.phone);
+		Validators.address(c.address);
+		int id = keyOf(c.id, KeyAllocator.Key.CUSTOMER, "Customer ID");
+		try{
+			Customer added = first(_db.executeQueryAndMap(ShopQueries.INSERT_CUSTOMER, Customer::from, id, c.fname, c.lname, c.phone, c.address));
+			_cache.customerWritten(added);
+			return added;
+		}catch(SQLException e){
+			throw explain(e, "Customer " + id + " already exists");
+		}
+	}
+
+	/**
+	 * @param m the mechanic; a null id means the next one from mechanic_id_seq
+	 */
+	public Mechanic addMechanic(Mechanic m) throws SQLException {
+		Validators.firstName(m.fname);
+		Validators.lastName(m.lname);
+		Validators.experience(m.experience);
+		int id = keyOf(m.id, KeyAllocator.Key.MECHANIC, "Employee ID");
+		try{
+			Mechanic added = first(_db.executeQueryAndMap(ShopQueries.INSERT_MECHANIC, Mechanic::from, id, m.fname, m.lname, m.experience));
+			_cache.mechanicWritten(added);
+			return added;
+		}catch(SQLException e){
+			throw explain(e, "Mechanic " + id + " already exists");
+		}
+	}
+
+	public Car addCar(Car car) throws SQLException {
+		Validators.vin(car.vin);
+		Validators.make(car.make);
+		Validators.model(car.model);
+		Validators.year(car.year);
+		try{
+			Car added = first(_db.executeQueryAndMap(ShopQueries.INSERT_CAR, Car::from, car.vin, car.make, car.model, car.year));
+			_cache.carWritten(added);
+			return added;
+		}catch(SQLException e){
+			throw explain(e, "Car " + car.vin + " already exists");
+		}
+	}
+
+	/**
+	 * Method to record that a customer owns a car.
+	 *
+	 * @param customerId the owner
+	 * @param vin the car
+	 * @return the ownership_id drawn from its sequence
+	 */
+	public int addOwnership(int customerId, String vin) throws SQLException {
+		Validators.vin(vin);
+		try{
+			int ownershipId = first(_db.executeQueryAndMap(ShopQueries.INSERT_OWNS, rs -> rs.getInt(1), customerId, vin));
+			_cache.ownershipWritten(customerId);
+			return ownershipId;
+		}catch(SQLException e){
+			throw explain(e, null, "customer_id", "Customer does not exist", "car_vin", "Car does not exist");
+		}
+	}
+
+	public Customer getCustomer(int id) throws SQLException {
+		return _cache.customers.get(id, key -> first(_db.executeQueryAndMap(ShopQueries.CUSTOMER_BY_ID, Customer::from, key)));
+	}
+
+	public Mechanic getMechanic(int id) throws SQLException {
+		return _cache.mechanics.get(id, key -> first(_db.executeQueryAndMap(ShopQueries.MECHANIC_BY_ID, Mechanic::from, key)));
+	}
+
+	public Car getCar(String vin) throws SQLException {
+		if(vin == null) return null;
+		return _cache.cars.get(vin, key -> first(_db.executeQueryAndMap(ShopQueries.CAR_BY_VIN, Car::from, key)));
+	}
+
+	/**
+	 * Method to check that a customer exists without reading the row.
+	 */
+	public boolean customerExists(int id) throws SQLException {
+		return _db.exists(ShopQueries.CUSTOMER_BY_ID, id);
+	}
+
+	public boolean carExists(String vin) throws SQLException {
+		return _db.exists(ShopQueries.CAR_BY_VIN, vin);
+	}
+
+	public ServiceRequest getServiceRequest(int rid) throws SQLException {
+		return first(_db.executeQueryAndMap(ShopQueries.SERVICE_REQUEST_BY_RID, ServiceRequest::from, rid));
+	}
+
+	public ClosedRequest getClosedRequest(int rid) throws SQLException {
+		return first(_db.executeQueryAndMap(ShopQueries.CLOSED_REQUEST_BY_RID, ClosedRequest::from, rid));
+	}
+
+	/**
+	 * @return the customers with this last name, in a list the caller may not modify
+	 */
+	public List<Customer> findCustomersByLastName(String lname) throws SQLException {
+		if(lname == null) return List.of();
+		//CHAR comparison ignores trailing blanks, so names differing only in them share an entry
+		return _cache.customersByLastName.get(lname.stripTrailing(),
+			key -> List.copyOf(_db.executeQueryAndMap(ShopQueries.CUSTOMER_BY_LNAME, Customer::from, key)));
+	}
+
+	/**
+	 * A customer found by searchCustomers, with how well it matched.
+	 */
+	private static class Match{
+		final Customer customer;
+		//0 for a prefix match, 1 for a similar name
+		final int tier;
+		final double score;
+
+		Match(Customer customer, int tier, double score){
+			this.customer = customer;
+			this.tier = tier;
+			this.score = score;
+		}
+	}
+
+	/**
+	 * Method to find the customers a partial or misspelled last name may
+	 * mean, as typed at the counter.  Names are compared ignoring case.
+	 * Names starting with the text come first, closest to it first (so an
+	 * exact match leads), followed by the names most similar to it by
+	 * trigrams.  Each kind of match is one bounded index scan of
+	 * sql/search.sql.  Without pg_trgm only prefix matches are found.
+	 *
+	 * @param text the name or its beginning
+	 * @param limit the most candidates returned, at most ShopConfig.searchMaxLimit()
+	 * @return the candidates, best first
+	 */
+	public List<Customer> searchCustomers(String text, int limit) throws SQLException {
+		int maxLimit = ShopConfig.searchMaxLimit();
+		if(limit <= 0 || limit > maxLimit) throw new ShopException("Number of candidates must be between 1 and " + maxLimit);
+		String name = Validators.lastName(text == null ? null : text.trim()).toLowerCase(Locale.ROOT);
+		String end = prefixEnd(name);
+		MechanicShop.RowMapper<Match> match = rs -> new Match(Customer.from(rs), rs.getInt("tier"), rs.getDouble("score"));
+		List<Match> matches = null;
+		if(_trigrams){
+			try{
+				matches = _db.executeQueryAndMap(ShopQueries.SEARCH_CUSTOMERS, match, name, name, end, limit, name, name, name, limit);
+			}catch(SQLException e){
+				if(!UNDEFINED_FUNCTION.equals(e.getSQLState())) throw e;
+				_trigrams = false;
+			}
+		}
+		if(matches == null) matches = _db.executeQueryAndMap(ShopQueries.SEARCH_CUSTOMERS_BY_PREFIX, match, name, end, limit);
+
+		//a prefix match may also be among the similar names; it keeps its first place
+		matches.sort((a, b) -> a.tier != b.tier ? Integer.compare(a.tier, b.tier) : Double.compare(b.score, a.score));
+		Set<Integer> seen = new HashSet<Integer>();
+		List<Customer> result = new ArrayList<Customer>();
+		for(Match m : matches)
+			if(result.size() < limit && seen.add(m.customer.id)) result.add(m.customer);
+		return result;
+	}
+
+	//the least string greater than every string starting with prefix
+	static String prefixEnd(String prefix){
+		StringBuilder sb = new StringBuilder(prefix);
+		while(sb.length() > 0){
+			char last = sb.charAt(sb.length() - 1);
+			if(last != Character.MAX_VALUE){
+				sb.setCharAt(sb.length() - 1, (char) (last + 1));
+				return sb.toString();
+			}
+			sb.setLength(sb.length() - 1);
+		}
+		//every character is U+FFFF, after which only the supplementary characters sort
+		return new String(Character.toChars(Character.MAX_CODE_POINT));
+	}
+
+	/**
+	 * @return the customer's cars by vin, in a list the caller may not modify
+	 */
+	public List<Car> carsOwnedBy(int customerId) throws SQLException {
+		return _cache.carsOwnedBy.get(customerId, key -> List.copyOf(_db.executeQueryAndMap(ShopQueries.CARS_OWNED_BY, Car::from, key)));
+	}
+
+	/**
+	 * Method to open a service request.  The ownership check and the insert
+	 * are one statement, so the request cannot be filed for a car the
+	 * customer does not own, even while the ownership is being changed.
+	 * With sql/partition.sql loaded, a request dated in a month that has no
+	 * partition yet creates it and is filed again.
+	 *
+	 * @param req the request; its rid is ignored and drawn from a sequence,
+	 *            and a missing date means today
+	 * @return the stored request with its assigned rid
+	 */
+	public ServiceRequest openServiceRequest(ServiceRequest req) throws SQLException {
+		Validators.vin(req.carVin);
+		Validators.odometer(req.odometer);
+		java.sql.Date date = req.date != null ? req.date : new java.sql.Date(System.currentTimeMillis());
+		ServiceRequest created;
+		try{
+			created = first(_db.executeQueryAndMap(ShopQueries.INSERT_SERVICE_REQUEST, ServiceRequest::from,
+				date, req.odometer, req.complain, req.customerId, req.carVin));
+		}catch(SQLException e){
+			if(!CHECK_VIOLATION.equals(e.getSQLState()) || !_partitions.ensure(date.toLocalDate(), date.toLocalDate())) throw e;
+			created = first(_db.executeQueryAndMap(ShopQueries.INSERT_SERVICE_REQUEST, ServiceRequest::from,
+				date, req.odometer, req.complain, req.customerId, req.carVin));
+		}
+		if(created == null) throw new ShopException("This customer doesn't own this car");
+		recorded(created);
+		return created;
+	}
+
+	/**
+	 * Method to close a service request.  Validation and insert are one
+	 * statement: the request and the mechanic must exist, the closing date
+	 * may not precede the request date, and a request already closed is
+	 * left alone (Closed_Request.rid is unique), so two desks closing the
+	 * same request cannot both succeed.
+	 *
+	 * @param closing the closing record; its date is the day the work was
+	 *                finished (today when null) and a null wid means the
+	 *                next one from closed_request_wid_seq
+	 * @return the stored record
+	 */
+	public ClosedRequest closeServiceRequest(ClosedRequest closing) throws SQLException {
+		Validators.bill(closing.bill);
+		int wid = keyOf(closing.wid, KeyAllocator.Key.CLOSED_REQUEST, "Close request ID");
+		java.sql.Date date = closing.date != null ? closing.date : new java.sql.Date(System.currentTimeMillis());
+		try{
+			return retrying(() -> _db.executeQueryAndMap(ShopQueries.CLOSE_SERVICE_REQUEST, rs -> {
+				if(rs.getObject("wid") != null) return ClosedRequest.from(rs);
+				if(rs.getInt("request_found") == 0) throw new ShopException("Service Request does not exist");
+				if(rs.getInt("mechanic_found") == 0) throw new ShopException("Mechanic does not exist");
+				java.sql.Date requested = rs.getDate("req_date");
+				if(requested.after(date))
+					throw new ShopException("Closing date can't be before request date (" + requested + ")");
+				throw ShopException.conflict("Service Request " + closing.rid + " is already closed");
+			}, closing.rid, closing.mid, wid, date, closing.comment, closing.bill, date).get(0));
+		}catch(SQLException e){
+			throw explain(e, "Close request " + wid + " already exists");
+		}
+	}
+
+	private static void checkK(int k){
+		int max = ShopConfig.reportMaxK();
+		if(k <= 0 || k > max) throw new ShopException("Number of cars must be between 1 and " + max);
+	}
+
+	/**
+	 * Method to read one page of a report.  The first page is read with a
+	 * null cursor; every page returns the cursor of the one after it.
+	 * Pages seek past the key of the previous page's last row, so each
+	 * costs about as much as the first however deep the caller reads.
+	 *
+	 * @param report which report
+	 * @param limit the most rows to read over all pages, 0 for all of them;
+	 *              required (the K) for MOST_SERVICED_CARS, and only read
+	 *              with the first page
+	 * @param after the cursor of the previous page, null for the first
+	 * @param pageSize rows per page, at most ShopConfig.reportMaxPageSize()
+	 * @return the page and the cursor of the next one
+	 */
+	public ReportPage reportPage(ReportQueries.Report report, int limit, String after, int pageSize) throws SQLException {
+		return reportPage(report, DateWindow.ALL, limit, after, pageSize);
+	}
+
+	/**
+	 * Method to read one page of a report over the service requests made
+	 * within a date window.  With sql/partition.sql loaded only the months
+	 * in the window are read.  A running TopCars summary, then a loaded
+	 * ColumnarSnapshot, answer the page without a query when they can.
+	 *
+	 * @param window the days of the requests counted, only read with the
+	 *               first page; the later pages keep it in their cursor
+	 */
+	public ReportPage reportPage(ReportQueries.Report report, DateWindow window, int limit, String after, int pageSize) throws SQLException {
+		int maxPageSize = ShopConfig.reportMaxPageSize();
+		if(pageSize <= 0 || pageSize > maxPageSize) throw new ShopException("Page size must be between 1 and " + maxPageSize);
+		ReportPage.Cursor cursor;
+		if(after == null){
+			if(report == ReportQueries.Report.MOST_SERVICED_CARS) checkK(limit);
+			else if(limit < 0) throw new ShopException("Row limit can't be negative");
+			if(!window.isAll() && !report.hasWindow()) throw new IllegalArgumentException("The " + report.path + " report has no date window");
+			cursor = new ReportPage.Cursor(limit, window, null);
+		}else{
+			cursor = ReportPage.Cursor.decode(after, report.keys);
+		}
+		int rows = cursor.remaining > 0 ? Math.min(pageSize, cursor.remaining) : pageSize;
+
+		//one row more than the page tells whether there is a next page
+		List<List<String>> result = null;
+		TopCars top = _topCars;
+		if(top != null && report == ReportQueries.Report.MOST_SERVICED_CARS && cursor.window.isAll() && cursor.remaining <= top.getMaxK()){
+			//the row past the last of the K is never shown, so it need not be exact
+			result = top.page(cursor.key, cursor.remaining <= rows ? rows : rows + 1);
+		}
+		ColumnarSnapshot snapshot = _snapshot;
+		if(result == null && snapshot != null) result = snapshot.page(report, cursor.window, cursor.key, rows + 1);
+		if(result != null){
+			//answered from memory
+		}else if(_db.getUseIncremental() && IncrementalReport.supports(report)){
+			result = incremental(report, cursor.window).page(cursor.key, rows + 1);
+		}else{
+			List<Object> params = new ArrayList<Object>();
+			boolean windowed = !cursor.window.isAll();
+			if(windowed) params.addAll(report.windowParams(cursor.window));
+			if(cursor.key != null) params.addAll(cursor.key);
+			params.add(rows + 1);
+			String query = report.page(_db.getUseAggregates(), windowed, cursor.key != null);
+			result = _db.executeQueryAndReturnResult(query, params.toArray());
+		}
+
+		boolean more = result.size() > rows;
+		List<List<String>> page = new ArrayList<List<String>>(Math.min(rows, result.size()));
+		for(int i = 0; i < result.size() && i < rows; ++i) page.add(result.get(i).subList(0, report.columns.length));
+		String next = null;
+		if(more && (cursor.remaining == 0 || cursor.remaining > rows)){
+			List<String> last = result.get(rows - 1);
+			List<String> key = report.keyOf(last);
+			next = new ReportPage.Cursor(cursor.remaining == 0 ? 0 : cursor.remaining - rows, cursor.window, key).encode();
+		}
+		return new ReportPage(List.of(report.columns), page, next);
+	}
+
+	//the aggregate of a report and window, made on first use
+	private synchronized IncrementalReport incremental(ReportQueries.Report report, DateWindow window){
+		String key = report.path + " " + window;
+		IncrementalReport aggregate = _incremental.get(key);
+		if(aggregate == null){
+			aggregate = new IncrementalReport(_db, report, window);
+			_incremental.put(key, aggregate);
+			Iterator<IncrementalReport> eldest = _incremental.values().iterator();
+			while(_incremental.size() > Math.max(1, ShopConfig.reportsIncrementalMaxWindows())){
+				eldest.next();
+				eldest.remove();
+			}
+		}
+		return aggregate;
+	}
+
+	public synchronized String getIncrementalStatistics(){
+		if(_incremental.isEmpty()) return "incremental reports: none";
+		StringBuilder sb = new StringBuilder();
+		for(IncrementalReport aggregate : _incremental.values())
+			sb.append(sb.length() == 0 ? "" : "\n").append(aggregate.getStatistics());
+		return sb.toString();
+	}
+}//end ShopService
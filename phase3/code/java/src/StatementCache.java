@@ -0,0 +1,99 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class keeps a bounded, least-recently-used cache of prepared
+ * statements for a single physical connection.  Statements are keyed by
+ * their SQL text so that repeated menu operations reuse the statement that
+ * Postgres has already parsed and planned.
+ *
+ */
+public class StatementCache{
+	//connection the cached statements belong to
+	private final Connection _connection;
+	//maximum number of statements kept open
+	private final int _capacity;
+	//access ordered map, the eldest entry is the least recently used
+	private final LinkedHashMap<String, PreparedStatement> _statements;
+
+	private long _hits = 0;
+	private long _misses = 0;
+
+	public StatementCache(Connection connection, int capacity){
+		this._connection = connection;
+		this._capacity = capacity;
+		this._statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true);
+	}
+
+	/**
+	 * Method to look up the prepared statement for a SQL string.  On a miss
+	 * the statement is prepared on the connection and, if the cache is full,
+	 * the least recently used statement is closed and evicted.
+	 *
+	 * @param sql the SQL string with '?' placeholders
+	 * @return a prepared statement ready to be bound
+	 * @throws java.sql.SQLException when the statement cannot be prepared
+	 */
+	public synchronized PreparedStatement prepare(String sql) throws SQLException {
+		PreparedStatement stmt = this._statements.get(sql);
+		if(stmt != null && !stmt.isClosed()){
+			_hits++;
+			stmt.clearParameters();
+			return stmt;
+		}
+		_misses++;
+		stmt = this._connection.prepareStatement(sql);
+		this._statements.put(sql, stmt);
+		if(this._statements.size() > this._capacity){
+			Iterator<Map.Entry<String, PreparedStatement>> eldest = this._statements.entrySet().iterator();
+			closeQuietly(eldest.next().getValue());
+			eldest.remove();
+		}
+		return stmt;
+	}
+
+	/**
+	 * Method to drop a statement from the cache, e.g. after it failed and
+	 * may have been left in an unusable state.
+	 *
+	 * @param sql the SQL string the statement was prepared from
+	 */
+	public synchronized void evict(String sql){
+		closeQuietly(this._statements.remove(sql));
+	}
+
+	public synchronized long getHits(){
+		return _hits;
+	}
+
+	public synchronized long getMisses(){
+		return _misses;
+	}
+
+	public synchronized int size(){
+		return this._statements.size();
+	}
+
+	/**
+	 * Method to close every cached statement.
+	 */
+	public synchronized void close(){
+		for(PreparedStatement stmt : this._statements.values()){
+			closeQuietly(stmt);
+		}
+		this._statements.clear();
+	}
+
+	private static void closeQuietly(PreparedStatement stmt){
+		if(stmt == null) return;
+		try{
+			stmt.close();
+		}catch(SQLException e){
+			// ignored.
+		}
+	}
+}//end StatementCache
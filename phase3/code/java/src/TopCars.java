@@ -0,0 +1,415 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+/**
+ * This class answers the most-serviced-cars report over all dates from a
+ * summary kept in memory, without a query.  A seed reads the request count
+ * of every car once: the 2 * ShopConfig.topCarsMaxK() cars with the most
+ * requests are kept with their exact counts, and every count goes into a
+ * count-min sketch.  Each request filed through ShopService or IntakeQueue
+ * adds one to the sketch and to its car when the car is kept.
+ *
+ * The sketch never underestimates, so the estimates of the cars not kept
+ * bound their counts.  A row is only answered from the summary when its
+ * count is above that bound, which makes every answer exact; otherwise the
+ * caller falls back to the query.  Once the bound has caught up with the
+ * first ShopConfig.topCarsMaxK() rows, a daemon thread reads the exact
+ * counts of the cars that caught up and keeps them instead of the last
+ * ones, or seeds the summary again when that is not enough.
+ *
+ * Requests written by other clients or the bulk tools are not seen, and a
+ * request stored while its car is being counted may be missed.  The same
+ * thread compares the summary with the query every
+ * ShopConfig.topCarsReconcileMillis() and seeds it again when they differ.
+ *
+ */
+public class TopCars implements AutoCloseable{
+	//every car with its count, streamed into the seed
+	private static final String COUNTS = "SELECT car_vin, COUNT(rid) FROM Service_Request GROUP BY car_vin;";
+	//the kept cars: names of the seeded ones, names and counts of the promoted ones
+	private static final String CAR_NAMES = "SELECT vin, make, model FROM Car WHERE vin = ANY(CAST(? AS VARCHAR[]));";
+	private static final String CAR_COUNTS =
+		"SELECT C.vin, C.make, C.model, (SELECT COUNT(rid) FROM Service_Request AS S WHERE S.car_vin = C.vin) "
+		+ "FROM Car AS C WHERE C.vin = ANY(CAST(? AS VARCHAR[]));";
+
+	/**
+	 * A kept car.  Its count only changes while it is out of the ordered set.
+	 */
+	private static class Entry{
+		final String vin;
+		final String make;
+		final String model;
+		long count;
+
+		Entry(String vin, String make, String model, long count){
+			this.vin = vin;
+			this.make = make;
+			this.model = model;
+			this.count = count;
+		}
+	}
+
+	//report order: count, then vin in the C collation of the query, both descending
+	private static final Comparator<Entry> ORDER = (a, b) -> a.count != b.count ? Long.compare(b.count, a.count) : ReportQueries.C_ORDER.compare(b.vin, a.vin);
+
+	/**
+	 * A count-min sketch of request counts by vin: depth rows of width
+	 * counters, each car adding to one counter per row.  The estimate is
+	 * the smallest of those counters, which is at least the true count.
+	 */
+	static class Sketch{
+		private final long[][] _counters;
+		private final int _mask;
+
+		//width is rounded up to a power of two
+		Sketch(int width, int depth){
+			int w = Integer.highestOneBit(Math.max(2, width) - 1) << 1;
+			this._counters = new long[Math.max(1, depth)][w];
+			this._mask = w - 1;
+		}
+
+		private int slot(String vin, int row){
+			int h = vin.hashCode() * (0x9E3779B1 + 2 * row) + row * 0x85EBCA6B;
+			h ^= h >>> 16;
+			h *= 0x7FEB352D;
+			h ^= h >>> 15;
+			return h & _mask;
+		}
+
+		//adds to the count of a car and returns its new estimate
+		long add(String vin, long amount){
+			long estimate = Long.MAX_VALUE;
+			for(int row = 0; row < _counters.length; ++row){
+				long c = _counters[row][slot(vin, row)] += amount;
+				estimate = Math.min(estimate, c);
+			}
+			return estimate;
+		}
+
+		long bytes(){
+			return (long) _counters.length * _counters[0].length * Long.BYTES;
+		}
+	}
+
+	private final MechanicShop _db;
+	private final int _maxK;
+	private final NavigableSet<Entry> _top = new TreeSet<Entry>(ORDER);
+	private final Map<String, Entry> _byVin = new HashMap<String, Entry>();
+	private Sketch _sketch = null;
+	//cars not kept that had requests since the seed, with their estimates
+	private final Map<String, Long> _candidates = new HashMap<String, Long>();
+	//highest count of a car not kept and not a candidate
+	private long _dropped = 0;
+	//no car outside _top has more requests than this
+	private long _bound = 0;
+	private boolean _seeded = false;
+	//set when the bound has caught up with the first maxK rows
+	private boolean _behind = false;
+
+	private Thread _worker = null;
+	private long _seeds = 0;
+	private long _promotions = 0;
+	private long _answered = 0;
+	private long _fallbacks = 0;
+	private long _reconciliations = 0;
+	private long _mismatches = 0;
+	private long _lastSeedMillis = 0;
+	private String _lastError = null;
+
+	/**
+	 * @param maxK the largest K answered from memory
+	 */
+	public TopCars(MechanicShop db, int maxK){
+		this._db = db;
+		this._maxK = Math.max(1, maxK);
+	}
+
+	public int getMaxK(){
+		return _maxK;
+	}
+
+	/**
+	 * Method to read the count of every car and rebuild the summary from
+	 * them.
+	 */
+	public void seed() throws SQLException {
+		long start = System.currentTimeMillis();
+		int capacity = 2 * _maxK;
+		Sketch sketch = new Sketch(ShopConfig.topCarsSketchWidth(), ShopConfig.topCarsSketchDepth());
+		//the kept cars, smallest first so that the least one is dropped
+		TreeSet<Entry> kept = new TreeSet<Entry>(ORDER.reversed());
+		long[] dropped = { 0 };
+		_db.executeQueryAndStream(COUNTS, rs -> {
+			String vin = rs.getString(1).trim();
+			long count = rs.getLong(2);
+			sketch.add(vin, count);
+			kept.add(new Entry(vin, null, null, count));
+			if(kept.size() > capacity) dropped[0] = Math.max(dropped[0], kept.pollFirst().count);
+		});
+		List<Object> vins = new ArrayList<Object>(kept.size());
+		for(Entry e : kept) vins.add(e.vin);
+		Map<String, Entry> named = new HashMap<String, Entry>();
+		if(!vins.isEmpty()){
+			for(List<String> row : _db.executeQueryAndReturnResult(CAR_NAMES, MechanicShop.arrayLiteral(vins)))
+				named.put(row.get(0).trim(), new Entry(row.get(0).trim(), row.get(1), row.get(2), 0));
+		}
+		synchronized(this){
+			_top.clear();
+			_byVin.clear();
+			_candidates.clear();
+			for(Entry e : kept){
+				//a request whose car is gone is left out, as the join of the query leaves it out
+				Entry car = named.get(e.vin);
+				if(car == null) continue;
+				car.count = e.count;
+				_top.add(car);
+				_byVin.put(car.vin, car);
+			}
+			_sketch = sketch;
+			_dropped = dropped[0];
+			_bound = dropped[0];
+			_seeded = true;
+			_behind = false;
+			_seeds++;
+			_lastSeedMillis = System.currentTimeMillis() - start;
+		}
+	}
+
+	/**
+	 * Method to count one more request of a car, called once the request
+	 * is stored.
+	 */
+	public synchronized void recorded(String vin){
+		if(!_seeded) return;
+		String key = vin.trim();
+		long estimate = _sketch.add(key, 1);
+		Entry e = _byVin.get(key);
+		if(e != null){
+			_top.remove(e);
+			e.count++;
+			_top.add(e);
+			return;
+		}
+		_candidates.put(key, estimate);
+		//only the highest estimates are worth a lookup; the others just bound the rest
+		if(_candidates.size() > _maxK){
+			String least = null;
+			for(Map.Entry<String, Long> c : _candidates.entrySet())
+				if(least == null || c.getValue() < _candidates.get(least)) least = c.getKey();
+			_dropped = Math.max(_dropped, _candidates.remove(least));
+		}
+		_bound = Math.max(_bound, estimate);
+		if(!_behind && !answerable(_maxK)){
+			_behind = true;
+			notifyAll();
+		}
+	}
+
+	//whether the first n rows can be answered exactly
+	private boolean answerable(int n){
+		int i = 0;
+		for(Entry e : _top){
+			if(i++ == n) return true;
+			if(e.count <= _bound) return false;
+		}
+		return i >= n || _bound == 0;
+	}
+
+	/**
+	 * Method to read the exact counts of the candidates that caught up
+	 * with the first maxK rows, keep them and let go of the least kept cars.
+	 *
+	 * @return whether the summary can answer maxK rows again
+	 */
+	boolean promote() throws SQLException {
+		List<Object> vins = new ArrayList<Object>();
+		synchronized(this){
+			Entry last = null;
+			int i = 0;
+			for(Iterator<Entry> it = _top.iterator(); it.hasNext() && i++ < _maxK; ) last = it.next();
+			long floor = last == null ? 0 : last.count;
+			for(Map.Entry<String, Long> c : _candidates.entrySet())
+				if(c.getValue() >= floor) vins.add(c.getKey());
+		}
+		if(vins.isEmpty()) return isAnswerable();
+		List<List<String>> rows = _db.executeQueryAndReturnResult(CAR_COUNTS, MechanicShop.arrayLiteral(vins));
+		synchronized(this){
+			int capacity = 2 * _maxK;
+			for(List<String> row : rows){
+				String vin = row.get(0).trim();
+				if(_candidates.remove(vin) == null || _byVin.containsKey(vin)) continue;
+				Entry e = new Entry(vin, row.get(1), row.get(2), Long.parseLong(row.get(3)));
+				_top.add(e);
+				_byVin.put(vin, e);
+				_promotions++;
+			}
+			//a car without a row is gone, and counts for nothing
+			for(Object vin : vins) _candidates.remove(vin);
+			while(_top.size() > capacity){
+				Entry least = _top.pollLast();
+				_byVin.remove(least.vin);
+				_dropped = Math.max(_dropped, least.count);
+			}
+			_bound = _dropped;
+			for(long estimate : _candidates.values()) _bound = Math.max(_bound, estimate);
+			_behind = !answerable(_maxK);
+			return !_behind;
+		}
+	}
+
+	private synchronized boolean isAnswerable(){
+		_behind = !answerable(_maxK);
+		return !_behind;
+	}
+
+	/**
+	 * Method to read rows of the report in the shape of the paged query:
+	 * make, model, number of requests and vin.
+	 *
+	 * @param after the key (count, vin) of the last row shown, null for the first page
+	 * @param rows the rows wanted, fewer only at the end of the report
+	 * @return the rows, or null when the summary cannot answer them exactly
+	 */
+	public synchronized List<List<String>> page(List<String> after, int rows){
+		if(!_seeded){
+			_fallbacks++;
+			return null;
+		}
+		NavigableSet<Entry> from = _top;
+		if(after != null) from = _top.tailSet(new Entry(after.get(1).trim(), null, null, Long.parseLong(after.get(0))), false);
+		List<List<String>> result = new ArrayList<List<String>>(Math.min(rows, from.size()));
+		for(Entry e : from){
+			if(result.size() == rows) break;
+			if(e.count <= _bound){
+				_fallbacks++;
+				return null;
+			}
+			result.add(List.of(e.make, e.model, Long.toString(e.count), e.vin));
+		}
+		//the end of the kept cars is only the end of the report when no other car has requests
+		if(result.size() < rows && _bound > 0){
+			_fallbacks++;
+			return null;
+		}
+		_answered++;
+		return result;
+	}
+
+	/**
+	 * Method to compare the first getMaxK() rows of the summary with those
+	 * of the query and seed the summary again when they differ or when it
+	 * cannot answer them.
+	 *
+	 * @return whether the summary matched
+	 */
+	public boolean reconcile() throws SQLException {
+		ReportQueries.Report report = ReportQueries.Report.MOST_SERVICED_CARS;
+		List<List<String>> exact = _db.executeQueryAndReturnResult(report.page(false, false, false), _maxK);
+		List<List<String>> summary;
+		synchronized(this){
+			_reconciliations++;
+			summary = page(null, _maxK);
+		}
+		boolean matched = summary != null && keys(summary).equals(keys(exact));
+		if(!matched){
+			synchronized(this){
+				if(summary != null) _mismatches++;
+			}
+			seed();
+		}
+		return matched;
+	}
+
+	//the count and vin of every row, the columns both sides agree on
+	private static List<String> keys(List<List<String>> rows){
+		List<String> result = new ArrayList<String>(rows.size());
+		for(List<String> row : rows) result.add(row.get(2) + " " + row.get(3).trim());
+		return result;
+	}
+
+	/**
+	 * Method to start the daemon thread that seeds the summary, brings it
+	 * back when it falls behind, and reconciles it every interval.  A failed
+	 * round is remembered and tried again at the next one.
+	 *
+	 * @param intervalMillis time between reconciliations, 0 or less for none
+	 */
+	public synchronized void start(long intervalMillis){
+		if(_worker != null) return;
+		_worker = new Thread(() -> {
+			try{
+				boolean due = false;
+				while(true){
+					try{
+						if(!isSeeded()) seed();
+						else if(isBehind()){
+							if(!promote()) seed();
+						}
+						else if(due) reconcile();
+						synchronized(this){
+							_lastError = null;
+						}
+					}catch(SQLException e){
+						synchronized(this){
+							_lastError = e.getMessage();
+						}
+					}
+					//until the next reconciliation, or the summary falls behind
+					long pause = intervalMillis > 0 ? intervalMillis : 0;
+					synchronized(this){
+						if(!_seeded){
+							wait(Math.max(1000, Math.min(pause, 60000)));
+							continue;
+						}
+						long until = System.currentTimeMillis() + pause;
+						long left = pause;
+						while(!_behind && (pause == 0 || left > 0)){
+							wait(pause == 0 ? 0 : left);
+							left = until - System.currentTimeMillis();
+						}
+						due = !_behind;
+					}
+				}
+			}catch(InterruptedException e){
+				//stopped
+			}
+		}, "top-cars");
+		_worker.setDaemon(true);
+		_worker.start();
+	}
+
+	public synchronized boolean isSeeded(){
+		return _seeded;
+	}
+
+	synchronized boolean isBehind(){
+		return _behind;
+	}
+
+	public synchronized String getStatistics(){
+		if(!_seeded) return "top cars: not seeded" + (_lastError == null ? "" : ", last error: " + _lastError);
+		return "top cars: " + _top.size() + " kept, " + _candidates.size() + " candidate(s), bound " + _bound + ", "
+			+ _answered + " answered, " + _fallbacks + " fallback(s), " + _seeds + " seed(s) (last " + _lastSeedMillis + " ms), "
+			+ _promotions + " promotion(s), " + _reconciliations + " reconciliation(s), " + _mismatches + " mismatch(es), "
+			+ (_sketch.bytes() >> 10) + " KB sketch" + (_lastError == null ? "" : ", last error: " + _lastError);
+	}
+
+	/**
+	 * Method to stop the daemon thread.
+	 */
+	public void close(){
+		Thread worker;
+		synchronized(this){
+			worker = _worker;
+			_worker = null;
+		}
+		if(worker != null) worker.interrupt();
+	}
+}//end TopCars
@@ -0,0 +1,86 @@
+/**
+ * This class holds the input rules of the MechanicShop schema so that the
+ * interactive prompts and the bulk loader reject the same values.  Every
+ * check returns the accepted value or throws a ShopException whose
+ * message is shown to the user.
+ *
+ */
+public class Validators{
+	static final int NAME_LENGTH = 32;
+	static final int PHONE_LENGTH = 13;
+	static final int ADDRESS_LENGTH = 256;
+	static final int VIN_LENGTH = 16;
+	//_YEARS domain: 0 <= experience < 100
+	static final int MAX_EXPERIENCE = 100;
+	//_YEAR domain: year >= 1970
+	static final int MIN_YEAR = 1970;
+
+	//checks a CHAR/VARCHAR column that may not be empty
+	static String text(String value, int maxLength, String field){
+		if(value == null || value.length() <= 0 || value.length() > maxLength) {
+			throw new ShopException(field + " cannot be null or exceed " + maxLength + " characters");
+		}
+		return value;
+	}
+
+	public static String firstName(String value){
+		return text(value, NAME_LENGTH, "First name");
+	}
+
+	public static String lastName(String value){
+		return text(value, NAME_LENGTH, "Last name");
+	}
+
+	public static String phone(String value){
+		return text(value, PHONE_LENGTH, "Phone number");
+	}
+
+	public static String address(String value){
+		return text(value, ADDRESS_LENGTH, "Address");
+	}
+
+	public static String vin(String value){
+		return text(value, VIN_LENGTH, "VIN");
+	}
+
+	public static String make(String value){
+		return text(value, NAME_LENGTH, "Make");
+	}
+
+	public static String model(String value){
+		return text(value, NAME_LENGTH, "Model");
+	}
+
+	//checks a surrogate key typed by the user; the keys start at 0
+	public static int id(int value, String field){
+		if(value < 0) throw new ShopException(field + " cannot be negative");
+		return value;
+	}
+
+	public static int id(Integer value, String field){
+		if(value == null) throw new ShopException(field + " cannot be null");
+		return id(value.intValue(), field);
+	}
+
+	public static int experience(int value){
+		if(value < 0 || value >= MAX_EXPERIENCE) throw new ShopException("Employee's experience cannot be null or exceed " + MAX_EXPERIENCE + " years");
+		return value;
+	}
+
+	public static int year(int value){
+		if(value < MIN_YEAR) throw new ShopException("Year cannot be less than " + MIN_YEAR);
+		return value;
+	}
+
+	//_PINTEGER domain
+	public static int odometer(int value){
+		if(value <= 0) throw new ShopException("Odometer reading must be positive");
+		return value;
+	}
+
+	//_PINTEGER domain
+	public static int bill(int value){
+		if(value <= 0) throw new ShopException("Bill must be positive");
+		return value;
+	}
+}//end Validators
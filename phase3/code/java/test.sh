@@ -0,0 +1,30 @@
+#! /bin/bash
+# Runs the tests in test/ against a local Postgres started with the scripts
+# in ../postgresql.  Pass --fresh to (re)start the server and create the
+# database first.  Every test makes and deletes its own rows.
+#
+# Examples:
+#   ./test.sh --fresh
+#   ./test.sh CloseServiceRequestTest
+
+DBNAME=$LOGNAME"_DB"
+PORT=5432
+
+if [ "$1" == "--fresh" ]; then
+	shift
+	(cd ../postgresql && source ./startPostgreSQL.sh && INCREMENTAL=1 && source ./createPostgreDB.sh)
+fi
+
+./compile.sh
+mkdir -p bin/test
+javac -cp "lib/postgresql-42.1.4.jar:bin/" test/*.java -d bin/test/ || exit 1
+
+TESTS="$@"
+if [ -z "$TESTS" ]; then
+	TESTS=$(cd test && ls *Test.java | grep -v '^ShopTest.java$' | sed 's/\.java$//')
+fi
+FAILED=0
+for t in $TESTS; do
+	java -cp lib/*:bin/:bin/test/ $t $DBNAME $PORT $LOGNAME || FAILED=1
+done
+exit $FAILED
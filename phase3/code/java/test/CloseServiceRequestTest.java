@@ -0,0 +1,54 @@
+/**
+ * This class tests ShopService.closeServiceRequest, and in particular the
+ * two ways the guarded insert of ShopQueries.CLOSE_SERVICE_REQUEST turns
+ * an existing request away: a closing date before the request date, and
+ * a request that is already closed.  Both return a row whose Closed_Request
+ * columns are all null, so the request date has to be read from its own
+ * column.
+ *
+ */
+public class CloseServiceRequestTest extends ShopTest{
+
+	CloseServiceRequestTest(String[] args) throws Exception {
+		super(args);
+	}
+
+	void run() throws Exception {
+		Customer owner = customer();
+		Mechanic mechanic = mechanic();
+		Car car = car(owner);
+		ServiceRequest req = request(owner, car, daysAgo(2));
+
+		fails("Closing date can't be before request date",
+			() -> _service.closeServiceRequest(new ClosedRequest(null, req.rid, mechanic.id, daysAgo(3), "early", 10)),
+			"closing before the request date");
+
+		ClosedRequest closed = _service.closeServiceRequest(new ClosedRequest(null, req.rid, mechanic.id, daysAgo(1), "done", 10));
+		made("DELETE FROM Closed_Request WHERE wid = ?;", closed.wid);
+		equal(req.rid, closed.rid, "closed rid");
+		equal(daysAgo(1), closed.date, "closing date");
+
+		fails("is already closed",
+			() -> _service.closeServiceRequest(new ClosedRequest(null, req.rid, mechanic.id, daysAgo(0), "again", 10)),
+			"closing twice");
+
+		fails("Service Request does not exist",
+			() -> _service.closeServiceRequest(new ClosedRequest(null, -1, mechanic.id, daysAgo(0), "none", 10)),
+			"closing a missing request");
+	}
+
+	public static void main(String[] args){
+		CloseServiceRequestTest test = null;
+		boolean ok = false;
+		try{
+			test = new CloseServiceRequestTest(args);
+			test.run();
+		}catch(Exception e){
+			if(test != null) test.failed(e);
+			else System.err.println(e.getMessage());
+		}finally{
+			if(test != null) ok = test.finish();
+		}
+		System.exit(ok ? 0 : 1);
+	}
+}//end CloseServiceRequestTest
@@ -0,0 +1,80 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * This class tests that IncrementalReport counts a request whose key was
+ * drawn from an old KeyAllocator block and committed after requests with
+ * higher keys.  The key stays uncommitted across several refreshes, the
+ * way a block handed out early or a rid reserved by the intake queue
+ * does, and must be counted once when it commits, however long that took.
+ * Needs sql/report_changes.sql, which test.sh --fresh loads.
+ *
+ */
+public class IncrementalReportTest extends ShopTest{
+	//a day of its own, so that the window holds the test's requests only
+	static final LocalDate DAY = LocalDate.of(1999, 12, 31);
+	static final String INSERT_REQUEST =
+		"INSERT INTO Service_Request (rid, customer_id, car_vin, date, odometer, complain) VALUES (?, ?, ?, ?, ?, ?);";
+
+	IncrementalReportTest(String[] args) throws Exception {
+		super(args);
+	}
+
+	//the request count of one car as the report shows it
+	static long count(IncrementalReport report, String vin) throws SQLException {
+		for(List<String> row : report.page(null, Integer.MAX_VALUE))
+			if(row.get(3).equals(vin)) return Long.parseLong(row.get(2));
+		return 0;
+	}
+
+	void run() throws Exception {
+		Customer owner = customer();
+		Car car = car(owner);
+		java.sql.Date day = java.sql.Date.valueOf(DAY);
+		//drawn before the requests below, so it is the lowest key of the three
+		int oldKey = _service.getKeys().next(KeyAllocator.Key.SERVICE_REQUEST);
+		request(owner, car, day);
+
+		IncrementalReport report = new IncrementalReport(_esql, ReportQueries.Report.MOST_SERVICED_CARS, new DateWindow(DAY, DAY.plusDays(1)));
+		equal(1L, count(report, car.vin), "count after the first read");
+
+		ServiceRequest later = request(owner, car, day);
+		check(later.rid > oldKey, "the later request has the higher key");
+		_esql.withConnection(conn -> {
+			Connection c = conn.getConnection();
+			c.setAutoCommit(false);
+			try{
+				MechanicShop.prepare(conn, INSERT_REQUEST, oldKey, owner.id, car.vin, day, 1000, "old block").executeUpdate();
+				made("DELETE FROM Service_Request WHERE rid = ?;", oldKey);
+				for(int i = 0; i < 3; ++i)
+					equal(2L, count(report, car.vin), "count while the old key is uncommitted, refresh " + i);
+				c.commit();
+			}finally{
+				c.rollback();
+				c.setAutoCommit(true);
+			}
+			return null;
+		});
+		equal(3L, count(report, car.vin), "count once the old key committed");
+		equal(3L, count(report, car.vin), "count on the following refresh");
+	}
+
+	public static void main(String[] args){
+		//every read refreshes, so each check sees the rows committed before it
+		System.setProperty(ShopConfig.PREFIX + "reports.incrementalMinRefreshMillis", "0");
+		IncrementalReportTest test = null;
+		boolean ok = false;
+		try{
+			test = new IncrementalReportTest(args);
+			test.run();
+		}catch(Exception e){
+			if(test != null) test.failed(e);
+			else System.err.println(e.getMessage());
+		}finally{
+			if(test != null) ok = test.finish();
+		}
+		System.exit(ok ? 0 : 1);
+	}
+}//end IncrementalReportTest
@@ -0,0 +1,121 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class is the small harness the tests in this directory share.  A
+ * test is a main method run against a database created by
+ * ../postgresql/createPostgreDB.sh; it makes its own rows through
+ * ShopService, checks them, and deletes them again, so it can be run
+ * against the loaded sample data.  test.sh compiles and runs every test.
+ *
+ */
+public class ShopTest{
+
+	/**
+	 * One check that is expected to throw.
+	 */
+	interface Failing{
+		void run() throws Exception;
+	}
+
+	protected final MechanicShop _esql;
+	protected final ShopService _service;
+	private int _passed = 0;
+	private final List<String> _failures = new ArrayList<String>();
+	//rows made by the test, deleted in reverse order by cleanup()
+	private final List<Object[]> _made = new ArrayList<Object[]>();
+
+	protected ShopTest(String[] args) throws Exception {
+		if(args.length < 3)
+			throw new IllegalArgumentException("Usage: java [-classpath <classpath>] " + getClass().getName() + " <dbname> <port> <user>");
+		Class.forName("org.postgresql.Driver");
+		this._esql = new MechanicShop(args[0], args[1], args[2], "");
+		this._service = _esql.service();
+	}
+
+	protected void check(boolean ok, String what){
+		if(ok) ++_passed;
+		else _failures.add(what);
+	}
+
+	protected void equal(Object expected, Object actual, String what){
+		check(expected == null ? actual == null : expected.equals(actual), what + ": expected " + expected + " but was " + actual);
+	}
+
+	//an exception that stopped the test
+	protected void failed(Exception e){
+		_failures.add("stopped by " + e);
+	}
+
+	//the work must throw a RuntimeException whose message contains the text
+	protected void fails(String text, Failing work, String what){
+		try{
+			work.run();
+			_failures.add(what + ": did not fail");
+		}catch(RuntimeException e){
+			check(String.valueOf(e.getMessage()).contains(text), what + ": failed with \"" + e.getMessage() + "\"");
+		}catch(Exception e){
+			_failures.add(what + ": failed with " + e);
+		}
+	}
+
+	/**
+	 * Methods to make the rows a test works on, each with the next key of
+	 * its sequence.  They are deleted again by cleanup().
+	 */
+	protected Customer customer() throws SQLException {
+		Customer c = _service.addCustomer(new Customer(null, "Test", "Customer", "(000)000-0000", "test"));
+		made("DELETE FROM Customer WHERE id = ?;", c.id);
+		return c;
+	}
+
+	protected Mechanic mechanic() throws SQLException {
+		Mechanic m = _service.addMechanic(new Mechanic(null, "Test", "Mechanic", 1));
+		made("DELETE FROM Mechanic WHERE id = ?;", m.id);
+		return m;
+	}
+
+	protected Car car(Customer owner) throws SQLException {
+		String vin = String.format("TEST%012d", System.nanoTime() % 1000000000000L);
+		Car car = _service.addCar(new Car(vin, "Test", "Car", 2000));
+		made("DELETE FROM Car WHERE vin = ?;", vin);
+		_service.addOwnership(owner.id, vin);
+		made("DELETE FROM Owns WHERE car_vin = ?;", vin);
+		return car;
+	}
+
+	protected ServiceRequest request(Customer owner, Car car, java.sql.Date date) throws SQLException {
+		ServiceRequest req = _service.openServiceRequest(new ServiceRequest(null, owner.id, car.vin, date, 1000, "test"));
+		made("DELETE FROM Service_Request WHERE rid = ?;", req.rid);
+		return req;
+	}
+
+	protected void made(String delete, Object key){
+		_made.add(new Object[]{ delete, key });
+	}
+
+	/**
+	 * Method to delete the rows made by the test, print the outcome and
+	 * close the connections.
+	 *
+	 * @return whether every check passed
+	 */
+	protected boolean finish(){
+		for(int i = _made.size() - 1; i >= 0; --i){
+			try{
+				_esql.executeUpdate((String) _made.get(i)[0], _made.get(i)[1]);
+			}catch(SQLException e){
+				System.err.println("Cannot clean up: " + e.getMessage());
+			}
+		}
+		_esql.cleanup();
+		for(String f : _failures) System.out.println("FAIL " + getClass().getName() + ": " + f);
+		System.out.println(getClass().getName() + ": " + _passed + " passed, " + _failures.size() + " failed");
+		return _failures.isEmpty();
+	}
+
+	static java.sql.Date daysAgo(int days){
+		return java.sql.Date.valueOf(java.time.LocalDate.now().minusDays(days));
+	}
+}//end ShopTest
@@ -10,4 +10,15 @@ cp ../data/*.csv /tmp/$LOGNAME/test/data/.
 sleep 1
 
 psql -h /tmp/$LOGNAME/sockets $LOGNAME"_DB" < ../sql/create.sql
+# monthly partitions of the request tables, PostgreSQL 12 or later
+if [ -n "$PARTITIONED" ]; then
+	psql -h /tmp/$LOGNAME/sockets $LOGNAME"_DB" < ../sql/partition.sql
+fi
+psql -h /tmp/$LOGNAME/sockets $LOGNAME"_DB" < ../sql/sequences.sql
 psql -h /tmp/$LOGNAME/sockets $LOGNAME"_DB" < ../sql/index.sql
+psql -h /tmp/$LOGNAME/sockets $LOGNAME"_DB" < ../sql/search.sql
+psql -h /tmp/$LOGNAME/sockets $LOGNAME"_DB" < ../sql/reporting.sql
+# change log of the incremental reports, which only they prune
+if [ -n "$INCREMENTAL" ]; then
+	psql -h /tmp/$LOGNAME/sockets $LOGNAME"_DB" < ../sql/report_changes.sql
+fi
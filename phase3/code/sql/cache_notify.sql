@@ -0,0 +1,63 @@
+------------------------------
+---CACHE INVALIDATION---------
+------------------------------
+-- Notifications for the client-side entity caches (ShopCache).  Every
+-- change to Customer, Mechanic, Car or Owns sends '<table>:<key>' on the
+-- shop_cache channel, and clients started with
+-- -Dmechanicshop.cache.listen=true drop the matching entries, so a row
+-- changed by another program or in psql is not served stale until its TTL
+-- runs out.  Notifications are delivered when the transaction commits.
+-- Optional, and not loaded by createPostgreDB.sh: a bulk load would send
+-- one notification per row.  Drop the triggers before loading in bulk.
+-- Load after create.sql: psql <db> < cache_notify.sql
+
+-- TG_ARGV[0] names the entity in the payload, TG_ARGV[1] the key column.
+CREATE OR REPLACE FUNCTION notify_shop_cache()
+ RETURNS "trigger" AS
+ $BODY$
+ DECLARE
+   old_key TEXT;
+   new_key TEXT;
+ BEGIN
+   IF TG_OP <> 'INSERT' THEN
+     old_key := TG_ARGV[0] || ':' || (to_jsonb(OLD) ->> TG_ARGV[1]);
+     PERFORM pg_notify('shop_cache', old_key);
+   END IF;
+   IF TG_OP <> 'DELETE' THEN
+     new_key := TG_ARGV[0] || ':' || (to_jsonb(NEW) ->> TG_ARGV[1]);
+     IF new_key IS DISTINCT FROM old_key THEN
+       PERFORM pg_notify('shop_cache', new_key);
+     END IF;
+   END IF;
+   RETURN NULL;
+ END;
+ $BODY$
+ LANGUAGE plpgsql VOLATILE;
+
+DROP TRIGGER IF EXISTS CustomerCacheTrigger ON Customer;
+CREATE TRIGGER CustomerCacheTrigger
+ AFTER INSERT OR UPDATE OR DELETE
+ ON Customer
+ FOR EACH ROW
+ EXECUTE PROCEDURE notify_shop_cache('customer', 'id');
+
+DROP TRIGGER IF EXISTS MechanicCacheTrigger ON Mechanic;
+CREATE TRIGGER MechanicCacheTrigger
+ AFTER INSERT OR UPDATE OR DELETE
+ ON Mechanic
+ FOR EACH ROW
+ EXECUTE PROCEDURE notify_shop_cache('mechanic', 'id');
+
+DROP TRIGGER IF EXISTS CarCacheTrigger ON Car;
+CREATE TRIGGER CarCacheTrigger
+ AFTER INSERT OR UPDATE OR DELETE
+ ON Car
+ FOR EACH ROW
+ EXECUTE PROCEDURE notify_shop_cache('car', 'vin');
+
+DROP TRIGGER IF EXISTS OwnsCacheTrigger ON Owns;
+CREATE TRIGGER OwnsCacheTrigger
+ AFTER INSERT OR UPDATE OR DELETE
+ ON Owns
+ FOR EACH ROW
+ EXECUTE PROCEDURE notify_shop_cache('owns', 'customer_id');
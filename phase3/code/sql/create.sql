@@ -70,6 +70,7 @@ CREATE TABLE Service_Request
 	odometer _PINTEGER NOT NULL,
 	complain TEXT,
 	PRIMARY KEY (rid),
+	UNIQUE (rid, date), --referenced by Closed_Request together with the request date
 	FOREIGN KEY (customer_id) REFERENCES Customer(id),
 	FOREIGN KEY (car_vin) REFERENCES Car(vin)
 );
@@ -82,11 +83,33 @@ CREATE TABLE Closed_Request
 	date DATE NOT NULL,
 	comment TEXT,
 	bill _PINTEGER NOT NULL,
+	request_date DATE NOT NULL, --date of the request closed, so partition.sql can keep both in the same month
 	PRIMARY KEY (wid),
-	FOREIGN KEY (rid) REFERENCES Service_Request(rid),
+	UNIQUE (rid, request_date), --a request is closed at most once (its rid determines request_date)
+	FOREIGN KEY (rid, request_date) REFERENCES Service_Request(rid, date) ON UPDATE CASCADE,
 	FOREIGN KEY (mid) REFERENCES Mechanic(id)
 );
 
+-- Rows written without a request_date, like those of the data files,
+-- take the date of the request they close.
+CREATE OR REPLACE FUNCTION fill_request_date()
+ RETURNS "trigger" AS
+ $BODY$
+ BEGIN
+   IF NEW.request_date IS NULL THEN
+     SELECT date INTO NEW.request_date FROM Service_Request WHERE rid = NEW.rid;
+   END IF;
+   RETURN NEW;
+ END;
+ $BODY$
+ LANGUAGE plpgsql VOLATILE;
+
+CREATE TRIGGER FillRequestDateTrigger
+ BEFORE INSERT
+ ON Closed_Request
+ FOR EACH ROW
+ EXECUTE PROCEDURE fill_request_date();
+
 ----------------------------
 -- INSERT DATA STATEMENTS --
 ----------------------------
@@ -1 +1,33 @@
-CREATE INDEX cid ON Customer (id);
+-------------
+---INDEXES---
+-------------
+-- Customer.id, Mechanic.id, Car.vin, Owns.ownership_id, Service_Request.rid
+-- and Closed_Request.wid are already indexed by their primary keys.
+DROP INDEX IF EXISTS cid;
+
+-- InsertServiceRequest: customer lookup by last name
+CREATE INDEX customer_lname ON Customer (lname);
+
+-- InsertServiceRequest: cars of a customer, ownership check;
+-- ListCustomersWithMoreThan20Cars: GROUP BY customer_id
+CREATE INDEX owns_customer_id_car_vin ON Owns (customer_id, car_vin);
+
+-- ListKCarsWithTheMostServices, ListCarsBefore1995With50000Milles: join on car_vin
+CREATE INDEX service_request_car_vin ON Service_Request (car_vin, odometer);
+
+-- ListCustomersWithBillLessThan100, ListCustomersInDescendingOrderOfTheirTotalBill: join on customer_id
+CREATE INDEX service_request_customer_id ON Service_Request (customer_id);
+
+-- Every bill report joins Closed_Request on rid through the index behind
+-- its UNIQUE (rid, request_date) constraint in create.sql, so no index is
+-- declared here.
+DROP INDEX IF EXISTS closed_request_rid;
+
+-- ListCustomersWithBillLessThan100: pages are read in (bill, wid) order
+-- and each one seeks past the last key shown
+CREATE INDEX closed_request_bill ON Closed_Request (bill, wid);
+
+-- ListCarsBefore1995With50000Milles
+CREATE INDEX car_year ON Car (year);
+
+ANALYZE;
@@ -0,0 +1,156 @@
+------------------------------
+---MONTHLY PARTITIONS---------
+------------------------------
+-- Rebuilds Service_Request and Closed_Request as tables range partitioned
+-- by month, so that a report over a date window only reads the months in
+-- the window, and months past their use can be detached into the
+-- shop_archive schema instead of slowing down every query on the rest.
+-- Closed_Request is partitioned by request_date, the date of the request
+-- it closes, so a request and its closing always share a month and the
+-- month of both tables is archived together.
+--
+-- Postgres requires the partition key in every unique constraint of a
+-- partitioned table, so the keys become (rid, date), (wid, request_date)
+-- and (rid, request_date).  rid and wid stay unique as long as they come
+-- from their sequences, but the database no longer checks it across months.
+-- A row whose month has no partition is refused ("no partition of relation
+-- found for row"); PartitionMaintainer creates the coming months ahead of
+-- time and ShopService creates a missing month on demand.
+--
+-- Needs PostgreSQL 12 or later (foreign keys to partitioned tables).
+-- Optional; load right after create.sql and before sequences.sql, since
+-- both tables are dropped and created again: psql <db> < partition.sql
+
+BEGIN;
+
+CREATE TEMP TABLE Service_Request_Rows ON COMMIT DROP AS SELECT * FROM Service_Request;
+CREATE TEMP TABLE Closed_Request_Rows ON COMMIT DROP AS SELECT * FROM Closed_Request;
+
+DROP TABLE IF EXISTS Closed_Request CASCADE;
+DROP TABLE IF EXISTS Service_Request CASCADE;
+
+CREATE TABLE Service_Request
+(
+	rid INTEGER NOT NULL,
+	customer_id INTEGER NOT NULL,
+	car_vin VARCHAR(16) NOT NULL,
+	date DATE NOT NULL,
+	odometer _PINTEGER NOT NULL,
+	complain TEXT,
+	PRIMARY KEY (rid, date),
+	FOREIGN KEY (customer_id) REFERENCES Customer(id),
+	FOREIGN KEY (car_vin) REFERENCES Car(vin)
+) PARTITION BY RANGE (date);
+
+CREATE TABLE Closed_Request
+(
+	wid INTEGER NOT NULL,
+	rid INTEGER NOT NULL,
+	mid INTEGER NOT NULL,
+	date DATE NOT NULL,
+	comment TEXT,
+	bill _PINTEGER NOT NULL,
+	request_date DATE NOT NULL, --the partition key, supplied by every writer
+	PRIMARY KEY (wid, request_date),
+	UNIQUE (rid, request_date), --a request is closed at most once (its rid determines request_date)
+	FOREIGN KEY (rid, request_date) REFERENCES Service_Request(rid, date) ON UPDATE CASCADE,
+	FOREIGN KEY (mid) REFERENCES Mechanic(id)
+) PARTITION BY RANGE (request_date);
+
+CREATE SCHEMA IF NOT EXISTS shop_archive;
+
+-- service_request_2017_03 holds the requests of March 2017.
+CREATE OR REPLACE FUNCTION month_partition(parent TEXT, month DATE)
+ RETURNS TEXT AS
+ $BODY$
+   SELECT lower(parent) || '_' || to_char(month, 'YYYY_MM');
+ $BODY$
+ LANGUAGE sql IMMUTABLE;
+
+-- Creates the partitions of both tables for every month from the one of
+-- first through the one of last that does not have one yet, and returns
+-- how many it created.  An archived month is created again, empty.
+CREATE OR REPLACE FUNCTION ensure_month_partitions(first DATE, last DATE)
+ RETURNS INTEGER AS
+ $BODY$
+ DECLARE
+   month DATE := date_trunc('month', first)::date;
+   parent TEXT;
+   created INTEGER := 0;
+ BEGIN
+   -- two clients creating the same month would collide in the catalog
+   PERFORM pg_advisory_xact_lock(hashtext('month_partitions'));
+   WHILE month <= last LOOP
+     FOREACH parent IN ARRAY ARRAY['service_request', 'closed_request'] LOOP
+       IF to_regclass(month_partition(parent, month)) IS NULL THEN
+         EXECUTE format('CREATE TABLE %I PARTITION OF %I FOR VALUES FROM (%L) TO (%L)',
+           month_partition(parent, month), parent, month, (month + INTERVAL '1 month')::date);
+         created := created + 1;
+       END IF;
+     END LOOP;
+     month := (month + INTERVAL '1 month')::date;
+   END LOOP;
+   RETURN created;
+ END;
+ $BODY$
+ LANGUAGE plpgsql VOLATILE;
+
+-- Detaches the month partitions of both tables that end on or before the
+-- given date, moves them to the shop_archive schema, where they can still
+-- be queried, dumped or dropped, and returns their new names.  Closed
+-- months go first since they reference the request months; their foreign
+-- key to Service_Request is dropped with them.  Detaching locks both
+-- tables for a moment.  The aggregates of reporting.sql keep counting the
+-- archived rows until refresh_report_aggregates() rebuilds them.
+CREATE OR REPLACE FUNCTION archive_month_partitions(before DATE)
+ RETURNS SETOF TEXT AS
+ $BODY$
+ DECLARE
+   parent TEXT;
+   part RECORD;
+   fk TEXT;
+   archived TEXT;
+ BEGIN
+   PERFORM pg_advisory_xact_lock(hashtext('month_partitions'));
+   FOREACH parent IN ARRAY ARRAY['closed_request', 'service_request'] LOOP
+     FOR part IN
+       SELECT C.oid::regclass AS rel, C.relname,
+         (regexp_match(pg_get_expr(C.relpartbound, C.oid), 'TO \(''([^'']+)''\)'))[1]::date AS upper_bound
+       FROM pg_inherits AS I, pg_class AS C
+       WHERE I.inhrelid = C.oid AND I.inhparent = parent::regclass
+       ORDER BY C.relname
+     LOOP
+       CONTINUE WHEN part.upper_bound IS NULL OR part.upper_bound > before;
+       EXECUTE format('ALTER TABLE %I DETACH PARTITION %s', parent, part.rel);
+       FOR fk IN
+         SELECT conname FROM pg_constraint
+         WHERE conrelid = part.rel AND contype = 'f' AND confrelid = 'service_request'::regclass
+       LOOP
+         EXECUTE format('ALTER TABLE %s DROP CONSTRAINT %I', part.rel, fk);
+       END LOOP;
+       -- a month archived, created again and archived a second time
+       archived := part.relname;
+       IF to_regclass('shop_archive.' || quote_ident(archived)) IS NOT NULL THEN
+         archived := archived || '_' || to_char(clock_timestamp(), 'YYYYMMDDHH24MISS');
+         EXECUTE format('ALTER TABLE %s RENAME TO %I', part.rel, archived);
+       END IF;
+       EXECUTE format('ALTER TABLE %I SET SCHEMA shop_archive', archived);
+       RETURN NEXT 'shop_archive.' || archived;
+     END LOOP;
+   END LOOP;
+ END;
+ $BODY$
+ LANGUAGE plpgsql VOLATILE;
+
+-- Every month of the loaded rows and the three months ahead.
+SELECT ensure_month_partitions(
+	LEAST((SELECT MIN(date) FROM Service_Request_Rows), CURRENT_DATE),
+	(CURRENT_DATE + INTERVAL '3 months')::date);
+
+INSERT INTO Service_Request (rid, customer_id, car_vin, date, odometer, complain)
+SELECT rid, customer_id, car_vin, date, odometer, complain FROM Service_Request_Rows;
+
+INSERT INTO Closed_Request (wid, rid, mid, date, comment, bill, request_date)
+SELECT wid, rid, mid, date, comment, bill, request_date FROM Closed_Request_Rows;
+
+COMMIT;
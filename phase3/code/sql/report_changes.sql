@@ -0,0 +1,56 @@
+------------------------------
+---REPORT CHANGE LOG----------
+------------------------------
+-- The key of every row inserted into the request tables, with the
+-- transaction that inserted it.  IncrementalReport reads back the keys of
+-- the transactions its previous snapshot did not see, so a key drawn early
+-- and committed late is still folded in, and prunes the entries older
+-- than twice mechanicshop.reports.incrementalRebuildMillis on each full
+-- rebuild.
+-- Only needed for the incremental reports (reports.incremental, or
+-- ShopServer --incremental), and only loaded by createPostgreDB.sh when
+-- $INCREMENTAL is set: nothing else prunes the log, so drop this table
+-- when the incremental reports are turned off.  Drop the triggers before
+-- loading in bulk, which would log one entry per row.
+-- Load after create.sql: psql <db> < report_changes.sql
+
+DROP TABLE IF EXISTS Report_Change CASCADE;
+
+CREATE TABLE Report_Change
+(
+	source VARCHAR(16) NOT NULL,
+	seq INTEGER NOT NULL,
+	txid BIGINT NOT NULL DEFAULT txid_current(),
+	logged_at TIMESTAMP NOT NULL DEFAULT clock_timestamp()
+);
+CREATE INDEX report_change_txid ON Report_Change (source, txid);
+CREATE INDEX report_change_logged_at ON Report_Change (logged_at);
+
+CREATE OR REPLACE FUNCTION log_report_change()
+ RETURNS "trigger" AS
+ $BODY$
+ BEGIN
+   -- TG_ARGV rather than TG_TABLE_NAME, which names the partition when sql/partition.sql is loaded
+   IF TG_ARGV[0] = 'closed_request' THEN
+     INSERT INTO Report_Change (source, seq) VALUES ('closed_request', NEW.wid);
+   ELSE
+     INSERT INTO Report_Change (source, seq) VALUES ('service_request', NEW.rid);
+   END IF;
+   RETURN NEW;
+ END;
+ $BODY$
+ LANGUAGE plpgsql VOLATILE;
+
+DROP TRIGGER IF EXISTS ClosedRequestChangeTrigger ON Closed_Request;
+CREATE TRIGGER ClosedRequestChangeTrigger
+ AFTER INSERT
+ ON Closed_Request
+ FOR EACH ROW
+ EXECUTE PROCEDURE log_report_change('closed_request');
+
+DROP TRIGGER IF EXISTS ServiceRequestChangeTrigger ON Service_Request;
+CREATE TRIGGER ServiceRequestChangeTrigger
+ AFTER INSERT
+ ON Service_Request
+ FOR EACH ROW
+ EXECUTE PROCEDURE log_report_change('service_request');
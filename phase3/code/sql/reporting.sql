@@ -0,0 +1,210 @@
+------------------------------
+---REPORTING AGGREGATES-------
+------------------------------
+-- Precomputed aggregates behind the MechanicShop report menu options.
+-- They are kept current by the triggers below on every insert, update or
+-- delete of the base tables, so CloseServiceRequest, InsertServiceRequest
+-- and AddCar/Owns changes are reflected immediately.
+-- Load after create.sql: psql <db> < reporting.sql
+
+DROP TABLE IF EXISTS Customer_Bill_Total CASCADE;
+DROP TABLE IF EXISTS Car_Service_Stats CASCADE;
+DROP TABLE IF EXISTS Customer_Car_Count CASCADE;
+
+-- ListCustomersInDescendingOrderOfTheirTotalBill
+CREATE TABLE Customer_Bill_Total
+(
+	customer_id INTEGER NOT NULL,
+	total BIGINT NOT NULL,
+	PRIMARY KEY (customer_id)
+);
+-- the tie on customer_id gives the report pages a unique key to seek past
+CREATE INDEX customer_bill_total_total ON Customer_Bill_Total (total DESC, customer_id DESC);
+
+-- ListKCarsWithTheMostServices, ListCarsBefore1995With50000Milles
+CREATE TABLE Car_Service_Stats
+(
+	car_vin VARCHAR(16) NOT NULL,
+	num_requests INTEGER NOT NULL,
+	min_odometer INTEGER NOT NULL,
+	PRIMARY KEY (car_vin)
+);
+-- the tie on car_vin gives the report pages a unique key to seek past; C order, as the pages sort it
+CREATE INDEX car_service_stats_num_requests ON Car_Service_Stats (num_requests DESC, car_vin COLLATE "C" DESC);
+
+-- ListCustomersWithMoreThan20Cars
+CREATE TABLE Customer_Car_Count
+(
+	customer_id INTEGER NOT NULL,
+	num_cars INTEGER NOT NULL,
+	PRIMARY KEY (customer_id)
+);
+CREATE INDEX customer_car_count_num_cars ON Customer_Car_Count (num_cars);
+
+-------------------
+---RECOMPUTATION---
+-------------------
+-- Rebuild the aggregates of one key from the base tables.  Used when a
+-- row is updated or deleted, where a running total cannot be adjusted.
+
+CREATE OR REPLACE FUNCTION recompute_customer_bill_total(cid INTEGER)
+ RETURNS void AS
+ $BODY$
+ BEGIN
+   DELETE FROM Customer_Bill_Total WHERE customer_id = cid;
+   INSERT INTO Customer_Bill_Total (customer_id, total)
+   SELECT SR.customer_id, SUM(CR.bill)
+   FROM Closed_Request AS CR, Service_Request AS SR
+   WHERE CR.rid = SR.rid AND SR.customer_id = cid
+   GROUP BY SR.customer_id;
+ END;
+ $BODY$
+ LANGUAGE plpgsql VOLATILE;
+
+CREATE OR REPLACE FUNCTION recompute_car_service_stats(vin VARCHAR)
+ RETURNS void AS
+ $BODY$
+ BEGIN
+   DELETE FROM Car_Service_Stats WHERE car_vin = vin;
+   INSERT INTO Car_Service_Stats (car_vin, num_requests, min_odometer)
+   SELECT car_vin, COUNT(rid), MIN(odometer)
+   FROM Service_Request
+   WHERE car_vin = vin
+   GROUP BY car_vin;
+ END;
+ $BODY$
+ LANGUAGE plpgsql VOLATILE;
+
+CREATE OR REPLACE FUNCTION recompute_customer_car_count(cid INTEGER)
+ RETURNS void AS
+ $BODY$
+ BEGIN
+   DELETE FROM Customer_Car_Count WHERE customer_id = cid;
+   INSERT INTO Customer_Car_Count (customer_id, num_cars)
+   SELECT customer_id, COUNT(customer_id)
+   FROM Owns
+   WHERE customer_id = cid
+   GROUP BY customer_id;
+ END;
+ $BODY$
+ LANGUAGE plpgsql VOLATILE;
+
+-- Full rebuild, e.g. after a bulk COPY with triggers disabled.
+CREATE OR REPLACE FUNCTION refresh_report_aggregates()
+ RETURNS void AS
+ $BODY$
+ BEGIN
+   TRUNCATE Customer_Bill_Total, Car_Service_Stats, Customer_Car_Count;
+   INSERT INTO Customer_Bill_Total (customer_id, total)
+   SELECT SR.customer_id, SUM(CR.bill)
+   FROM Closed_Request AS CR, Service_Request AS SR
+   WHERE CR.rid = SR.rid
+   GROUP BY SR.customer_id;
+   INSERT INTO Car_Service_Stats (car_vin, num_requests, min_odometer)
+   SELECT car_vin, COUNT(rid), MIN(odometer)
+   FROM Service_Request
+   GROUP BY car_vin;
+   INSERT INTO Customer_Car_Count (customer_id, num_cars)
+   SELECT customer_id, COUNT(customer_id)
+   FROM Owns
+   GROUP BY customer_id;
+ END;
+ $BODY$
+ LANGUAGE plpgsql VOLATILE;
+
+----------------
+---TRIGGERS-----
+----------------
+-- Inserts, which is all the menu ever does, adjust the running values in
+-- place.  Updates and deletes recompute the affected keys.
+
+CREATE OR REPLACE FUNCTION maintain_customer_bill_total()
+ RETURNS "trigger" AS
+ $BODY$
+ DECLARE
+   cid INTEGER;
+ BEGIN
+   IF TG_OP = 'INSERT' THEN
+     SELECT customer_id INTO cid FROM Service_Request WHERE rid = NEW.rid AND date = NEW.request_date;
+     INSERT INTO Customer_Bill_Total (customer_id, total) VALUES (cid, NEW.bill)
+     ON CONFLICT (customer_id) DO UPDATE SET total = Customer_Bill_Total.total + EXCLUDED.total;
+     RETURN NEW;
+   END IF;
+   SELECT customer_id INTO cid FROM Service_Request WHERE rid = OLD.rid AND date = OLD.request_date;
+   PERFORM recompute_customer_bill_total(cid);
+   IF TG_OP = 'UPDATE' AND NEW.rid <> OLD.rid THEN
+     SELECT customer_id INTO cid FROM Service_Request WHERE rid = NEW.rid AND date = NEW.request_date;
+     PERFORM recompute_customer_bill_total(cid);
+   END IF;
+   RETURN NULL;
+ END;
+ $BODY$
+ LANGUAGE plpgsql VOLATILE;
+
+CREATE OR REPLACE FUNCTION maintain_car_service_stats()
+ RETURNS "trigger" AS
+ $BODY$
+ BEGIN
+   IF TG_OP = 'INSERT' THEN
+     INSERT INTO Car_Service_Stats (car_vin, num_requests, min_odometer) VALUES (NEW.car_vin, 1, NEW.odometer)
+     ON CONFLICT (car_vin) DO UPDATE SET num_requests = Car_Service_Stats.num_requests + 1,
+       min_odometer = LEAST(Car_Service_Stats.min_odometer, EXCLUDED.min_odometer);
+     RETURN NEW;
+   END IF;
+   PERFORM recompute_car_service_stats(OLD.car_vin);
+   IF TG_OP = 'UPDATE' THEN
+     IF NEW.car_vin <> OLD.car_vin THEN
+       PERFORM recompute_car_service_stats(NEW.car_vin);
+     END IF;
+     -- moving a request to another customer moves its bills too
+     IF NEW.customer_id <> OLD.customer_id THEN
+       PERFORM recompute_customer_bill_total(OLD.customer_id);
+       PERFORM recompute_customer_bill_total(NEW.customer_id);
+     END IF;
+   END IF;
+   RETURN NULL;
+ END;
+ $BODY$
+ LANGUAGE plpgsql VOLATILE;
+
+CREATE OR REPLACE FUNCTION maintain_customer_car_count()
+ RETURNS "trigger" AS
+ $BODY$
+ BEGIN
+   IF TG_OP = 'INSERT' THEN
+     INSERT INTO Customer_Car_Count (customer_id, num_cars) VALUES (NEW.customer_id, 1)
+     ON CONFLICT (customer_id) DO UPDATE SET num_cars = Customer_Car_Count.num_cars + 1;
+     RETURN NEW;
+   END IF;
+   PERFORM recompute_customer_car_count(OLD.customer_id);
+   IF TG_OP = 'UPDATE' AND NEW.customer_id <> OLD.customer_id THEN
+     PERFORM recompute_customer_car_count(NEW.customer_id);
+   END IF;
+   RETURN NULL;
+ END;
+ $BODY$
+ LANGUAGE plpgsql VOLATILE;
+
+DROP TRIGGER IF EXISTS CustomerBillTotalTrigger ON Closed_Request;
+CREATE TRIGGER CustomerBillTotalTrigger
+ AFTER INSERT OR UPDATE OR DELETE
+ ON Closed_Request
+ FOR EACH ROW
+ EXECUTE PROCEDURE maintain_customer_bill_total();
+
+DROP TRIGGER IF EXISTS CarServiceStatsTrigger ON Service_Request;
+CREATE TRIGGER CarServiceStatsTrigger
+ AFTER INSERT OR UPDATE OR DELETE
+ ON Service_Request
+ FOR EACH ROW
+ EXECUTE PROCEDURE maintain_car_service_stats();
+
+DROP TRIGGER IF EXISTS CustomerCarCountTrigger ON Owns;
+CREATE TRIGGER CustomerCarCountTrigger
+ AFTER INSERT OR UPDATE OR DELETE
+ ON Owns
+ FOR EACH ROW
+ EXECUTE PROCEDURE maintain_customer_car_count();
+
+-- Seed the aggregates from the data loaded by create.sql.
+SELECT refresh_report_aggregates();
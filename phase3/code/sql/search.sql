@@ -0,0 +1,24 @@
+------------------------------
+---CUSTOMER SEARCH------------
+------------------------------
+-- Indexes behind ShopService.searchCustomers, the last name search of
+-- InsertServiceRequest.  Names are compared lower cased; lower() of the
+-- CHAR(32) column also drops its blank padding.
+--   prefix:  lower(lname) ~>=~ 'smi' AND lower(lname) ~<~ 'smj', a range
+--            scan of the text_pattern_ops btree that works for any
+--            collation and for generic plans of the prepared statement
+--   fuzzy:   lower(lname) % 'smtih' ORDER BY lower(lname) <-> 'smtih',
+--            a nearest-neighbour scan of the pg_trgm GiST index that
+--            stops after the LIMIT best candidates
+-- Without pg_trgm (contrib) the client falls back to prefix search.
+-- Load after index.sql: psql <db> < search.sql
+
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+
+DROP INDEX IF EXISTS customer_lname_prefix;
+CREATE INDEX customer_lname_prefix ON Customer (lower(lname) text_pattern_ops, id);
+
+DROP INDEX IF EXISTS customer_lname_trgm;
+CREATE INDEX customer_lname_trgm ON Customer USING gist (lower(lname) gist_trgm_ops);
+
+ANALYZE Customer;
@@ -0,0 +1,61 @@
+------------------------------
+---KEY SEQUENCES--------------
+------------------------------
+-- Surrogate keys assigned by the database instead of typed in at the
+-- console.  Each sequence is owned by its column (so dropping the table
+-- drops it) and is the column's default.  Rows bulk loaded with explicit
+-- keys do not advance a sequence; sync_key_sequences() moves every
+-- sequence past the largest key in its table and is run by the loaders.
+-- The client reserves keys in blocks through KeyAllocator, so these stay
+-- at increment 1 and mix freely with the column defaults.
+-- Load after create.sql: psql <db> < sequences.sql
+
+DROP SEQUENCE IF EXISTS customer_id_seq CASCADE;
+DROP SEQUENCE IF EXISTS mechanic_id_seq CASCADE;
+DROP SEQUENCE IF EXISTS owns_ownership_id_seq CASCADE;
+DROP SEQUENCE IF EXISTS service_request_rid_seq CASCADE;
+DROP SEQUENCE IF EXISTS closed_request_wid_seq CASCADE;
+
+CREATE SEQUENCE customer_id_seq OWNED BY Customer.id;
+ALTER TABLE Customer ALTER COLUMN id SET DEFAULT nextval('customer_id_seq');
+
+CREATE SEQUENCE mechanic_id_seq OWNED BY Mechanic.id;
+ALTER TABLE Mechanic ALTER COLUMN id SET DEFAULT nextval('mechanic_id_seq');
+
+CREATE SEQUENCE owns_ownership_id_seq OWNED BY Owns.ownership_id;
+ALTER TABLE Owns ALTER COLUMN ownership_id SET DEFAULT nextval('owns_ownership_id_seq');
+
+CREATE SEQUENCE service_request_rid_seq OWNED BY Service_Request.rid;
+ALTER TABLE Service_Request ALTER COLUMN rid SET DEFAULT nextval('service_request_rid_seq');
+
+CREATE SEQUENCE closed_request_wid_seq OWNED BY Closed_Request.wid;
+ALTER TABLE Closed_Request ALTER COLUMN wid SET DEFAULT nextval('closed_request_wid_seq');
+
+-- Never moves a sequence backwards, since clients may still hold keys
+-- reserved from it that are not in the table yet.
+CREATE OR REPLACE FUNCTION sync_key_sequence(seq REGCLASS, top BIGINT)
+ RETURNS void AS
+ $BODY$
+ DECLARE
+   upcoming BIGINT;
+ BEGIN
+   EXECUTE format('SELECT CASE WHEN is_called THEN last_value + 1 ELSE last_value END FROM %s', seq) INTO upcoming;
+   PERFORM setval(seq, GREATEST(COALESCE(top, 0) + 1, upcoming), false);
+ END;
+ $BODY$
+ LANGUAGE plpgsql VOLATILE;
+
+CREATE OR REPLACE FUNCTION sync_key_sequences()
+ RETURNS void AS
+ $BODY$
+ BEGIN
+   PERFORM sync_key_sequence('customer_id_seq', (SELECT MAX(id) FROM Customer));
+   PERFORM sync_key_sequence('mechanic_id_seq', (SELECT MAX(id) FROM Mechanic));
+   PERFORM sync_key_sequence('owns_ownership_id_seq', (SELECT MAX(ownership_id) FROM Owns));
+   PERFORM sync_key_sequence('service_request_rid_seq', (SELECT MAX(rid) FROM Service_Request));
+   PERFORM sync_key_sequence('closed_request_wid_seq', (SELECT MAX(wid) FROM Closed_Request));
+ END;
+ $BODY$
+ LANGUAGE plpgsql VOLATILE;
+
+SELECT sync_key_sequences();